@@ -27,19 +27,15 @@ package hochschuledarmstadt.photostream_tools;
 import android.os.Handler;
 import android.os.Looper;
 
-import com.google.gson.Gson;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -60,20 +56,24 @@ class AndroidSocket {
     private static final String COMMENT_DELETED = "comment_deleted";
     private static final String PHOTO_DELETED = "photo_deleted";
     private static final String NEW_COMMENT_COUNT = "new_comment_count";
+    private static final String RESYNC_REQUIRED = "resync_required";
     private static final Handler handler = new Handler(Looper.getMainLooper());
-    private final HttpImageLoader imageLoader;
-    private final ImageCacher imageCacher;
     private IO.Options options;
     private Socket socket;
     private URI uri;
     private OnMessageListener onMessageListener;
+    private final SocketEventCoalescer eventCoalescer;
+    private final NewPhotoPipeline newPhotoPipeline;
+    private final EventCursor eventCursor = new EventCursor();
+    private final String baseQuery;
 
-    public AndroidSocket(IO.Options options, URI uri, HttpImageLoader imageLoader, ImageCacher imageCacher, OnMessageListener onMessageListener) throws NoSuchAlgorithmException, KeyManagementException {
+    public AndroidSocket(IO.Options options, URI uri, HttpImageLoaderFactory imageLoaderFactory, ImageCacher imageCacher, OnMessageListener onMessageListener) throws NoSuchAlgorithmException, KeyManagementException {
         this.options = options;
         this.uri = uri;
-        this.imageLoader = imageLoader;
-        this.imageCacher = imageCacher;
+        this.baseQuery = options.query;
         this.onMessageListener = onMessageListener;
+        this.eventCoalescer = new SocketEventCoalescer(handler, onMessageListener);
+        this.newPhotoPipeline = new NewPhotoPipeline(imageCacher, imageLoaderFactory, handler, onMessageListener);
     }
 
     public static SSLContext createSslContext() throws KeyManagementException, NoSuchAlgorithmException {
@@ -99,7 +99,8 @@ class AndroidSocket {
     }
 
     public boolean connect() throws URISyntaxException {
-        destroy();
+        closeSocket();
+        options.query = eventCursor.appendTo(baseQuery);
         socket = IO.socket(uri, options);
         initializeSocket();
         socket.connect();
@@ -114,6 +115,11 @@ class AndroidSocket {
     }
 
     public void destroy(){
+        closeSocket();
+        newPhotoPipeline.destroy();
+    }
+
+    private void closeSocket() {
         disconnect();
         if (socket != null) {
             socket.off();
@@ -160,85 +166,103 @@ class AndroidSocket {
             }
         });
 
-        socket.on(NEW_PHOTO, new Emitter.Listener() {
+        socket.on(Socket.EVENT_RECONNECT_ATTEMPT, new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                // the manager reads the query again for every attempt, so the server replays what has been missed
+                options.query = eventCursor.appendTo(baseQuery);
+            }
+        });
+
+        socket.on(RESYNC_REQUIRED, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
-                final Photo photo = new Gson().fromJson(args[0].toString(), Photo.class);
-                ArrayList<Photo> list = new ArrayList<>(1);
-                list.add(photo);
-                imageLoader.execute(list);
-                HttpImageLoader.HttpImage httpImage = imageLoader.take();
-                if (httpImage != null) {
-                    try {
-                        imageCacher.cacheImage(httpImage.getPhoto(), httpImage.getImageData());
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                // the server can not replay the gap anymore
+                eventCursor.reset(args);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onMessageListener.onResyncRequired();
                     }
-                    handler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            onMessageListener.onNewPhoto(photo);
-                        }
-                    });
-                }
-                list.clear();
+                });
+            }
+        });
+
+        socket.on(NEW_PHOTO, new Emitter.Listener() {
+            @Override
+            public void call(Object... args) {
+                if (!eventCursor.accept(args))
+                    return;
+                Photo photo = JsonCodec.gson().fromJson(args[0].toString(), Photo.class);
+                newPhotoPipeline.submit(photo);
             }
         });
 
         socket.on(NEW_COMMENT, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
+                if (!eventCursor.accept(args))
+                    return;
                 JSONObject jsonObject = (JSONObject) args[0];
-                Gson gson = new Gson();
-                final Comment comment = gson.fromJson(jsonObject.toString(), Comment.class);
-                handler.post(new Runnable() {
+                final Comment comment = JsonCodec.gson().fromJson(jsonObject.toString(), Comment.class);
+                Runnable event = new Runnable() {
                     @Override
                     public void run() {
-                        onMessageListener.onNewComment(comment);
+                        eventCoalescer.newComment(comment);
                     }
-                });
+                };
+                // the comment must not reach the listener before its photo
+                if (!newPhotoPipeline.deferUntilDelivered(comment.getPhotoId(), event))
+                    event.run();
             }
         });
 
         socket.on(COMMENT_DELETED, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
+                if (!eventCursor.accept(args))
+                    return;
                 final int commentId = Integer.parseInt(args[0].toString());
-                handler.post(new Runnable() {
+                Runnable event = new Runnable() {
                     @Override
                     public void run() {
-                        onMessageListener.onCommentDeleted(commentId);
+                        eventCoalescer.commentDeleted(commentId);
                     }
-                });
+                };
+                // the comment may be one that is held back for a pending photo
+                if (!newPhotoPipeline.deferBehindPending(event))
+                    event.run();
             }
         });
 
         socket.on(PHOTO_DELETED, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
-                final int photoId = Integer.parseInt(args[0].toString());
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        onMessageListener.onPhotoDeleted(photoId);
-                    }
-                });
+                if (!eventCursor.accept(args))
+                    return;
+                int photoId = Integer.parseInt(args[0].toString());
+                newPhotoPipeline.photoDeleted(photoId);
+                eventCoalescer.photoDeleted(photoId);
             }
         });
 
         socket.on(NEW_COMMENT_COUNT, new Emitter.Listener() {
             @Override
             public void call(Object... args) {
+                if (!eventCursor.accept(args))
+                    return;
                 JSONObject jsonObject = (JSONObject) args[0];
                 try {
                     final int photoId = jsonObject.getInt("photo_id");
                     final int comment_count = jsonObject.getInt("comment_count");
-                    handler.post(new Runnable() {
+                    Runnable event = new Runnable() {
                         @Override
                         public void run() {
-                            onMessageListener.onCommentCountChanged(photoId, comment_count);
+                            eventCoalescer.commentCountChanged(photoId, comment_count);
                         }
-                    });
+                    };
+                    if (!newPhotoPipeline.deferUntilDelivered(photoId, event))
+                        event.run();
                 } catch (JSONException e) {
                     e.printStackTrace();
                 }
@@ -265,5 +289,7 @@ class AndroidSocket {
         void onDisconnect();
 
         void onCommentCountChanged(int photoId, int comment_count);
+
+        void onResyncRequired();
     }
 }
@@ -32,10 +32,38 @@ import hochschuledarmstadt.photostream_tools.model.HttpError;
 
 abstract class BaseAsyncTask<Params, Progress, Result> extends AsyncTask<Params, Progress, Result> {
 
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private Runnable onFinishedListener;
+
     public BaseAsyncTask(){ }
 
+    /**
+     * @param onFinishedListener run on the main thread after the task has delivered its result or error, or has been cancelled
+     */
+    void setOnFinishedListener(Runnable onFinishedListener) {
+        this.onFinishedListener = onFinishedListener;
+    }
+
+    @Override
+    protected void onPostExecute(Result result) {
+        super.onPostExecute(result);
+        postFinished();
+    }
+
+    @Override
+    protected void onCancelled() {
+        super.onCancelled();
+        postFinished();
+    }
+
+    private void postFinished() {
+        // posted, so it runs after the result callbacks of the subclass and after an error posted by postError()
+        if (onFinishedListener != null)
+            handler.post(onFinishedListener);
+    }
+
     protected void postError(final HttpError httpError) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
+        handler.post(new Runnable() {
             @Override
             public void run() {
                 sendError(httpError);
@@ -48,13 +76,27 @@ abstract class BaseAsyncTask<Params, Progress, Result> extends AsyncTask<Params,
     protected static class HttpPhotoStreamException extends Throwable {
 
         private final HttpError httpError;
+        private final int statusCode;
 
         public HttpPhotoStreamException(HttpError httpError) {
+            this(httpError != null && httpError.getResponseCode() != null ? httpError.getResponseCode() : -1, httpError);
+        }
+
+        /**
+         * @param statusCode the HTTP status of the response, the error in its body may carry another code
+         */
+        public HttpPhotoStreamException(int statusCode, HttpError httpError) {
+            this.statusCode = statusCode;
             this.httpError = httpError;
         }
+
         public HttpError getHttpError() {
             return httpError;
         }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
     }
 
 }
@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool für nicht mehr benötigte Bitmaps. Der Speicher dieser Bitmaps wird beim Dekodieren weiterer
+ * Bilder über {@link BitmapFactory.Options#inBitmap} wiederverwendet, anstatt jedes Mal ein neues
+ * Bitmap anzulegen. Ein Bitmap, das an {@link #put(Bitmap)} übergeben wurde, darf anschließend
+ * nicht mehr verwendet werden.
+ */
+public final class BitmapPool {
+
+    private static final String TAG = BitmapPool.class.getName();
+    // a pooled bitmap may be at most this many times larger than the bitmap that is decoded into it
+    private static final int MAX_OVERSIZE_FACTOR = 4;
+    private static BitmapPool instance;
+
+    private final long maxSizeBytes;
+    // pooled bitmaps bucketed by their allocation size
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    // pooled bitmaps in the order they have been added, the oldest is dropped first
+    private final ArrayDeque<Bitmap> insertionOrder = new ArrayDeque<>();
+    private long sizeBytes = 0;
+
+    BitmapPool(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Liefert den Pool, der von allen Komponenten der Bibliothek verwendet wird
+     * @return BitmapPool
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null)
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        return instance;
+    }
+
+    /**
+     * Legt das übergebene {@code bitmap} in den Pool zurück. Bitmaps, die nicht wiederverwendet
+     * werden können, werden stattdessen recycled.
+     * @param bitmap das Bitmap, das nicht mehr verwendet wird
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled())
+            return;
+        int size = getAllocationSize(bitmap);
+        if (!bitmap.isMutable() || size > maxSizeBytes / 2) {
+            bitmap.recycle();
+            return;
+        }
+        for (Bitmap pooled : insertionOrder) {
+            if (pooled == bitmap)
+                return;
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        insertionOrder.add(bitmap);
+        sizeBytes += size;
+        while (sizeBytes > maxSizeBytes) {
+            Bitmap eldest = insertionOrder.poll();
+            removeFromBucket(eldest);
+            sizeBytes -= getAllocationSize(eldest);
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * Liefert ein Bitmap mit genau der angegebenen Größe aus dem Pool. Der Inhalt des Bitmaps ist transparent.
+     * @return das Bitmap oder {@code null}, wenn kein passendes Bitmap im Pool liegt
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int requiredSize = width * height * getBytesPerPixel(config);
+        Bitmap bitmap = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap = take(requiredSize, config, 0, 0);
+            if (bitmap != null)
+                bitmap.reconfigure(width, height, config);
+        } else {
+            bitmap = take(requiredSize, config, width, height);
+        }
+        if (bitmap != null)
+            bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Dekodiert ein Bild in ein Bitmap aus dem Pool, falls ein passendes vorhanden ist.
+     * {@code options} muss die Abmessungen des Bildes enthalten, also bereits mit
+     * {@link BitmapFactory.Options#inJustDecodeBounds} ausgelesen worden sein.
+     * @param streamProvider liefert den Stream des Bildes, wird beim erneuten Versuch ein zweites Mal aufgerufen
+     * @param options Optionen zum Dekodieren
+     * @return das dekodierte Bitmap
+     * @throws IOException wenn der Stream nicht geöffnet werden konnte
+     */
+    public Bitmap decodeStream(StreamProvider streamProvider, BitmapFactory.Options options) throws IOException {
+        options.inMutable = true;
+        Bitmap reusable = findReusable(options);
+        options.inBitmap = reusable;
+        if (reusable != null) {
+            try {
+                return decode(streamProvider, options);
+            } catch (IllegalArgumentException e) {
+                // the decoder rejected the pooled bitmap, decode into a new one instead
+                Logger.log(TAG, LogLevel.WARNING, e.toString());
+                options.inBitmap = null;
+                put(reusable);
+            }
+        }
+        return decode(streamProvider, options);
+    }
+
+    /**
+     * Dreht das übergebene Bitmap um {@code degrees} Grad. Das Ergebnis wird in ein Bitmap aus dem Pool
+     * gezeichnet, {@code source} wird anschließend in den Pool zurückgelegt.
+     */
+    public Bitmap rotate(Bitmap source, int degrees) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        int width = Math.round(bounds.width());
+        int height = Math.round(bounds.height());
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = get(width, height, config);
+        if (target == null)
+            target = Bitmap.createBitmap(width, height, config);
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        put(source);
+        return target;
+    }
+
+    private static Bitmap decode(StreamProvider streamProvider, BitmapFactory.Options options) throws IOException {
+        InputStream inputStream = streamProvider.openStream();
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            if (inputStream != null)
+                inputStream.close();
+        }
+    }
+
+    private synchronized Bitmap findReusable(BitmapFactory.Options options) {
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // jpeg decoders only sample by powers of two, so round down to get the real output size
+            int sampleSize = Math.max(1, Integer.highestOneBit(Math.max(1, options.inSampleSize)));
+            int width = (options.outWidth + sampleSize - 1) / sampleSize;
+            int height = (options.outHeight + sampleSize - 1) / sampleSize;
+            return take(width * height * getBytesPerPixel(config), config, 0, 0);
+        } else if (options.inSampleSize <= 1) {
+            // before KitKat only bitmaps of exactly the same size can be reused
+            return take(options.outWidth * options.outHeight * getBytesPerPixel(config), config, options.outWidth, options.outHeight);
+        }
+        return null;
+    }
+
+    private Bitmap take(int requiredSize, Bitmap.Config config, int exactWidth, int exactHeight) {
+        for (Map.Entry<Integer, ArrayDeque<Bitmap>> entry : buckets.tailMap(requiredSize, true).entrySet()) {
+            if (entry.getKey() > (long) requiredSize * MAX_OVERSIZE_FACTOR)
+                break;
+            Iterator<Bitmap> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                boolean sizeMatches = exactWidth == 0 || (bitmap.getWidth() == exactWidth && bitmap.getHeight() == exactHeight);
+                if (bitmap.getConfig() == config && sizeMatches) {
+                    iterator.remove();
+                    if (entry.getValue().isEmpty())
+                        buckets.remove(entry.getKey());
+                    insertionOrder.remove(bitmap);
+                    sizeBytes -= entry.getKey();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void removeFromBucket(Bitmap bitmap) {
+        int size = getAllocationSize(bitmap);
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket != null) {
+            bucket.remove(bitmap);
+            if (bucket.isEmpty())
+                buckets.remove(size);
+        }
+    }
+
+    private static int getAllocationSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bitmap.getAllocationByteCount();
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8)
+            return 1;
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444)
+            return 2;
+        return 4;
+    }
+
+    /**
+     * Öffnet den Stream eines Bildes
+     */
+    public interface StreamProvider {
+        InputStream openStream() throws IOException;
+    }
+}
@@ -43,6 +43,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 
 /**
  * Über die statischen Methoden dieser Klasse, können Bitmaps direkt über
@@ -59,6 +60,10 @@ public final class BitmapUtils {
 
     private static final int JPEG_QUALITY = 80;
 
+    static final int IMAGE_HEADER_LENGTH = 4;
+    // the end of image marker of a jpeg may be followed by a few padding bytes
+    private static final int JPEG_TRAILER_SEARCH_LENGTH = 64;
+
     private BitmapUtils() { }
 
     /**
@@ -82,6 +87,16 @@ public final class BitmapUtils {
             bitmap.recycle();
     }
 
+    /**
+     * Legt das übergebene {@link Bitmap} {@code bitmap} in den {@link BitmapPool} zurück, damit sein Speicher
+     * beim Dekodieren weiterer Bilder wiederverwendet wird. Das Bitmap darf anschließend nicht mehr verwendet werden.
+     * @param bitmap das Bitmap
+     */
+    public static void releaseBitmapToPool(Bitmap bitmap){
+        if (bitmap != null && !bitmap.isRecycled())
+            BitmapPool.getInstance().put(bitmap);
+    }
+
     /**
      * Konvertiert das übergebene {@code bitmap} in ein Byte Array. Dieses Byte Array kann anschließend
      * für den Upload des Photos über die Methode {@link IPhotoStreamClient#uploadPhoto(byte[], String)}
@@ -104,6 +119,61 @@ public final class BitmapUtils {
         return internalIsJPEG(new DataInputStream(new BufferedInputStream(new FileInputStream(file))));
     }
 
+    /**
+     * Checks the first bytes of an image for a known format signature (JPEG, PNG, GIF or WebP)
+     * without decoding the image.
+     */
+    static boolean isImageHeader(byte[] header, int length) {
+        if (length < IMAGE_HEADER_LENGTH)
+            return false;
+        int b0 = header[0] & 0xff, b1 = header[1] & 0xff, b2 = header[2] & 0xff, b3 = header[3] & 0xff;
+        boolean jpeg = b0 == 0xff && b1 == 0xd8 && b2 == 0xff;
+        boolean png = b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G';
+        boolean gif = b0 == 'G' && b1 == 'I' && b2 == 'F' && b3 == '8';
+        boolean webp = b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F';
+        return jpeg || png || gif || webp;
+    }
+
+    /**
+     * Checks whether the image file is complete, i.e. ends the way its format requires
+     * (JPEG end of image marker, PNG IEND chunk, GIF trailer or the length stated in the WebP header).
+     * Like {@link #isImageHeader(byte[], int)} the image is not decoded.
+     */
+    static boolean isCompleteImage(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length();
+            byte[] header = new byte[8];
+            if (length < header.length)
+                return false;
+            randomAccessFile.readFully(header);
+            if (!isImageHeader(header, header.length))
+                return false;
+            if (header[0] == 'R') {
+                long riffLength = (header[4] & 0xffL) | (header[5] & 0xffL) << 8 | (header[6] & 0xffL) << 16 | (header[7] & 0xffL) << 24;
+                return riffLength + 8 == length;
+            }
+            int tailLength = (int) Math.min(length, JPEG_TRAILER_SEARCH_LENGTH);
+            byte[] tail = new byte[tailLength];
+            randomAccessFile.seek(length - tailLength);
+            randomAccessFile.readFully(tail);
+            if (header[0] == (byte) 0xff) {
+                for (int i = tailLength - 2; i >= 0; i--) {
+                    if (tail[i] == (byte) 0xff && tail[i + 1] == (byte) 0xd9)
+                        return true;
+                }
+                return false;
+            }
+            if (header[0] == 'G')
+                return tail[tailLength - 1] == 0x3b;
+            // png: the IEND chunk type followed by its crc
+            return tailLength >= 8 && tail[tailLength - 8] == 'I' && tail[tailLength - 7] == 'E'
+                    && tail[tailLength - 6] == 'N' && tail[tailLength - 5] == 'D';
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
     private static boolean internalIsJPEG(DataInputStream in) throws IOException {
         boolean result = false;
         try {
@@ -0,0 +1,414 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.content.Context;
+import android.os.Environment;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index der gecachten Bilder nach Photo id, damit eine Abfrage nicht das Dateisystem berührt.
+ * Die Gesamtgröße ist begrenzt, die am längsten nicht verwendeten Bilder werden zuerst gelöscht.
+ * Zugriffsreihenfolge und {@link Validator} überdauern einen Neustart im {@link ImageCacheJournal}.
+ */
+class CachedImageIndex {
+
+    static final long DEFAULT_MAX_SIZE_BYTES = 50L * 1024 * 1024;
+    private static final String IMAGE_FILE_SUFFIX = ".jpg";
+    static final String PART_FILE_SUFFIX = ".part";
+    // ids above this limit are kept in a map, so a single large id does not allocate a huge bit set
+    private static final int MAX_BIT_SET_ID = 1 << 20;
+    // the storage state is looked up at most this often, not on every lookup
+    private static final long EXTERNAL_STORAGE_CHECK_INTERVAL_MILLIS = 5000;
+
+    private final Context context;
+    private final long maxSizeBytes;
+    private final BitSet cachedIds = new BitSet();
+    private final BitSet internalIds = new BitSet();
+    private final Map<Integer, Boolean> largeIds = new HashMap<>();
+    // image sizes in access order, least recently used first
+    private final LinkedHashMap<Integer, Long> imageSizes = new LinkedHashMap<>(16, 0.75f, true);
+    // validators of cached images and of partially downloaded images
+    private final Map<Integer, Validator> validators = new HashMap<>();
+    // images of batches that are still being cached, they are never evicted, by number of batches
+    private final Map<Integer, Integer> pinnedIds = new HashMap<>();
+    private long sizeBytes = 0;
+    private ImageCacheJournal journal;
+    private File internalDirectory;
+    private File externalDirectory;
+    private boolean scanned = false;
+    private boolean externalStorageMounted = false;
+    private long externalStorageCheckedAt = 0;
+
+    public CachedImageIndex(Context context) {
+        this(context, DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    public CachedImageIndex(Context context, long maxSizeBytes) {
+        this.context = context;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Scans the cache directories on a background thread, so the first lookup, which may happen
+     * on the main thread, does not have to.
+     */
+    void scanInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, "image-cache-scan");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    synchronized void scan() {
+        if (scanned)
+            return;
+        internalDirectory = context.getFilesDir();
+        externalStorageMounted = isExternalStorageMounted();
+        externalStorageCheckedAt = SystemClock.elapsedRealtime();
+        if (externalStorageMounted)
+            externalDirectory = resolveExternalDirectory();
+        List<Integer> photoIds = new ArrayList<>();
+        scanDirectory(internalDirectory, true, photoIds);
+        scanDirectory(externalDirectory, false, photoIds);
+        scanned = true;
+        restoreAccessOrder(photoIds);
+    }
+
+    private File resolveExternalDirectory() {
+        File directory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (directory != null && !directory.exists())
+            directory.mkdir();
+        return directory;
+    }
+
+    private static boolean isExternalStorageMounted() {
+        return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+    }
+
+    /**
+     * @return {@code true}, if the external cache directory can be used right now
+     */
+    private boolean isExternalStorageAvailable() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - externalStorageCheckedAt >= EXTERNAL_STORAGE_CHECK_INTERVAL_MILLIS) {
+            externalStorageCheckedAt = now;
+            externalStorageMounted = isExternalStorageMounted();
+            if (externalStorageMounted && externalDirectory == null)
+                indexExternalDirectory();
+        }
+        return externalStorageMounted && externalDirectory != null;
+    }
+
+    /**
+     * Adds the images of an external storage that has been mounted after the scan
+     */
+    private void indexExternalDirectory() {
+        externalDirectory = resolveExternalDirectory();
+        List<Integer> photoIds = new ArrayList<>();
+        scanDirectory(externalDirectory, false, photoIds);
+        for (Integer photoId : photoIds) {
+            if (imageSizes.containsKey(photoId))
+                continue;
+            long size = new File(externalDirectory, getImageFileName(photoId)).length();
+            imageSizes.put(photoId, size);
+            sizeBytes += size;
+            journal.appendCached(photoId, size);
+        }
+        trimToSize(-1);
+    }
+
+    private void scanDirectory(File directory, boolean internal, List<Integer> photoIds) {
+        if (directory == null)
+            return;
+        String[] fileNames = directory.list();
+        if (fileNames == null)
+            return;
+        for (String fileName : fileNames) {
+            if (!fileName.endsWith(IMAGE_FILE_SUFFIX))
+                continue;
+            try {
+                int photoId = Integer.parseInt(fileName.substring(0, fileName.length() - IMAGE_FILE_SUFFIX.length()));
+                put(photoId, internal);
+                photoIds.add(photoId);
+            } catch (NumberFormatException e) {
+                // not an image written by the cache
+            }
+        }
+    }
+
+    private void restoreAccessOrder(List<Integer> photoIds) {
+        journal = new ImageCacheJournal(internalDirectory);
+        Map<Integer, Validator> journaledValidators = new HashMap<>();
+        LinkedHashMap<Integer, Long> journaledSizes = journal.read(journaledValidators);
+        boolean journalOutdated = false;
+        // images the journal does not know about are treated as least recently used
+        for (Integer photoId : photoIds) {
+            if (!journaledSizes.containsKey(photoId)) {
+                imageSizes.put(photoId, new File(getDirectory(photoId), getImageFileName(photoId)).length());
+                journalOutdated = true;
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : journaledSizes.entrySet()) {
+            if (contains(entry.getKey()))
+                imageSizes.put(entry.getKey(), entry.getValue());
+            else
+                journalOutdated = true;
+        }
+        for (Map.Entry<Integer, Validator> entry : journaledValidators.entrySet()) {
+            int photoId = entry.getKey();
+            if (contains(photoId) || getPartFile(photoId).exists())
+                validators.put(photoId, entry.getValue());
+            else
+                journalOutdated = true;
+        }
+        for (Long size : imageSizes.values())
+            sizeBytes += size;
+        if (journalOutdated || journal.shouldCompact(imageSizes.size()))
+            journal.rewrite(imageSizes, validators);
+        trimToSize(-1);
+    }
+
+    synchronized boolean contains(int photoId) {
+        scan();
+        if (!isIndexed(photoId))
+            return false;
+        return isInternal(photoId) || isExternalStorageAvailable();
+    }
+
+    private boolean isIndexed(int photoId) {
+        if (isBitSetId(photoId))
+            return cachedIds.get(photoId);
+        return largeIds.containsKey(photoId);
+    }
+
+    private boolean isInternal(int photoId) {
+        return isBitSetId(photoId) ? internalIds.get(photoId) : largeIds.get(photoId);
+    }
+
+    /**
+     * @return the directory that contains the image of the photo, or {@code null} if it is not cached
+     */
+    synchronized File getDirectory(int photoId) {
+        if (!contains(photoId))
+            return null;
+        return isInternal(photoId) ? internalDirectory : externalDirectory;
+    }
+
+    /**
+     * @return the directory new images are written to
+     */
+    synchronized File getWriteDirectory() {
+        scan();
+        return isExternalStorageAvailable() ? externalDirectory : internalDirectory;
+    }
+
+    /**
+     * Marks the image of the photo as most recently used.
+     */
+    synchronized void touch(int photoId) {
+        scan();
+        if (imageSizes.get(photoId) != null) {
+            journal.appendRead(photoId);
+            compactJournalIfNecessary();
+        }
+    }
+
+    synchronized void add(int photoId, File directory, long size) {
+        scan();
+        put(photoId, directory.equals(internalDirectory));
+        Long previousSize = imageSizes.put(photoId, size);
+        if (previousSize != null)
+            sizeBytes -= previousSize;
+        sizeBytes += size;
+        journal.appendCached(photoId, size);
+        trimToSize(photoId);
+        compactJournalIfNecessary();
+    }
+
+    /**
+     * Protects the image of the photo from eviction until {@link #unpin(int)} has been called as often
+     */
+    synchronized void pin(int photoId) {
+        Integer count = pinnedIds.get(photoId);
+        pinnedIds.put(photoId, count == null ? 1 : count + 1);
+    }
+
+    synchronized void unpin(int photoId) {
+        Integer count = pinnedIds.get(photoId);
+        if (count == null)
+            return;
+        if (count > 1) {
+            pinnedIds.put(photoId, count - 1);
+        } else {
+            pinnedIds.remove(photoId);
+            // the cache may have grown beyond its budget while the image was pinned
+            if (scanned)
+                trimToSize(-1);
+        }
+    }
+
+    synchronized Validator getValidator(int photoId) {
+        scan();
+        return validators.get(photoId);
+    }
+
+    /**
+     * Stores the validator of the image of the photo. A validator that cannot be used for a conditional
+     * request is dropped.
+     */
+    synchronized void setValidator(int photoId, Validator validator) {
+        scan();
+        if (validator != null && validator.canRevalidate()) {
+            validators.put(photoId, validator);
+            journal.appendValidator(photoId, validator);
+            compactJournalIfNecessary();
+        } else if (validators.remove(photoId) != null) {
+            journal.appendValidator(photoId, new Validator(null, 0, 0));
+        }
+    }
+
+    /**
+     * @return the file a download of the image of the photo is written to, until it is complete
+     */
+    synchronized File getPartFile(int photoId) {
+        File directory = getDirectory(photoId);
+        if (directory == null)
+            directory = getWriteDirectory();
+        return new File(directory, getImageFileName(photoId) + PART_FILE_SUFFIX);
+    }
+
+    synchronized void remove(int photoId) {
+        scan();
+        validators.remove(photoId);
+        if (isBitSetId(photoId)) {
+            cachedIds.clear(photoId);
+            internalIds.clear(photoId);
+        } else {
+            largeIds.remove(photoId);
+        }
+        Long size = imageSizes.remove(photoId);
+        if (size != null) {
+            sizeBytes -= size;
+            journal.appendDeleted(photoId);
+        }
+    }
+
+    synchronized long getSizeBytes() {
+        scan();
+        return sizeBytes;
+    }
+
+    /**
+     * Deletes least recently used images until the cache fits into its budget. Pinned images are kept,
+     * even if the cache stays above its budget.
+     * @param keepPhotoId id of an image that must not be deleted, usually the one that has just been written
+     */
+    private void trimToSize(int keepPhotoId) {
+        while (sizeBytes > maxSizeBytes) {
+            Integer eldestPhotoId = null;
+            for (Integer photoId : imageSizes.keySet()) {
+                if (photoId != keepPhotoId && !pinnedIds.containsKey(photoId)) {
+                    eldestPhotoId = photoId;
+                    break;
+                }
+            }
+            if (eldestPhotoId == null)
+                break;
+            // an image on unmounted storage is only dropped from the index
+            File directory = getDirectory(eldestPhotoId);
+            if (directory != null)
+                new File(directory, getImageFileName(eldestPhotoId)).delete();
+            remove(eldestPhotoId);
+        }
+    }
+
+    private void compactJournalIfNecessary() {
+        if (journal.shouldCompact(imageSizes.size()))
+            journal.rewrite(imageSizes, validators);
+    }
+
+    private void put(int photoId, boolean internal) {
+        if (isBitSetId(photoId)) {
+            cachedIds.set(photoId);
+            internalIds.set(photoId, internal);
+        } else {
+            largeIds.put(photoId, internal);
+        }
+    }
+
+    private static boolean isBitSetId(int photoId) {
+        return photoId >= 0 && photoId < MAX_BIT_SET_ID;
+    }
+
+    static String getImageFileName(int photoId) {
+        return photoId + IMAGE_FILE_SUFFIX;
+    }
+
+    /**
+     * Validators of an image as sent by the server with the image ({@code ETag} and {@code Last-Modified})
+     * and the time the image has been downloaded or revalidated the last time.
+     */
+    static final class Validator {
+
+        private final String eTag;
+        private final long lastModified;
+        private final long validatedAt;
+
+        Validator(String eTag, long lastModified, long validatedAt) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getValidatedAt() {
+            return validatedAt;
+        }
+
+        boolean canRevalidate() {
+            return eTag != null || lastModified > 0;
+        }
+    }
+}
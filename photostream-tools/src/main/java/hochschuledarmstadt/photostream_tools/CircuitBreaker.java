@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import java.io.IOException;
+
+/**
+ * Lässt Requests sofort fehlschlagen, solange der Server nicht erreichbar ist. Nach {@code failureThreshold}
+ * Fehlern in Folge öffnet der Breaker, nach {@code openMillis} wird ein einzelner Versuch durchgelassen.
+ */
+class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getName();
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    static class CircuitOpenException extends IOException {
+        CircuitOpenException() {
+            super("backend unavailable, request rejected by the circuit breaker");
+        }
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long nextTrialAt = 0;
+    private long openedCount = 0;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    synchronized boolean allowRequest() {
+        if (state == State.CLOSED)
+            return true;
+        long now = now();
+        if (now < nextTrialAt)
+            return false;
+        // a trial that never reports back does not block the breaker for longer than openMillis
+        state = State.HALF_OPEN;
+        nextTrialAt = now + openMillis;
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            Logger.log(TAG, LogLevel.INFO, "closed");
+        }
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            nextTrialAt = now() + openMillis;
+            openedCount++;
+            Logger.log(TAG, LogLevel.WARNING, "opened after " + consecutiveFailures + " consecutive failures");
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -24,29 +24,90 @@
 
 package hochschuledarmstadt.photostream_tools;
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.SQLException;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.provider.BaseColumns;
+import android.database.sqlite.SQLiteStatement;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+
+/**
+ * Stores the comments of a photo row by row. A comment thread is only cached as a whole: comments of a
+ * photo whose thread has never been loaded are not stored, so a stored thread is never partial.
+ * Comments that arrive over the socket are applied to a stored thread without changing its ETag. The server
+ * changes its ETag for the same event, so the next conditional request still returns the full thread.
+ */
 class CommentTable {
     public static final String TABLE_NAME = "comment";
+    public static final String THREAD_TABLE_NAME = "comment_thread";
 
+    public static final String COLUMN_COMMENT_ID = "comment_id";
     public static final String COLUMN_PHOTO_ID = "photo_id";
-    public static final String COLUMN_COMMENTS = "comments";
+    public static final String COLUMN_MESSAGE = "message";
+    public static final String COLUMN_DELETEABLE = "deleteable";
+    public static final String COLUMN_POSITION = "position";
     public static final String COLUMN_ETAG = "etag";
 
     public static final String TABLE_CREATE = "CREATE TABLE IF NOT EXISTS "
             + TABLE_NAME + "("
+            + COLUMN_COMMENT_ID + " INTEGER NOT NULL, "
+            + COLUMN_PHOTO_ID + " INTEGER NOT NULL, "
+            + COLUMN_MESSAGE + " TEXT, "
+            + COLUMN_DELETEABLE + " INTEGER NOT NULL, "
+            + COLUMN_POSITION + " INTEGER NOT NULL, "
+            + String.format("PRIMARY KEY (%s)", COLUMN_COMMENT_ID)
+            + ");";
+
+    public static final String THREAD_TABLE_CREATE = "CREATE TABLE IF NOT EXISTS "
+            + THREAD_TABLE_NAME + "("
             + COLUMN_PHOTO_ID + " INTEGER NOT NULL, "
-            + COLUMN_COMMENTS + " TEXT NOT NULL, "
             + COLUMN_ETAG + " TEXT NOT NULL, "
-            + String.format("PRIMARY KEY (%s)",COLUMN_PHOTO_ID)
+            + String.format("PRIMARY KEY (%s)", COLUMN_PHOTO_ID)
             + ");";
 
+    public static final String INDEX_CREATE = "CREATE INDEX IF NOT EXISTS "
+            + TABLE_NAME + "_" + COLUMN_PHOTO_ID + "_index ON "
+            + TABLE_NAME + "(" + COLUMN_PHOTO_ID + ", " + COLUMN_POSITION + ");";
+
     public static final String TABLE_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
+    public static final String THREAD_TABLE_DROP = "DROP TABLE IF EXISTS " + THREAD_TABLE_NAME;
+
+    private static final String UPSERT_THREAD = "INSERT OR REPLACE INTO " + THREAD_TABLE_NAME + "("
+            + COLUMN_PHOTO_ID + ", " + COLUMN_ETAG
+            + ") VALUES (?, ?)";
+
+    private static final String UPSERT_COMMENT = "INSERT OR REPLACE INTO " + TABLE_NAME + "("
+            + COLUMN_COMMENT_ID + ", " + COLUMN_PHOTO_ID + ", " + COLUMN_MESSAGE + ", " + COLUMN_DELETEABLE + ", " + COLUMN_POSITION
+            + ") VALUES (?, ?, ?, ?, ?)";
+
+    // appends a comment behind the last comment of its photo, an already stored comment keeps its position
+    private static final String APPEND_COMMENT = "INSERT OR IGNORE INTO " + TABLE_NAME + "("
+            + COLUMN_COMMENT_ID + ", " + COLUMN_PHOTO_ID + ", " + COLUMN_MESSAGE + ", " + COLUMN_DELETEABLE + ", " + COLUMN_POSITION
+            + ") SELECT ?, ?, ?, ?, COALESCE(MAX(" + COLUMN_POSITION + "), -1) + 1 FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_PHOTO_ID + " = ?";
+
+    private static final String DELETE_THREAD_COMMENTS = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_PHOTO_ID + " = ?";
+
+    private static final String DELETE_THREAD = "DELETE FROM " + THREAD_TABLE_NAME
+            + " WHERE " + COLUMN_PHOTO_ID + " = ?";
+
+    private static final String DELETE_COMMENT = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_COMMENT_ID + " = ?";
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE);
+        db.execSQL(THREAD_TABLE_CREATE);
+        db.execSQL(INDEX_CREATE);
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        db.execSQL(TABLE_DROP);
+        db.execSQL(THREAD_TABLE_DROP);
+    }
 
     public CommentTable(DbConnection dbHelper) {
         this.dbHelper = dbHelper;
@@ -54,6 +115,7 @@ class CommentTable {
 
     protected SQLiteDatabase database;
     private DbConnection dbHelper;
+    private final CompiledStatements statements = new CompiledStatements();
 
     public void openDatabase() {
         database = dbHelper.openDatabase();
@@ -71,23 +133,95 @@ class CommentTable {
         return etag != null && !etag.equals(storedEtag);
     }
 
-    public long insertOrReplaceComments(int photoId, String comments, String etag){
+    /**
+     * Replaces the stored thread of {@code photoId} with {@code comments}.
+     * @return the row id of the thread
+     */
+    public long insertOrReplaceComments(int photoId, List<Comment> comments, String etag){
+        database.beginTransaction();
+        try {
+            SQLiteStatement upsertThread = statements.get(database, UPSERT_THREAD);
+            upsertThread.bindLong(1, photoId);
+            upsertThread.bindString(2, etag);
+            long rowId = upsertThread.executeInsert();
+
+            SQLiteStatement deleteComments = statements.get(database, DELETE_THREAD_COMMENTS);
+            deleteComments.bindLong(1, photoId);
+            deleteComments.executeUpdateDelete();
+
+            SQLiteStatement upsertComment = statements.get(database, UPSERT_COMMENT);
+            for (int position = 0; position < comments.size(); position++) {
+                Comment comment = comments.get(position);
+                upsertComment.clearBindings();
+                upsertComment.bindLong(1, comment.getId());
+                upsertComment.bindLong(2, photoId);
+                bindStringOrNull(upsertComment, 3, comment.getMessage());
+                upsertComment.bindLong(4, comment.isDeleteable() ? 1 : 0);
+                upsertComment.bindLong(5, position);
+                upsertComment.executeInsert();
+            }
+            database.setTransactionSuccessful();
+            return rowId;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Appends a single comment to the stored thread of its photo.
+     * @return {@code true}, if the thread of the photo is stored and the comment has been applied to it
+     */
+    public boolean insertComment(Comment comment) {
+        if (!isThreadStored(comment.getPhotoId()))
+            return false;
+        SQLiteStatement statement = statements.get(database, APPEND_COMMENT);
+        statement.bindLong(1, comment.getId());
+        statement.bindLong(2, comment.getPhotoId());
+        bindStringOrNull(statement, 3, comment.getMessage());
+        statement.bindLong(4, comment.isDeleteable() ? 1 : 0);
+        statement.bindLong(5, comment.getPhotoId());
+        statement.executeInsert();
+        return true;
+    }
 
-        ContentValues cv = new ContentValues();
-        cv.put(COLUMN_PHOTO_ID, photoId);
-        cv.put(COLUMN_COMMENTS, comments);
-        cv.put(COLUMN_ETAG, etag);
+    public void deleteComment(int commentId) {
+        SQLiteStatement statement = statements.get(database, DELETE_COMMENT);
+        statement.bindLong(1, commentId);
+        statement.executeUpdateDelete();
+    }
 
-        try{
-            return database.insertOrThrow(TABLE_NAME, null, cv);
-        }catch(SQLException e){
-            return database.update(TABLE_NAME, cv, COLUMN_PHOTO_ID + " = ?", new String[]{String.valueOf(photoId)});
+    /**
+     * Removes the stored thread of a photo together with its comments.
+     */
+    public void deleteComments(int photoId) {
+        database.beginTransaction();
+        try {
+            SQLiteStatement deleteComments = statements.get(database, DELETE_THREAD_COMMENTS);
+            deleteComments.bindLong(1, photoId);
+            deleteComments.executeUpdateDelete();
+            SQLiteStatement deleteThread = statements.get(database, DELETE_THREAD);
+            deleteThread.bindLong(1, photoId);
+            deleteThread.executeUpdateDelete();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
     }
 
+    private boolean isThreadStored(int photoId) {
+        return DatabaseUtils.queryNumEntries(database, THREAD_TABLE_NAME, COLUMN_PHOTO_ID + " = ?", new String[]{String.valueOf(photoId)}) > 0;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
     public String loadEtag(int photoId) {
         Cursor cursor = database.query(
-                TABLE_NAME,
+                THREAD_TABLE_NAME,
                 new String[]{COLUMN_ETAG},
                 String.format("%s = ?", COLUMN_PHOTO_ID),
                 new String[]{String.valueOf(photoId)},
@@ -101,17 +235,24 @@ class CommentTable {
         return storedEtag;
     }
 
-    public String loadComments(int photoId) {
+    /**
+     * Loads the stored thread of a photo in the order of the server
+     * @return the comments or {@code null}, if the thread is not stored
+     */
+    public List<Comment> loadComments(int photoId) {
+        if (!isThreadStored(photoId))
+            return null;
         Cursor cursor = database.query(
                 TABLE_NAME,
-                new String[]{COLUMN_COMMENTS},
+                new String[]{COLUMN_COMMENT_ID, COLUMN_MESSAGE, COLUMN_DELETEABLE},
                 String.format("%s = ?", COLUMN_PHOTO_ID),
                 new String[]{String.valueOf(photoId)},
-                null,null,null
+                null,null,
+                COLUMN_POSITION
         );
-        String comments = null;
-        if (cursor.moveToFirst()){
-            comments = cursor.getString(cursor.getColumnIndex(COLUMN_COMMENTS));
+        List<Comment> comments = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()){
+            comments.add(new Comment(cursor.getInt(0), photoId, cursor.getString(1), cursor.getInt(2) == 1));
         }
         cursor.close();
         return comments;
@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Führt alle Zugriffe auf die Photo und Kommentar Tabellen abseits des UI Threads aus. Schreibzugriffe
+ * laufen nacheinander auf einem Thread, wartende Einzelzugriffe werden in einer Transaktion zusammengefasst.
+ */
+class DatabaseExecutor {
+
+    private static final String TAG = DatabaseExecutor.class.getName();
+    private static final int READER_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Executor readExecutor;
+    private final Executor writeExecutor;
+    private final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private boolean drainScheduled = false;
+    private DbConnection connection;
+
+    DatabaseExecutor() {
+        this(createExecutor(READER_THREADS), createExecutor(1));
+    }
+
+    DatabaseExecutor(Executor readExecutor, Executor writeExecutor) {
+        this.readExecutor = readExecutor;
+        this.writeExecutor = writeExecutor;
+    }
+
+    private static Executor createExecutor(int poolSize) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    void attach(DbConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Queues a write of a single statement, which may be committed together with other queued writes.
+     */
+    void write(Runnable write) {
+        enqueue(new PendingWrite(write, true));
+    }
+
+    /**
+     * Queues a write that begins and ends its own transaction. It runs on its own, in the order it has been queued.
+     */
+    void writeTransaction(Runnable write) {
+        enqueue(new PendingWrite(write, false));
+    }
+
+    private void enqueue(PendingWrite write) {
+        synchronized (pendingWrites) {
+            pendingWrites.add(write);
+            if (drainScheduled)
+                return;
+            drainScheduled = true;
+        }
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainWrites();
+            }
+        });
+    }
+
+    private void drainWrites() {
+        List<PendingWrite> writes;
+        synchronized (pendingWrites) {
+            writes = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+            drainScheduled = false;
+        }
+        List<Runnable> batch = new ArrayList<>();
+        for (PendingWrite write : writes) {
+            if (write.batchable) {
+                batch.add(write.runnable);
+            } else {
+                runBatch(batch);
+                batch.clear();
+                runEach(Collections.singletonList(write.runnable));
+            }
+        }
+        runBatch(batch);
+    }
+
+    private void runBatch(List<Runnable> batch) {
+        if (batch.isEmpty())
+            return;
+        if (batch.size() == 1 || connection == null) {
+            runEach(batch);
+            return;
+        }
+        boolean failed = false;
+        SQLiteDatabase database = connection.openDatabase();
+        database.beginTransaction();
+        try {
+            for (Runnable write : batch)
+                write.run();
+            database.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            Logger.log(TAG, LogLevel.ERROR, e.toString());
+            failed = true;
+        } finally {
+            database.endTransaction();
+            connection.closeDatabase();
+        }
+        // the failed write rolled back the whole batch, the writes are idempotent and are retried one by one
+        if (failed)
+            runEach(batch);
+    }
+
+    private static void runEach(List<Runnable> writes) {
+        for (Runnable write : writes) {
+            try {
+                write.run();
+            } catch (RuntimeException e) {
+                Logger.log(TAG, LogLevel.ERROR, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Closes the database connection once every write submitted so far has been executed.
+     */
+    void close() {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainWrites();
+                if (connection != null)
+                    connection.closeConnection();
+            }
+        });
+    }
+
+    /**
+     * Runs {@code read} on a reader thread and delivers the result on the main thread.
+     * If the read fails, {@code null} is delivered.
+     */
+    <T> void read(final Callable<T> read, final Callback<T> callback) {
+        readExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                try {
+                    result = read.call();
+                } catch (Exception e) {
+                    Logger.log(TAG, LogLevel.ERROR, e.toString());
+                }
+                final T finalResult = result;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(finalResult);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs {@code read} on a reader thread and blocks until it has finished. Must not be called on the main thread.
+     */
+    <T> T readAndWait(Callable<T> read) throws IOException {
+        FutureTask<T> future = new FutureTask<>(read);
+        readExecutor.execute(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw new InterruptedIOException(e.toString());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class PendingWrite {
+        private final Runnable runnable;
+        private final boolean batchable;
+
+        PendingWrite(Runnable runnable, boolean batchable) {
+            this.runnable = runnable;
+            this.batchable = batchable;
+        }
+    }
+
+    interface Callback<T> {
+        void onResult(T result);
+    }
+}
@@ -33,14 +33,28 @@ import hochschuledarmstadt.photostream_tools.model.Comment;
 class DbConnection extends SQLiteOpenHelper{
 
     private static final String DATABASE_NAME = "photostream";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 4;
 
     private static DbConnection instance;
     protected SQLiteDatabase database;
     private int openConnections = 0;
+    private final DatabaseExecutor executor;
 
     protected DbConnection(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+        this(context, name, factory, version, new DatabaseExecutor());
+    }
+
+    protected DbConnection(Context context, String name, SQLiteDatabase.CursorFactory factory, int version, DatabaseExecutor executor) {
         super(context, name, factory, version);
+        this.executor = executor;
+        executor.attach(this);
+    }
+
+    /**
+     * All reads and writes of the tables should be run through this executor, so no disk I/O happens on the main thread.
+     */
+    DatabaseExecutor getExecutor() {
+        return executor;
     }
 
     @Override
@@ -49,13 +63,27 @@ class DbConnection extends SQLiteOpenHelper{
     }
 
     private void createTables(SQLiteDatabase db) {
-        db.execSQL(CommentTable.TABLE_CREATE);
-        db.execSQL(PhotoTable.TABLE_CREATE);
+        CommentTable.createTables(db);
+        PhotoTable.createTables(db);
+        PhotoSearchTable.createTables(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-
+        if (oldVersion < 2) {
+            // version 1 stored whole pages as json in the photo table, the cached pages are simply dropped
+            db.execSQL(PhotoTable.TABLE_DROP);
+            PhotoTable.createTables(db);
+        }
+        if (oldVersion < 3) {
+            // version 2 stored the comments of a photo as json, they are loaded again from the server
+            db.execSQL(CommentTable.TABLE_DROP);
+            CommentTable.createTables(db);
+        }
+        if (oldVersion < 4) {
+            PhotoSearchTable.createTables(db);
+            PhotoSearchTable.rebuild(db);
+        }
     }
 
     public synchronized SQLiteDatabase openDatabase() {
@@ -64,6 +92,8 @@ class DbConnection extends SQLiteOpenHelper{
 
             if (database == null) {
                 database = getWritableDatabase();
+                // readers on the executor no longer wait for the writer
+                database.enableWriteAheadLogging();
             }
             openConnections++;
             return database;
@@ -78,17 +108,24 @@ class DbConnection extends SQLiteOpenHelper{
             if (openConnections > 0)
                 openConnections--;
 
-            if (database != null && openConnections == 0) {
-                database.close();
-                database = null;
-                return true;
-            }
-
+            // the connection is kept open for the lifetime of the process, reopening it for every request is expensive
             return false;
 
         }
     }
 
+    /**
+     * Closes the connection, regardless of how often it has been opened. The next call of
+     * {@link #openDatabase()} opens it again.
+     */
+    synchronized void closeConnection() {
+        if (database != null) {
+            close();
+            database = null;
+        }
+        openConnections = 0;
+    }
+
     public static synchronized DbConnection getInstance(Context context) {
         if (instance == null)
             instance = new DbConnection(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -103,7 +140,8 @@ class DbConnection extends SQLiteOpenHelper{
     }
 
     private void dropTables(SQLiteDatabase database) {
-        database.execSQL(PhotoTable.TABLE_DROP);
-        database.execSQL(CommentTable.TABLE_DROP);
+        PhotoSearchTable.dropTables(database);
+        PhotoTable.dropTables(database);
+        CommentTable.dropTables(database);
     }
 }
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Remembers the sequence number of the last socket event that has been processed. The number is sent as
+ * {@value #QUERY_PARAMETER} when the socket connects, so the server can replay the events that were sent while
+ * the client was disconnected. Events that carry a sequence number which has already been processed are
+ * replays of events this client has seen and are dropped.
+ * <br>
+ * The sequence number is read from the field {@value #KEY_EVENT_SEQUENCE} of an object payload,
+ * or from the second argument of events whose payload is a plain id. Events without a sequence number
+ * are always processed.
+ * <br>
+ * The numbers only grow within one server instance. The instance is read from the field {@value #KEY_EVENT_EPOCH},
+ * or from the third argument of events whose payload is a plain id. An event of another instance, or one whose
+ * number lies far behind the cursor because the server started counting anew, moves the cursor back to it.
+ */
+class EventCursor {
+
+    private static final String TAG = EventCursor.class.getName();
+    static final String QUERY_PARAMETER = "last_event";
+    static final String EPOCH_QUERY_PARAMETER = "last_event_epoch";
+    static final String KEY_EVENT_SEQUENCE = "event_seq";
+    static final String KEY_EVENT_EPOCH = "event_epoch";
+    static final long NO_SEQUENCE = -1;
+    // a replay overlaps the processed events by a few events at most, not by this many
+    static final long MAX_REPLAY_OVERLAP = 1000;
+
+    private long lastSequence = NO_SEQUENCE;
+    private String epoch;
+
+    /**
+     * @return {@code true}, if the event has not been processed yet. The cursor is moved to the event.
+     */
+    synchronized boolean accept(Object... args) {
+        long sequence = sequenceOf(args);
+        if (sequence == NO_SEQUENCE)
+            return true;
+        String eventEpoch = epochOf(args);
+        boolean restarted = (eventEpoch != null && epoch != null && !eventEpoch.equals(epoch))
+                || sequence < lastSequence - MAX_REPLAY_OVERLAP;
+        if (!restarted && sequence <= lastSequence)
+            return false;
+        lastSequence = sequence;
+        if (eventEpoch != null)
+            epoch = eventEpoch;
+        return true;
+    }
+
+    /**
+     * Moves the cursor to the position the server reports when it cannot replay the gap anymore.
+     * Without a position the cursor is cleared, so the next connect does not ask for a replay.
+     */
+    synchronized void reset(Object... args) {
+        lastSequence = sequenceOf(args);
+        epoch = lastSequence == NO_SEQUENCE ? null : epochOf(args);
+    }
+
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Appends the resume parameters to the query of the connect request.
+     */
+    synchronized String appendTo(String query) {
+        if (lastSequence == NO_SEQUENCE)
+            return query;
+        String parameter = QUERY_PARAMETER + "=" + lastSequence;
+        if (epoch != null) {
+            try {
+                parameter += "&" + EPOCH_QUERY_PARAMETER + "=" + URLEncoder.encode(epoch, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                Logger.log(TAG, LogLevel.ERROR, e.toString());
+            }
+        }
+        return query == null || query.isEmpty() ? parameter : query + "&" + parameter;
+    }
+
+    private static long sequenceOf(Object... args) {
+        if (args == null || args.length == 0)
+            return NO_SEQUENCE;
+        if (args.length > 1 && args[1] != null) {
+            try {
+                return Long.parseLong(args[1].toString());
+            } catch (NumberFormatException e) {
+                return NO_SEQUENCE;
+            }
+        }
+        if (args[0] instanceof JSONObject)
+            return ((JSONObject) args[0]).optLong(KEY_EVENT_SEQUENCE, NO_SEQUENCE);
+        return NO_SEQUENCE;
+    }
+
+    private static String epochOf(Object... args) {
+        if (args == null || args.length == 0)
+            return null;
+        if (args.length > 2 && args[2] != null)
+            return args[2].toString();
+        if (args[0] instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) args[0];
+            return jsonObject.has(KEY_EVENT_EPOCH) ? jsonObject.optString(KEY_EVENT_EPOCH) : null;
+        }
+        return null;
+    }
+}
@@ -36,14 +36,25 @@ class HttpDeleteExecutor extends HttpExecutor{
     }
 
     public HttpResponse execute() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+        return executeWithRetry(new Attempt() {
+            @Override
+            public HttpResponse run() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+                return executeOnce();
+            }
+        });
+    }
+
+    private HttpResponse executeOnce() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+        final long start = System.nanoTime();
         HttpURLConnection urlConnection = (HttpURLConnection) new URL(getUrl()).openConnection();
         urlConnection.setRequestMethod("DELETE");
-        urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
-        urlConnection.setReadTimeout(CONNECT_TIMEOUT);
+        urlConnection.setConnectTimeout(getTimeoutMillis());
+        urlConnection.setReadTimeout(getTimeoutMillis());
         urlConnection.addRequestProperty("installation_id", getInstallationId());
         final int responseCode = urlConnection.getResponseCode();
+        onRoundTrip(start);
         if (responseCode != HttpURLConnection.HTTP_OK){
-            throw new BaseAsyncTask.HttpPhotoStreamException(getHttpErrorResult(urlConnection.getErrorStream()));
+            throw new BaseAsyncTask.HttpPhotoStreamException(responseCode, getHttpErrorResult(urlConnection.getErrorStream()));
         }else{
             return new HttpResponse(urlConnection.getResponseCode(), null);
         }
@@ -26,21 +26,31 @@ package hochschuledarmstadt.photostream_tools;
 
 import android.support.annotation.NonNull;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
+import java.util.Random;
 
 import hochschuledarmstadt.photostream_tools.model.HttpError;
 
 abstract class HttpExecutor {
 
+    interface Attempt {
+        HttpResponse run() throws IOException, BaseAsyncTask.HttpPhotoStreamException;
+    }
+
     protected static final int CONNECT_TIMEOUT = 6000;
+    private static final Random RANDOM = new Random();
     private final String installationId;
     private final String url;
     private Charset encoding = Charset.forName("UTF-8");
+    private NetworkQualityEstimator networkQualityEstimator;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private CircuitBreaker circuitBreaker;
+    private RetryMetrics retryMetrics;
+    private boolean idempotent = true;
 
     protected String getInstallationId() {
         return installationId;
@@ -70,12 +80,108 @@ abstract class HttpExecutor {
     protected HttpError getHttpErrorResult(InputStream errorStream) throws IOException {
         final String result = convertStreamToString(errorStream);
         try{
-            return new Gson().fromJson(result, HttpError.class);
+            return JsonCodec.gson().fromJson(result, HttpError.class);
         }catch(Exception e){
             return new HttpError(500, "Internal Server Error");
         }
     }
 
+    public void setNetworkQualityEstimator(NetworkQualityEstimator networkQualityEstimator) {
+        this.networkQualityEstimator = networkQualityEstimator;
+    }
+
+    protected int getTimeoutMillis() {
+        return networkQualityEstimator != null ? networkQualityEstimator.getTimeoutMillis() : CONNECT_TIMEOUT;
+    }
+
+    /**
+     * Reports the time from opening the connection until the response code has been received
+     */
+    protected void onRoundTrip(long startNanos) {
+        if (networkQualityEstimator != null)
+            networkQualityEstimator.onRoundTrip(System.nanoTime() - startNanos);
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, RetryMetrics retryMetrics) {
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.retryMetrics = retryMetrics;
+    }
+
+    /**
+     * Only idempotent requests are repeated after a failure
+     */
+    protected void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    protected boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * Runs {@code attempt} until it succeeds, fails with a permanent error or the {@link RetryPolicy} has no
+     * attempt left. Network errors and server errors count as failures of the backend for the
+     * {@link CircuitBreaker}, while it is open the request is rejected without touching the network.
+     */
+    protected HttpResponse executeWithRetry(Attempt attempt) throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+        final int maxAttempts = idempotent ? retryPolicy.getMaxAttempts() : 1;
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                if (retryMetrics != null)
+                    retryMetrics.onRejected();
+                throw new CircuitBreaker.CircuitOpenException();
+            }
+            if (retryMetrics != null)
+                retryMetrics.onAttempt();
+            try {
+                HttpResponse httpResponse = attempt.run();
+                if (circuitBreaker != null)
+                    circuitBreaker.onSuccess();
+                return httpResponse;
+            } catch (IOException e) {
+                onTransientFailure(attemptNumber, maxAttempts, e);
+                if (attemptNumber >= maxAttempts)
+                    throw e;
+            } catch (BaseAsyncTask.HttpPhotoStreamException e) {
+                if (!RetryPolicy.isTransient(e.getStatusCode())) {
+                    // the backend answered, the request itself was rejected
+                    if (circuitBreaker != null)
+                        circuitBreaker.onSuccess();
+                    throw e;
+                }
+                onTransientFailure(attemptNumber, maxAttempts, e);
+                if (attemptNumber >= maxAttempts)
+                    throw e;
+            }
+            if (retryMetrics != null)
+                retryMetrics.onRetry();
+            try {
+                awaitRetry(retryPolicy.getDelayMillis(attemptNumber, RANDOM));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.toString());
+            }
+        }
+    }
+
+    private void onTransientFailure(int attemptNumber, int maxAttempts, Throwable e) {
+        if (circuitBreaker != null)
+            circuitBreaker.onFailure();
+        if (attemptNumber >= maxAttempts && retryMetrics != null) {
+            if (maxAttempts > 1)
+                retryMetrics.onExhausted();
+            Logger.log(getClass().getSimpleName(), LogLevel.WARNING, e.toString() + " (" + retryMetrics + ")");
+        }
+    }
+
+    /**
+     * Waits before the next attempt, without holding a slot of the {@link RequestDispatcher} meanwhile
+     */
+    protected void awaitRetry(long millis) throws InterruptedException {
+        RequestDispatcher.awaitRetry(millis);
+    }
+
     public void setEncoding(Charset encoding) {
         this.encoding = encoding;
     }
@@ -25,8 +25,8 @@
 package hochschuledarmstadt.photostream_tools;
 
 interface HttpExecutorFactory {
-    HttpPutExecutor createHttpPutExecutor(String url);
-    HttpGetExecutor createHttpGetExecutor(String url);
-    HttpDeleteExecutor createHttpDeleteExecutor(String url);
-    HttpPostExecutor createHttpPostExecutor(String url);
+    HttpPutExecutor createHttpPutExecutor(RequestType requestType, String url);
+    HttpGetExecutor createHttpGetExecutor(RequestType requestType, String url);
+    HttpDeleteExecutor createHttpDeleteExecutor(RequestType requestType, String url);
+    HttpPostExecutor createHttpPostExecutor(RequestType requestType, String url);
 }
@@ -24,28 +24,75 @@
 
 package hochschuledarmstadt.photostream_tools;
 
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
 class HttpExecutorFactoryImpl implements HttpExecutorFactory {
 
+    static final RetryPolicy DEFAULT_RETRY_POLICY = new RetryPolicy(3, 500, 4000);
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30000;
+
     private final String androidId;
+    private final NetworkQualityEstimator networkQualityEstimator;
+    private final Map<RequestType, RetryPolicy> retryPolicies = Collections.synchronizedMap(new EnumMap<RequestType, RetryPolicy>(RequestType.class));
+    // one breaker for all request types, they all depend on the same backend
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+    private final RetryMetrics retryMetrics = new RetryMetrics(circuitBreaker);
 
     public HttpExecutorFactoryImpl(String androidId){
+        this(androidId, new NetworkQualityEstimator());
+    }
+
+    public HttpExecutorFactoryImpl(String androidId, NetworkQualityEstimator networkQualityEstimator){
         this.androidId = androidId;
+        this.networkQualityEstimator = networkQualityEstimator;
+    }
+
+    public HttpPutExecutor createHttpPutExecutor(RequestType requestType, String url){
+        HttpPutExecutor executor = new HttpPutExecutor(url, androidId);
+        executor.setNetworkQualityEstimator(networkQualityEstimator);
+        executor.setRetryPolicy(getRetryPolicy(requestType), circuitBreaker, retryMetrics);
+        return executor;
+    }
+
+    public HttpGetExecutor createHttpGetExecutor(RequestType requestType, String url){
+        HttpGetExecutor executor = new HttpGetExecutor(url, androidId);
+        executor.setNetworkQualityEstimator(networkQualityEstimator);
+        executor.setRetryPolicy(getRetryPolicy(requestType), circuitBreaker, retryMetrics);
+        return executor;
+    }
+
+    public HttpDeleteExecutor createHttpDeleteExecutor(RequestType requestType, String url){
+        HttpDeleteExecutor executor = new HttpDeleteExecutor(url, androidId);
+        executor.setNetworkQualityEstimator(networkQualityEstimator);
+        executor.setRetryPolicy(getRetryPolicy(requestType), circuitBreaker, retryMetrics);
+        return executor;
+    }
+
+    public HttpPostExecutor createHttpPostExecutor(RequestType requestType, String url){
+        HttpPostExecutor executor = new HttpPostExecutor(url, androidId);
+        executor.setNetworkQualityEstimator(networkQualityEstimator);
+        executor.setRetryPolicy(getRetryPolicy(requestType), circuitBreaker, retryMetrics);
+        return executor;
     }
 
-    public HttpPutExecutor createHttpPutExecutor(String url){
-        return new HttpPutExecutor(url, androidId);
+    public void setRetryPolicy(RequestType requestType, RetryPolicy retryPolicy) {
+        retryPolicies.put(requestType, retryPolicy);
     }
 
-    public HttpGetExecutor createHttpGetExecutor(String url){
-        return new HttpGetExecutor(url, androidId);
+    public RetryPolicy getRetryPolicy(RequestType requestType) {
+        RetryPolicy retryPolicy = retryPolicies.get(requestType);
+        return retryPolicy != null ? retryPolicy : DEFAULT_RETRY_POLICY;
     }
 
-    public HttpDeleteExecutor createHttpDeleteExecutor(String url){
-        return new HttpDeleteExecutor(url, androidId);
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
-    public HttpPostExecutor createHttpPostExecutor(String url){
-        return new HttpPostExecutor(url, androidId);
+    public RetryMetrics getRetryMetrics() {
+        return retryMetrics;
     }
 
 }
@@ -47,27 +47,48 @@ class HttpGetExecutor extends HttpExecutor {
     }
 
     public HttpResponse execute() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+        return executeWithRetry(new Attempt() {
+            @Override
+            public HttpResponse run() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+                return executeOnce();
+            }
+        });
+    }
+
+    private HttpResponse executeOnce() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+        final long start = System.nanoTime();
         HttpURLConnection urlConnection = (HttpURLConnection) new URL(getUrl()).openConnection();
         urlConnection.setDoInput(true);
-        urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
-        urlConnection.setReadTimeout(CONNECT_TIMEOUT);
+        urlConnection.setConnectTimeout(getTimeoutMillis());
+        urlConnection.setReadTimeout(getTimeoutMillis());
         urlConnection.addRequestProperty("installation_id", getInstallationId());
         for (Map.Entry<String, String> entry : headerFields.entrySet()){
             urlConnection.addRequestProperty(entry.getKey(), entry.getValue());
         }
-        final int responseCode = urlConnection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED){
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                etag = urlConnection.getHeaderField("ETag");
+        boolean streamed = false;
+        try {
+            final int responseCode = urlConnection.getResponseCode();
+            onRoundTrip(start);
+            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED){
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    etag = urlConnection.getHeaderField("ETag");
+                    // the response disconnects once the caller has read and closed the body
+                    HttpResponse httpResponse = new HttpResponse(responseCode, urlConnection.getInputStream(), getEncoding(), urlConnection);
+                    streamed = true;
+                    return httpResponse;
+                }else{
+                    String pageFieldValue = urlConnection.getHeaderField("photo-page");
+                    if (pageFieldValue != null)
+                        page = Integer.parseInt(pageFieldValue);
+                }
+                String result = convertStreamToString(urlConnection.getInputStream());
+                return new HttpResponse(responseCode, result);
             }else{
-                String pageFieldValue = urlConnection.getHeaderField("photo-page");
-                if (pageFieldValue != null)
-                    page = Integer.parseInt(pageFieldValue);
+                throw new BaseAsyncTask.HttpPhotoStreamException(responseCode, getHttpErrorResult(urlConnection.getErrorStream()));
             }
-            String result = convertStreamToString(urlConnection.getInputStream());
-            return new HttpResponse(responseCode, result);
-        }else{
-            throw new BaseAsyncTask.HttpPhotoStreamException(getHttpErrorResult(urlConnection.getErrorStream()));
+        } finally {
+            if (!streamed)
+                urlConnection.disconnect();
         }
     }
 
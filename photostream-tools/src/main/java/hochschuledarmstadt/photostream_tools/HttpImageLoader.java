@@ -25,158 +25,357 @@
 package hochschuledarmstadt.photostream_tools;
 
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import hochschuledarmstadt.photostream_tools.model.Photo;
 
 class HttpImageLoader implements OnResponseListener {
 
+    private static final String TAG = HttpImageLoader.class.getName();
     private final String formatPhotoContentUrl;
-    private BlockingQueue<HttpImage> blockingQueue = new ArrayBlockingQueue<>(10);
-    private AtomicInteger remainingExecutors = null;
+    private final ImageCacher imageCacher;
+    private final ImageFetchScheduler scheduler;
+    private final ImageFetchScheduler.Priority priority;
+    private final NetworkQualityEstimator networkQualityEstimator;
+    private final Object group;
+    private final OnResponseListener onResponseListener;
+    private static final OnResponseListener IGNORE_RESPONSE = new OnResponseListener() {
+        @Override
+        public void onResponse(Photo photo, boolean cached, StageTimings timings) {
+        }
+    };
+    // unbounded, a full queue would block a thread of the shared pool until the requester takes the result
+    private BlockingQueue<HttpImage> blockingQueue = new LinkedBlockingQueue<>();
+    // fetches that have neither finished nor been cancelled yet
+    private final Set<ImageFetchScheduler.Handle> handles = new HashSet<>();
+
+    public HttpImageLoader(String formatPhotoContentUrl, ImageCacher imageCacher, ImageFetchScheduler scheduler, ImageFetchScheduler.Priority priority){
+        this(formatPhotoContentUrl, imageCacher, scheduler, priority, new NetworkQualityEstimator(), null);
+    }
+
+    /**
+     * @param group all fetches of this loader are scheduled within this group, see {@link ImageFetchScheduler#cancelGroup(Object)}
+     */
+    public HttpImageLoader(String formatPhotoContentUrl, ImageCacher imageCacher, ImageFetchScheduler scheduler, ImageFetchScheduler.Priority priority, NetworkQualityEstimator networkQualityEstimator, Object group){
+        this(formatPhotoContentUrl, imageCacher, scheduler, priority, networkQualityEstimator, group, null);
+    }
 
-    public HttpImageLoader(String formatPhotoContentUrl){
+    /**
+     * @param onResponseListener receives the result of every fetch instead of {@link #take()}, {@code null} to queue the results
+     */
+    public HttpImageLoader(String formatPhotoContentUrl, ImageCacher imageCacher, ImageFetchScheduler scheduler, ImageFetchScheduler.Priority priority, NetworkQualityEstimator networkQualityEstimator, Object group, OnResponseListener onResponseListener){
+        this.onResponseListener = onResponseListener != null ? onResponseListener : this;
         this.formatPhotoContentUrl = formatPhotoContentUrl;
+        this.imageCacher = imageCacher;
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.networkQualityEstimator = networkQualityEstimator;
+        this.group = group;
     }
 
-    public void execute(List<Photo> photos) {
+    /**
+     * @return the number of fetches that have been scheduled, {@link #take()} returns exactly this many results
+     */
+    public int execute(List<Photo> photos) {
+        return schedule(photos, onResponseListener, priority);
+    }
+
+    /**
+     * Revalidates the cached images of {@code photos} in the background. The photos may be delivered with their
+     * cached images meanwhile, the results are not reported by {@link #take()}.
+     */
+    public void revalidate(List<Photo> photos) {
+        schedule(photos, IGNORE_RESPONSE, ImageFetchScheduler.Priority.PREFETCH);
+    }
+
+    private int schedule(List<Photo> photos, OnResponseListener listener, ImageFetchScheduler.Priority priority) {
         List<HttpRequestExecutor> httpRequestExecutors = new ArrayList<>();
         for (Photo photo : photos) {
             try {
                 String u = String.format(formatPhotoContentUrl, photo.getId());
                 URL url = new URL(u);
-                httpRequestExecutors.add(new HttpRequestExecutor(url, photo));
+                httpRequestExecutors.add(new HttpRequestExecutor(url, photo, imageCacher, networkQualityEstimator, listener, this));
             } catch (MalformedURLException e) {
-                e.printStackTrace();
+                Logger.log(TAG, LogLevel.ERROR, e.toString());
             }
         }
-        remainingExecutors = new AtomicInteger(httpRequestExecutors.size());
-        new AsyncMultipleHttpRequestsExecutor(httpRequestExecutors, this).execute();
+        synchronized (handles) {
+            // a fetch that finishes right away waits in onFetchFinished() until its handle is known
+            for (HttpRequestExecutor httpRequestExecutor : httpRequestExecutors) {
+                // fetches of the same photo are merged, the later ones use the image of the first
+                ImageFetchScheduler.Handle handle = scheduler.schedule(httpRequestExecutor, priority, group, httpRequestExecutor.photo.getId());
+                httpRequestExecutor.handle = handle;
+                handles.add(handle);
+            }
+        }
+        return httpRequestExecutors.size();
     }
 
-    public boolean isRunning(){
-        return blockingQueue.size() > 0 || remainingExecutors.get() > 0;
+    private void onFetchFinished(HttpRequestExecutor httpRequestExecutor) {
+        synchronized (handles) {
+            handles.remove(httpRequestExecutor.handle);
+        }
     }
 
-    public HttpImage take(){
-        try {
-            return blockingQueue.take();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    int getPendingFetchCount() {
+        synchronized (handles) {
+            return handles.size();
         }
-        return null;
     }
 
-    @Override
-    public void onResponse(byte[] imageData, Photo photo, boolean fileNotFound) {
-        try {
-            blockingQueue.put(fileNotFound ? null : new HttpImage(photo, imageData));
-            remainingExecutors.decrementAndGet();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Cancels all fetches of this loader. Queued fetches are dropped, running fetches are aborted.
+     * Every cancelled fetch is still reported as not cached, so a caller waiting in {@link #take()} returns.
+     */
+    public void cancel() {
+        List<ImageFetchScheduler.Handle> pendingHandles;
+        synchronized (handles) {
+            pendingHandles = new ArrayList<>(handles);
+            handles.clear();
         }
+        // outside of the lock, a cancelled fetch reports itself as finished
+        for (ImageFetchScheduler.Handle handle : pendingHandles)
+            handle.cancel();
+    }
+
+    public HttpImage take() throws InterruptedException {
+        return blockingQueue.take();
+    }
+
+    @Override
+    public void onResponse(Photo photo, boolean cached, StageTimings timings) {
+        blockingQueue.add(new HttpImage(photo, cached, timings));
     }
 
     static class HttpImage {
-        private final byte[] imageData;
         private final Photo photo;
-        HttpImage(Photo photo, byte[] imageData){
+        private final boolean cached;
+        private final StageTimings timings;
+        HttpImage(Photo photo, boolean cached, StageTimings timings){
             this.photo = photo;
-            this.imageData = imageData;
+            this.cached = cached;
+            this.timings = timings;
         }
 
         public Photo getPhoto() {
             return photo;
         }
 
-        public byte[] getImageData() {
-            return imageData;
+        /**
+         * @return {@code true}, if the image has been written to the {@link ImageCacher}
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        public StageTimings getTimings() {
+            return timings;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
         }
     }
 
-    private static class HttpRequestExecutor implements Runnable {
+    private static class HttpRequestExecutor implements ImageFetchScheduler.Fetch {
+
+        private static final int MAX_ATTEMPTS = 3;
+        private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
 
         private final URL url;
         private final Photo photo;
-        private OnResponseListener onResponseListener;
+        private final ImageCacher imageCacher;
+        private final NetworkQualityEstimator networkQualityEstimator;
+        private final OnResponseListener onResponseListener;
+        private final HttpImageLoader imageLoader;
+        // guarded by the handles of imageLoader
+        private ImageFetchScheduler.Handle handle;
+        private volatile boolean aborted = false;
+        private volatile HttpURLConnection urlConnection;
 
-        public HttpRequestExecutor(URL url, Photo photo){
+        public HttpRequestExecutor(URL url, Photo photo, ImageCacher imageCacher, NetworkQualityEstimator networkQualityEstimator, OnResponseListener onResponseListener, HttpImageLoader imageLoader){
             this.url = url;
             this.photo = photo;
-        }
-
-        public void setOnResponseListener(OnResponseListener onResponseListener) {
+            this.imageCacher = imageCacher;
+            this.networkQualityEstimator = networkQualityEstimator;
             this.onResponseListener = onResponseListener;
+            this.imageLoader = imageLoader;
         }
 
         public void execute(){
+            boolean cached = false;
+            StageTimings timings = new StageTimings();
+            int photoId = photo.getId();
+            // no other fetch of the photo runs, the lock only waits for an inline image that is being written
+            imageCacher.lockPhoto(photoId);
             try {
-                Bitmap bmp = BitmapFactory.decodeStream(url.openConnection().getInputStream());
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                bmp.compress(Bitmap.CompressFormat.JPEG, 100, os);
-                byte[] data = os.toByteArray();
-                os.close();
-                onResponseListener.onResponse(data, photo, false);
-                onResponseListener = null;
-            } catch (MalformedURLException e) {
-                e.printStackTrace();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                onResponseListener.onResponse(null, photo, true);
+                if (imageCacher.isCached(photoId) && !imageCacher.needsRevalidation(photoId)) {
+                    // another fetch has downloaded or revalidated the image while this one was queued
+                    cached = useCachedImage();
+                } else {
+                    int attempts = 0;
+                    while (!aborted) {
+                        long resumableLength = imageCacher.getResumableLength(photoId);
+                        try {
+                            cached = fetch(resumableLength, timings) && !aborted;
+                            break;
+                        } catch (IOException e) {
+                            // resume right away as long as the interrupted download made progress
+                            if (aborted || ++attempts >= MAX_ATTEMPTS || imageCacher.getResumableLength(photoId) <= resumableLength)
+                                throw e;
+                        }
+                    }
+                }
             } catch (IOException e) {
-                e.printStackTrace();
-                onResponseListener.onResponse(null, photo, false);
-            }finally{
-                onResponseListener = null;
+                if (!aborted)
+                    Logger.log(TAG, LogLevel.ERROR, e.toString());
+            } finally {
+                imageCacher.unlockPhoto(photoId);
+                // a failed revalidation still leaves the cached image usable
+                if (!cached && !aborted && imageCacher.isCached(photo.getId()))
+                    cached = useCachedImage();
+                imageLoader.onFetchFinished(this);
+                onResponseListener.onResponse(photo, cached, timings);
             }
         }
 
-        @Override
-        public void run() {
-            execute();
+        private boolean fetch(long resumableLength, StageTimings timings) throws IOException {
+            int photoId = photo.getId();
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            urlConnection = connection;
+            try {
+                int timeoutMillis = networkQualityEstimator.getTimeoutMillis();
+                connection.setConnectTimeout(timeoutMillis);
+                connection.setReadTimeout(timeoutMillis);
+                // byte ranges must refer to the image itself and not to a compressed representation
+                connection.setRequestProperty("Accept-Encoding", "identity");
+                CachedImageIndex.Validator validator = imageCacher.getValidator(photoId);
+                boolean revalidate = validator != null && imageCacher.isCached(photoId);
+                boolean resume = validator != null && !revalidate && resumableLength > 0;
+                if (revalidate) {
+                    if (validator.getETag() != null)
+                        connection.setRequestProperty("If-None-Match", validator.getETag());
+                    if (validator.getLastModified() > 0)
+                        connection.setIfModifiedSince(validator.getLastModified());
+                } else if (resume) {
+                    connection.setRequestProperty("Range", "bytes=" + resumableLength + "-");
+                    // the server sends the whole image instead, if it has changed in the meantime
+                    connection.setRequestProperty("If-Range", validator.getETag() != null ? validator.getETag() : formatHttpDate(validator.getLastModified()));
+                }
+                int responseCode = connection.getResponseCode();
+                long fetched = System.nanoTime();
+                timings.record(StageTimings.Stage.FETCH, fetched - start);
+                networkQualityEstimator.onRoundTrip(fetched - start);
+                CachedImageIndex.Validator received = new CachedImageIndex.Validator(connection.getHeaderField("ETag"), connection.getLastModified(), System.currentTimeMillis());
+                if (revalidate && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    imageCacher.onRevalidated(photo, received);
+                    return true;
+                }
+                long offset;
+                if (resume && responseCode == HttpURLConnection.HTTP_PARTIAL && isContentRangeFrom(connection, resumableLength))
+                    offset = resumableLength;
+                else if (responseCode == HttpURLConnection.HTTP_OK)
+                    offset = 0;
+                else
+                    throw new IOException("unexpected response " + responseCode + " for image " + photoId);
+                CountingInputStream inputStream = new CountingInputStream(connection.getInputStream());
+                boolean cached;
+                try {
+                    // stream the response body straight into the cache file
+                    cached = imageCacher.cacheDownloadedImage(photo, inputStream, offset, received, timings);
+                } finally {
+                    inputStream.close();
+                }
+                if (cached)
+                    networkQualityEstimator.onTransfer(inputStream.getCount(), System.nanoTime() - fetched);
+                return cached;
+            } finally {
+                connection.disconnect();
+                urlConnection = null;
+            }
         }
-    }
 
-    static class AsyncMultipleHttpRequestsExecutor implements OnResponseListener {
+        private boolean useCachedImage() {
+            return imageCacher.useCachedImage(photo);
+        }
 
-        private final List<HttpRequestExecutor> httpRequestExecutors;
-        private final ExecutorService executorService = Executors.newCachedThreadPool();
-        private final OnResponseListener onResponseListenerDelegate;
+        private static boolean isContentRangeFrom(HttpURLConnection connection, long offset) {
+            String contentRange = connection.getHeaderField("Content-Range");
+            return contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+        }
 
-        public AsyncMultipleHttpRequestsExecutor(List<HttpRequestExecutor> httpRequestExecutors, OnResponseListener onResponseListenerDelegate) {
-            this.httpRequestExecutors = httpRequestExecutors;
-            this.onResponseListenerDelegate = onResponseListenerDelegate;
+        private static String formatHttpDate(long time) {
+            SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format.format(new Date(time));
         }
 
-        public void execute(){
-            for (HttpRequestExecutor executor : httpRequestExecutors){
-                executor.setOnResponseListener(this);
-                executorService.submit(executor);
-            }
-            executorService.shutdown();
-            httpRequestExecutors.clear();
+        @Override
+        public void run() {
+            execute();
+        }
 
+        @Override
+        public void onCancelled() {
+            imageLoader.onFetchFinished(this);
+            onResponseListener.onResponse(photo, false, new StageTimings());
         }
 
         @Override
-        public void onResponse(byte[] imageData, Photo photo, boolean fileNotFound) {
-            onResponseListenerDelegate.onResponse(imageData, photo, fileNotFound);
+        public void abort() {
+            aborted = true;
+            HttpURLConnection connection = urlConnection;
+            if (connection != null)
+                connection.disconnect();
         }
     }
 
-
 }
@@ -28,12 +28,62 @@ package hochschuledarmstadt.photostream_tools;
 class HttpImageLoaderFactory {
 
     private final String formatPhotoContentUrl;
+    private final ImageFetchScheduler scheduler;
+    private final int maxConnections;
+    private final NetworkQualityEstimator networkQualityEstimator;
+    // the connections the scheduler has been sized for, it is only resized when the estimate asks for another number
+    private int appliedConnections;
 
     public HttpImageLoaderFactory(String formatPhotoContentUrl){
+        this(formatPhotoContentUrl, ImageFetchScheduler.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public HttpImageLoaderFactory(String formatPhotoContentUrl, int maxConnections){
+        this(formatPhotoContentUrl, maxConnections, new NetworkQualityEstimator());
+    }
+
+    public HttpImageLoaderFactory(String formatPhotoContentUrl, int maxConnections, NetworkQualityEstimator networkQualityEstimator){
         this.formatPhotoContentUrl = formatPhotoContentUrl;
+        this.maxConnections = maxConnections;
+        this.networkQualityEstimator = networkQualityEstimator;
+        this.scheduler = new ImageFetchScheduler(maxConnections);
+        this.appliedConnections = maxConnections;
+    }
+
+    public HttpImageLoader create(ImageCacher imageCacher, ImageFetchScheduler.Priority priority){
+        return create(imageCacher, priority, null);
+    }
+
+    /**
+     * @param requestType the request the images are loaded for, its downloads can be cancelled with {@link #cancel(RequestType)}
+     */
+    public HttpImageLoader create(ImageCacher imageCacher, ImageFetchScheduler.Priority priority, RequestType requestType){
+        return create(imageCacher, priority, requestType, null);
+    }
+
+    /**
+     * @param onResponseListener receives the result of every fetch of the loader, see {@link HttpImageLoader#take()} otherwise
+     */
+    public HttpImageLoader create(ImageCacher imageCacher, ImageFetchScheduler.Priority priority, RequestType requestType, OnResponseListener onResponseListener){
+        // adapt the parallel downloads to the connection measured so far, when a new batch begins
+        int connections = networkQualityEstimator.getImageConnections(maxConnections);
+        synchronized (this) {
+            if (connections != appliedConnections) {
+                appliedConnections = connections;
+                scheduler.setMaxConnections(connections);
+            }
+        }
+        return new HttpImageLoader(formatPhotoContentUrl, imageCacher, scheduler, priority, networkQualityEstimator, requestType, onResponseListener);
+    }
+
+    /**
+     * Cancels the image downloads of all requests of type {@code requestType}
+     */
+    public void cancel(RequestType requestType) {
+        scheduler.cancelGroup(requestType);
     }
 
-    public HttpImageLoader create(){
-        return new HttpImageLoader(formatPhotoContentUrl);
+    public void cancelAll() {
+        scheduler.cancelAll();
     }
 }
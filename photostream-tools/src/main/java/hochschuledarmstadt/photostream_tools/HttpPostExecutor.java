@@ -37,24 +37,47 @@ import java.nio.charset.Charset;
 
 class HttpPostExecutor extends HttpExecutor {
 
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     public HttpPostExecutor(String url, String installationId){
         super(url, installationId);
+        setIdempotent(false);
     }
 
     private String eTag = null;
+    private String idempotencyKey = null;
+
+    /**
+     * The server recognizes repeated requests with the same key, only then an upload may be retried
+     */
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+        setIdempotent(idempotencyKey != null);
+    }
 
     public String geteTag() {
         return eTag;
     }
 
-    public HttpResponse execute(String message) throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+    public HttpResponse execute(final String message) throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+        return executeWithRetry(new Attempt() {
+            @Override
+            public HttpResponse run() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+                return executeOnce(message);
+            }
+        });
+    }
+
+    private HttpResponse executeOnce(String message) throws IOException, BaseAsyncTask.HttpPhotoStreamException {
         HttpURLConnection urlConnection = (HttpURLConnection) new URL(getUrl()).openConnection();
         urlConnection.setRequestMethod("POST");
         urlConnection.setDoOutput(true);
-        urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
-        urlConnection.setReadTimeout(CONNECT_TIMEOUT);
+        urlConnection.setConnectTimeout(getTimeoutMillis());
+        urlConnection.setReadTimeout(getTimeoutMillis());
         urlConnection.addRequestProperty("installation_id", getInstallationId());
         urlConnection.addRequestProperty("Content-Type", "application/json");
+        if (idempotencyKey != null)
+            urlConnection.addRequestProperty(IDEMPOTENCY_KEY_HEADER, idempotencyKey);
         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream(), getEncoding()));
         writer.write(message, 0, message.length());
         writer.flush();
@@ -65,7 +88,7 @@ class HttpPostExecutor extends HttpExecutor {
             String result = convertStreamToString(urlConnection.getInputStream());
             return new HttpResponse(status, result);
         }else{
-            throw new BaseAsyncTask.HttpPhotoStreamException(getHttpErrorResult(urlConnection.getErrorStream()));
+            throw new BaseAsyncTask.HttpPhotoStreamException(status, getHttpErrorResult(urlConnection.getErrorStream()));
         }
     }
 
@@ -24,18 +24,46 @@
 
 package hochschuledarmstadt.photostream_tools;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+
 class HttpResponse {
 
+    private static final String TAG = HttpResponse.class.getName();
     public static final int STATUS_CONTENT_NOT_MODIFIED = 304;
     public static final int STATUS_OK = 200;
     public static final int STATUS_INTERNAL_SERVER_ERROR = 500;
 
     private final int statusCode;
     private final String result;
+    private final InputStream body;
+    private final Charset encoding;
+    private final HttpURLConnection connection;
 
     public HttpResponse(int statusCode, String result){
         this.statusCode = statusCode;
         this.result = result;
+        this.body = null;
+        this.encoding = null;
+        this.connection = null;
+    }
+
+    /**
+     * Creates a response whose body is read lazily from {@code body}, so it can be decoded
+     * while it is still being received. {@link #getResult()} returns {@code null} in this case.
+     * {@code connection} stays open until {@link #close()} is called.
+     */
+    public HttpResponse(int statusCode, InputStream body, Charset encoding, HttpURLConnection connection){
+        this.statusCode = statusCode;
+        this.result = null;
+        this.body = body;
+        this.encoding = encoding;
+        this.connection = connection;
     }
 
     public int getStatusCode() {
@@ -45,4 +73,25 @@ class HttpResponse {
     public String getResult() {
         return result;
     }
+
+    /**
+     * Returns a reader over the response body. A streamed body can only be consumed once.
+     */
+    public Reader getReader() {
+        if (body != null)
+            return new InputStreamReader(body, encoding);
+        return new StringReader(result != null ? result : "");
+    }
+
+    public void close() {
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                Logger.log(TAG, LogLevel.ERROR, e.toString());
+            }
+        }
+        if (connection != null)
+            connection.disconnect();
+    }
 }
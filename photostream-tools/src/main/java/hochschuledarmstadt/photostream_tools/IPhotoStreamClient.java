@@ -281,7 +281,10 @@ public interface IPhotoStreamClient {
      * Das Ergebnis ist die erste Seite der Suche. <br>
      * Wenn die Suche nach Photos ausgeführt werden konnte, wird die Methode {@link OnSearchedPhotosReceivedListener#onSearchedPhotosReceived(PhotoQueryResult)} aufgerufen (auch wenn die Suche keine passenden Photos liefert). <br>
      * Wenn die Suche nach Photos einen Fehler verursacht hat, wird die Methode {@link OnSearchedPhotosReceivedListener#onReceiveSearchedPhotosFailed(String, HttpError)} <br>
-     * Um weitere Ergebnisse der Suche abzurufen, muss die Methode {@link IPhotoStreamClient#searchMorePhotos()} aufgerufen werden.
+     * Um weitere Ergebnisse der Suche abzurufen, muss die Methode {@link IPhotoStreamClient#searchMorePhotos()} aufgerufen werden. <br>
+     * Passende Photos aus dem lokalen Cache (Beschreibung und Kommentare) werden sofort als erste Seite geliefert, während die Suche
+     * auf dem Server noch läuft. Das Ergebnis des Servers wird anschließend ebenfalls als erste Seite geliefert und ersetzt die lokalen Treffer. <br>
+     * Ohne Internetverbindung wird nur der lokale Cache durchsucht.
      * @param queryPhotoDescription Beschreibung zu dem Photo
      */
     void searchPhotos(String queryPhotoDescription);
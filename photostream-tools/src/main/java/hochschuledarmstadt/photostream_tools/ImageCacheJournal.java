@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Journal des Bilder Caches, jede Änderung wird als eine Zeile angehängt:
+ * <pre>
+ * C &lt;photoId&gt; &lt;size&gt;  Bild geschrieben
+ * R &lt;photoId&gt;         Bild gelesen
+ * D &lt;photoId&gt;         Bild gelöscht
+ * V &lt;photoId&gt; &lt;validatedAt&gt; &lt;lastModified&gt; &lt;eTag&gt;  Validator des Bildes, "-" ohne eTag
+ * </pre>
+ * Besteht das Journal überwiegend aus veralteten Zeilen, wird es neu geschrieben.
+ */
+class ImageCacheJournal {
+
+    private static final String TAG = ImageCacheJournal.class.getName();
+    static final String FILE_NAME = "image_cache.journal";
+    private static final String HEADER = "photostream-image-cache 1";
+    private static final String CACHED = "C";
+    private static final String READ = "R";
+    private static final String DELETED = "D";
+    private static final String VALIDATOR = "V";
+    private static final String NO_ETAG = "-";
+    private static final int MIN_REDUNDANT_RECORDS_TO_COMPACT = 2000;
+    // read records only change the access order, losing the last few of them to process death is harmless
+    private static final int MAX_BUFFERED_READS = 64;
+    private static final long MAX_READ_BUFFER_MILLIS = 5000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private Writer writer;
+    private int redundantRecords = 0;
+    private int bufferedReads = 0;
+    private long firstBufferedReadAt = 0;
+
+    public ImageCacheJournal(File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Replays the journal.
+     * @param validators receives the validator of every image that has one
+     * @return size of every cached image by photo id, ordered from least to most recently used
+     */
+    LinkedHashMap<Integer, Long> read(Map<Integer, CachedImageIndex.Validator> validators) {
+        LinkedHashMap<Integer, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+        redundantRecords = 0;
+        if (!file.exists())
+            return entries;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            if (!HEADER.equals(reader.readLine()))
+                return entries;
+            String line;
+            int records = 0;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                try {
+                    int photoId = Integer.parseInt(parts[1]);
+                    if (CACHED.equals(parts[0]) && parts.length == 3) {
+                        entries.put(photoId, Long.parseLong(parts[2]));
+                    } else if (READ.equals(parts[0])) {
+                        entries.get(photoId);
+                    } else if (DELETED.equals(parts[0])) {
+                        entries.remove(photoId);
+                        validators.remove(photoId);
+                    } else if (VALIDATOR.equals(parts[0]) && parts.length == 5) {
+                        CachedImageIndex.Validator validator = parseValidator(parts);
+                        if (validator.canRevalidate())
+                            validators.put(photoId, validator);
+                        else
+                            validators.remove(photoId);
+                    }
+                    records++;
+                } catch (NumberFormatException e) {
+                    // a line that has been cut off by process death, the remaining lines are still usable
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    // same as above
+                }
+            }
+            redundantRecords = records - entries.size() - validators.size();
+        } catch (IOException e) {
+            Logger.log(TAG, LogLevel.ERROR, e.toString());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Logger.log(TAG, LogLevel.ERROR, e.toString());
+                }
+            }
+        }
+        return entries;
+    }
+
+    void rewrite(Map<Integer, Long> entries) {
+        rewrite(entries, new HashMap<Integer, CachedImageIndex.Validator>());
+    }
+
+    /**
+     * Replaces the journal with one line per entry, in the order of the map, followed by one line per validator.
+     */
+    void rewrite(Map<Integer, Long> entries, Map<Integer, CachedImageIndex.Validator> validators) {
+        close();
+        File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        Writer tempWriter = null;
+        try {
+            tempWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile, false), UTF_8));
+            tempWriter.write(HEADER);
+            tempWriter.write('\n');
+            for (Map.Entry<Integer, Long> entry : entries.entrySet()) {
+                tempWriter.write(CACHED + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            for (Map.Entry<Integer, CachedImageIndex.Validator> entry : validators.entrySet()) {
+                tempWriter.write(formatValidator(entry.getKey(), entry.getValue()) + "\n");
+            }
+            tempWriter.close();
+            tempWriter = null;
+            if (!tempFile.renameTo(file))
+                throw new IOException("could not replace " + file);
+            redundantRecords = 0;
+        } catch (IOException e) {
+            Logger.log(TAG, LogLevel.ERROR, e.toString());
+        } finally {
+            if (tempWriter != null) {
+                try {
+                    tempWriter.close();
+                } catch (IOException e) {
+                    Logger.log(TAG, LogLevel.ERROR, e.toString());
+                }
+            }
+            if (tempFile.exists())
+                tempFile.delete();
+        }
+    }
+
+    void appendCached(int photoId, long size) {
+        append(CACHED + " " + photoId + " " + size);
+    }
+
+    /**
+     * Appends a read record without writing it to the file right away. Buffered reads are written
+     * with the next other record, once enough of them have piled up or after a few seconds.
+     */
+    void appendRead(int photoId) {
+        append(READ + " " + photoId, false);
+        redundantRecords++;
+    }
+
+    void appendDeleted(int photoId) {
+        append(DELETED + " " + photoId);
+        // the delete line and the line that added the image are both outdated now
+        redundantRecords += 2;
+    }
+
+    void appendValidator(int photoId, CachedImageIndex.Validator validator) {
+        append(formatValidator(photoId, validator));
+        // usually replaces the validator of a previous download or revalidation
+        redundantRecords++;
+    }
+
+    private static String formatValidator(int photoId, CachedImageIndex.Validator validator) {
+        String eTag = validator.getETag();
+        // an eTag never contains whitespace, anything else could not be read back
+        if (eTag == null || eTag.isEmpty() || eTag.matches(".*\\s.*"))
+            eTag = NO_ETAG;
+        return VALIDATOR + " " + photoId + " " + validator.getValidatedAt() + " " + validator.getLastModified() + " " + eTag;
+    }
+
+    private static CachedImageIndex.Validator parseValidator(String[] parts) {
+        long validatedAt = Long.parseLong(parts[2]);
+        long lastModified = Long.parseLong(parts[3]);
+        String eTag = NO_ETAG.equals(parts[4]) ? null : parts[4];
+        return new CachedImageIndex.Validator(eTag, lastModified, validatedAt);
+    }
+
+    boolean shouldCompact(int entryCount) {
+        return redundantRecords >= MIN_REDUNDANT_RECORDS_TO_COMPACT && redundantRecords >= entryCount;
+    }
+
+    private void append(String record) {
+        append(record, true);
+    }
+
+    private void append(String record, boolean flush) {
+        try {
+            if (writer == null) {
+                if (!file.exists())
+                    rewrite(new LinkedHashMap<Integer, Long>());
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+            }
+            writer.write(record);
+            writer.write('\n');
+            if (!flush) {
+                long now = System.currentTimeMillis();
+                if (bufferedReads++ == 0)
+                    firstBufferedReadAt = now;
+                flush = bufferedReads >= MAX_BUFFERED_READS || now - firstBufferedReadAt >= MAX_READ_BUFFER_MILLIS;
+            }
+            if (flush) {
+                writer.flush();
+                bufferedReads = 0;
+            }
+        } catch (IOException e) {
+            Logger.log(TAG, LogLevel.ERROR, e.toString());
+            close();
+        }
+    }
+
+    void close() {
+        bufferedReads = 0;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Logger.log(TAG, LogLevel.ERROR, e.toString());
+            }
+            writer = null;
+        }
+    }
+
+    static void delete(File directory) {
+        new File(directory, FILE_NAME).delete();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+
+/**
+ * Caches the images of a batch of photos while the photos are still being read.
+ * Photos that carry their image inline are decoded, verified and written on a shared disk executor,
+ * all other photos are handed to the {@link HttpImageLoader} right away. Network and disk I/O therefore
+ * overlap with reading the response. At most one inline image waits to be written while the next photo
+ * is read, so no more than two base64 strings are held at a time. {@link #awaitAll()} waits for exactly the number of submitted images,
+ * so it always returns once every image has been cached or has failed.
+ */
+class ImageCachePipeline {
+
+    private static final String TAG = ImageCachePipeline.class.getName();
+    private static final int PERSIST_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final ThreadPoolExecutor PERSIST_EXECUTOR = createPersistExecutor();
+
+    private final ImageCacher imageCacher;
+    private final HttpImageLoader imageLoader;
+    private final CompletionService<HttpImageLoader.HttpImage> persistStage;
+    // JsonReader can only read the base64 image as a whole string, the reader waits until the previous one has been written
+    private final Semaphore inlineImageSlot = new Semaphore(1);
+    private final StageTimings timings = new StageTimings();
+    private final List<Integer> pinnedPhotoIds = new ArrayList<>();
+    private int pendingPersists = 0;
+    private int pendingFetches = 0;
+    private boolean allCached = true;
+
+    public ImageCachePipeline(ImageCacher imageCacher, HttpImageLoader imageLoader) {
+        this.imageCacher = imageCacher;
+        this.imageLoader = imageLoader;
+        this.persistStage = new ExecutorCompletionService<>(PERSIST_EXECUTOR);
+    }
+
+    private static ThreadPoolExecutor createPersistExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PERSIST_THREADS, PERSIST_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Submits a photo that has just been read from a response and may carry its image inline.
+     */
+    void submitStreamed(Photo photo) throws IOException {
+        pin(photo);
+        boolean inlineImage = photo.getImageFilePath() != null;
+        if (inlineImage && !imageCacher.isCached(photo.getId()))
+            persist(photo);
+        else
+            submit(photo);
+    }
+
+    /**
+     * Submits a photo whose image is either cached already or has to be downloaded.
+     * A cached image that is due for revalidation is used right away and revalidated in the background,
+     * {@link #awaitAll()} does not wait for the revalidation.
+     */
+    void submit(Photo photo) throws IOException {
+        pin(photo);
+        // the image may have been evicted since it has been checked, it is downloaded again then
+        if (imageCacher.isCached(photo.getId()) && imageCacher.useCachedImage(photo)) {
+            if (imageCacher.needsRevalidation(photo.getId()))
+                imageLoader.revalidate(Collections.singletonList(photo));
+        } else {
+            int scheduled = imageLoader.execute(Collections.singletonList(photo));
+            if (scheduled == 0)
+                allCached = false;
+            pendingFetches += scheduled;
+        }
+    }
+
+    private void pin(Photo photo) {
+        // keeps the images of this batch from being evicted by the images written after them
+        if (!pinnedPhotoIds.contains(photo.getId())) {
+            imageCacher.pin(photo.getId());
+            pinnedPhotoIds.add(photo.getId());
+        }
+    }
+
+    private void unpinAll() {
+        for (Integer photoId : pinnedPhotoIds)
+            imageCacher.unpin(photoId);
+        pinnedPhotoIds.clear();
+    }
+
+    private void persist(final Photo photo) throws IOException {
+        // the base64 string of the inline image is held in memory until it is written
+        try {
+            inlineImageSlot.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        }
+        pendingPersists++;
+        persistStage.submit(new Callable<HttpImageLoader.HttpImage>() {
+            @Override
+            public HttpImageLoader.HttpImage call() throws Exception {
+                try {
+                    StageTimings imageTimings = new StageTimings();
+                    boolean cached = imageCacher.cacheImage(photo, imageTimings);
+                    return new HttpImageLoader.HttpImage(photo, cached, imageTimings);
+                } finally {
+                    inlineImageSlot.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until every submitted image has been cached or has failed.
+     * @return {@code true}, if all submitted images are in the cache
+     */
+    boolean awaitAll() throws IOException {
+        try {
+            while (pendingPersists > 0) {
+                pendingPersists--;
+                try {
+                    collect(persistStage.take().get());
+                } catch (ExecutionException e) {
+                    Logger.log(TAG, LogLevel.ERROR, e.getCause().toString());
+                    allCached = false;
+                }
+            }
+            while (pendingFetches > 0) {
+                pendingFetches--;
+                collect(imageLoader.take());
+            }
+        } catch (InterruptedException e) {
+            imageLoader.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.toString());
+        } finally {
+            unpinAll();
+        }
+        Logger.log(TAG, LogLevel.DEBUG, timings.toString());
+        return allCached;
+    }
+
+    /**
+     * Stops the batch, e.g. because the response could not be read to its end. Downloads that have not
+     * finished are cancelled, images that are being written are still written. Returns once every
+     * submitted image has been collected, so nothing of this batch keeps running afterwards.
+     */
+    void cancel() {
+        imageLoader.cancel();
+        boolean interrupted = false;
+        while (pendingPersists > 0 || pendingFetches > 0) {
+            try {
+                if (pendingPersists > 0) {
+                    persistStage.take();
+                    pendingPersists--;
+                } else {
+                    imageLoader.take();
+                    pendingFetches--;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        allCached = false;
+        unpinAll();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void collect(HttpImageLoader.HttpImage httpImage) {
+        if (!httpImage.isCached())
+            allCached = false;
+        timings.add(httpImage.getTimings());
+    }
+
+    StageTimings getTimings() {
+        return timings;
+    }
+}
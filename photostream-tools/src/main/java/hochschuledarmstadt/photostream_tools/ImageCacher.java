@@ -25,122 +25,332 @@
 package hochschuledarmstadt.photostream_tools;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Environment;
 import android.support.v4.os.EnvironmentCompat;
 import android.util.Base64;
+import android.util.Base64InputStream;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import hochschuledarmstadt.photostream_tools.model.Photo;
 
 class ImageCacher {
 
-    private final Context context;
+    private static final String TAG = ImageCacher.class.getName();
+    static final long DEFAULT_REVALIDATE_AFTER_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private final CachedImageIndex index;
+    private final long revalidateAfterMillis;
+    // every image of a photo is written by one writer at a time, they all share the same part file
+    private final Map<Integer, PhotoLock> photoLocks = new HashMap<>();
 
     public ImageCacher(Context context){
-        this.context = context;
+        this(new CachedImageIndex(context));
+    }
+
+    public ImageCacher(CachedImageIndex index){
+        this(index, DEFAULT_REVALIDATE_AFTER_MILLIS);
+    }
+
+    public ImageCacher(CachedImageIndex index, long revalidateAfterMillis){
+        this.index = index;
+        this.revalidateAfterMillis = revalidateAfterMillis;
     }
 
     private static final String FILENAME_FORMAT = "%s.jpg";
+    private static final int BUFFER_SIZE = 8192;
 
     private String getImageFileName(int id){
         return String.format(FILENAME_FORMAT, id);
     }
 
-    private File concatImageFilePath(Context context, String imageFileName){
-        File file = new File(context.getFilesDir(), imageFileName);
-        if (!file.exists() && isExternalStorageAccessible()){
-            File pictureDirectory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
-            if (!pictureDirectory.exists()) pictureDirectory.mkdir();
-            file = new File(pictureDirectory, imageFileName);
+    /**
+     * Blocks until no other thread writes the image of the photo. Every call must be followed
+     * by {@link #unlockPhoto(int)}, the lock is reentrant.
+     */
+    void lockPhoto(int photoId) {
+        PhotoLock photoLock;
+        synchronized (photoLocks) {
+            photoLock = photoLocks.get(photoId);
+            if (photoLock == null) {
+                photoLock = new PhotoLock();
+                photoLocks.put(photoId, photoLock);
+            }
+            photoLock.holders++;
         }
-        return file;
+        photoLock.lock.lock();
     }
 
-    boolean cacheImage(Photo photo)throws IOException {
-        int photoId = photo.getId();
-        if (isCached(photoId)) {
-            File filePath = getImageFilePathForPhotoId(photoId);
-            String imageFilePath = filePath.getAbsolutePath();
-            injectImageFilePath(photo, imageFilePath);
-            return true;
+    void unlockPhoto(int photoId) {
+        synchronized (photoLocks) {
+            PhotoLock photoLock = photoLocks.get(photoId);
+            photoLock.lock.unlock();
+            if (--photoLock.holders == 0)
+                photoLocks.remove(photoId);
         }
-        else {
-            String imageFilePath = photo.getImageFilePath();
-            return cacheImage(photo, Base64.decode(imageFilePath, Base64.DEFAULT));
+    }
+
+    boolean cacheImage(Photo photo) throws IOException {
+        return cacheImage(photo, new StageTimings());
+    }
+
+    boolean cacheImage(Photo photo, StageTimings timings) throws IOException {
+        if (useCachedImage(photo))
+            return true;
+        // decode the inline base64 image while writing it, without a decoded copy in memory
+        String base64Image = photo.getImageFilePath();
+        if (base64Image == null) {
+            // the image has been evicted since the caller checked the cache, it has to be downloaded again
+            return false;
         }
+        return cacheImage(photo, new Base64InputStream(new AsciiInputStream(base64Image), Base64.DEFAULT), timings);
+    }
+
+    /**
+     * Points the photo to its cached image.
+     * @return {@code false}, if the image is not cached (anymore), the photo is left unchanged then
+     */
+    boolean useCachedImage(Photo photo) {
+        int photoId = photo.getId();
+        File directory = index.getDirectory(photoId);
+        if (directory == null)
+            return false;
+        PhotoAccessor.getInstance().setImageFilePath(photo, new File(directory, getImageFileName(photoId)).getAbsolutePath());
+        index.touch(photoId);
+        return true;
+    }
+
+    /**
+     * Protects the cached image of the photo from eviction, until {@link #unpin(int)} is called
+     */
+    void pin(int photoId) {
+        index.pin(photoId);
+    }
+
+    void unpin(int photoId) {
+        index.unpin(photoId);
     }
 
     boolean cacheImage(Photo photo, byte[] data) throws IOException {
+        return cacheImage(photo, new ByteArrayInputStream(data));
+    }
+
+    boolean cacheImage(Photo photo, InputStream inputStream) throws IOException {
+        return cacheImage(photo, inputStream, new StageTimings());
+    }
+
+    /**
+     * Writes the image from {@code inputStream} unmodified into the cache. Only the header of the
+     * stream is inspected, the image itself is neither decoded nor compressed again.
+     * The data is written to a temporary file first, so a partially written image is never
+     * considered as cached.
+     */
+    boolean cacheImage(Photo photo, InputStream inputStream, StageTimings timings) throws IOException {
         int photoId = photo.getId();
         boolean inCache = false;
-        boolean error = false;
         String filename = getImageFileName(photoId);
-        File imageFilePath = concatImageFilePath(context, filename);
-        if (!imageExistsOnFileSystem(filename)) {
-            FileOutputStream outputStream = null;
-            try {
-                outputStream = new FileOutputStream(imageFilePath, false);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-                bitmap.recycle();
+        File imageFilePath;
+        lockPhoto(photoId);
+        try {
+            imageFilePath = getImageFilePathForPhotoId(photoId);
+            // checked again under the lock, another writer may have cached the image in the meantime
+            if (!index.contains(photoId)) {
+                File partFile = new File(imageFilePath.getParentFile(), filename + CachedImageIndex.PART_FILE_SUFFIX);
+                FileOutputStream outputStream = null;
+                try {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long start = System.nanoTime();
+                    int headerLength = readFully(inputStream, buffer, BitmapUtils.IMAGE_HEADER_LENGTH);
+                    boolean imageHeader = BitmapUtils.isImageHeader(buffer, headerLength);
+                    timings.record(StageTimings.Stage.VERIFY, System.nanoTime() - start);
+                    if (imageHeader) {
+                        start = System.nanoTime();
+                        outputStream = new FileOutputStream(partFile, false);
+                        outputStream.write(buffer, 0, headerLength);
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            outputStream.write(buffer, 0, read);
+                        }
+                        outputStream.close();
+                        outputStream = null;
+                        inCache = BitmapUtils.isCompleteImage(partFile) && partFile.renameTo(imageFilePath);
+                        if (inCache)
+                            index.add(photoId, imageFilePath.getParentFile(), imageFilePath.length());
+                        timings.record(StageTimings.Stage.PERSIST, System.nanoTime() - start);
+                    }
+                } catch (IOException e) {
+                    Logger.log(TAG, LogLevel.ERROR, e.toString());
+                } finally {
+                    if (outputStream != null)
+                        outputStream.close();
+                    if (partFile.exists())
+                        partFile.delete();
+                }
+            } else {
                 inCache = true;
-            } catch (Exception e) {
-                error = true;
-            } finally {
-                if (outputStream != null)
-                    outputStream.close();
-            }
-            if (error){
-                File file = getImageFilePathForPhotoId(photoId);
-                if (file.exists())
-                    file.delete();
+                index.touch(photoId);
             }
-        }else{
-            inCache = true;
+        } finally {
+            unlockPhoto(photoId);
         }
 
-        injectImageFilePath(photo, imageFilePath.getAbsolutePath());
+        PhotoAccessor.getInstance().setImageFilePath(photo, imageFilePath.getAbsolutePath());
 
         return inCache;
 
     }
 
-    private void injectImageFilePath(Photo photo, String imageFilePath) {
+    /**
+     * Writes a downloaded image into the cache. With an {@code offset} greater than zero, {@code inputStream}
+     * continues the partial download of the image that has been interrupted before. Unlike
+     * {@link #cacheImage(Photo, InputStream, StageTimings)} a failing stream is reported to the caller: the
+     * partial download is kept together with its {@code validator}, so it can be resumed with a range request.
+     * A stream that ends before the end of the image is reported the same way.
+     * An image that is cached already is replaced, its partial download is never kept, and the
+     * {@link ReplacedImageNotifier} is notified.
+     */
+    boolean cacheDownloadedImage(Photo photo, InputStream inputStream, long offset, CachedImageIndex.Validator validator, StageTimings timings) throws IOException {
+        int photoId = photo.getId();
+        boolean replace = index.contains(photoId);
+        File imageFilePath = getImageFilePathForPhotoId(photoId);
+        File partFile = index.getPartFile(photoId);
+        boolean inCache = false;
+        boolean keepPartFile = false;
+        FileOutputStream outputStream = null;
         try {
-            Field f = photo.getClass().getDeclaredField("imageFilePath");
-            f.setAccessible(true);
-            f.set(photo, imageFilePath);
-        } catch (NoSuchFieldException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long start = System.nanoTime();
+            if (offset == 0) {
+                int headerLength = readFully(inputStream, buffer, BitmapUtils.IMAGE_HEADER_LENGTH);
+                boolean imageHeader = BitmapUtils.isImageHeader(buffer, headerLength);
+                timings.record(StageTimings.Stage.VERIFY, System.nanoTime() - start);
+                if (!imageHeader)
+                    return false;
+                start = System.nanoTime();
+                outputStream = new FileOutputStream(partFile, false);
+                outputStream.write(buffer, 0, headerLength);
+            } else {
+                // the header has been verified with the first part of the download
+                if (partFile.length() != offset)
+                    throw new IOException("partial download of " + photoId + " has changed");
+                outputStream = new FileOutputStream(partFile, true);
+            }
+            if (!replace) {
+                index.setValidator(photoId, validator);
+                keepPartFile = validator.canRevalidate();
+            }
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            outputStream.close();
+            outputStream = null;
+            // a response that ends early without an error is resumed like an interrupted one, if the validator allows it
+            if (!BitmapUtils.isCompleteImage(partFile))
+                throw new IOException("download of " + photoId + " ended before the end of the image");
+            inCache = partFile.renameTo(imageFilePath);
+            keepPartFile = false;
+            if (inCache) {
+                index.add(photoId, imageFilePath.getParentFile(), imageFilePath.length());
+                index.setValidator(photoId, validator);
+            }
+            timings.record(StageTimings.Stage.PERSIST, System.nanoTime() - start);
+            // bitmaps decoded from the previous image would otherwise be shown until they are evicted
+            if (replace && inCache)
+                ReplacedImageNotifier.notifyImageReplaced(photoId);
+        } finally {
+            if (outputStream != null)
+                outputStream.close();
+            if (!keepPartFile && partFile.exists())
+                partFile.delete();
         }
+        PhotoAccessor.getInstance().setImageFilePath(photo, imageFilePath.getAbsolutePath());
+        return inCache;
+    }
+
+    /**
+     * @return the number of bytes of the partial download of the image, that can be resumed
+     */
+    long getResumableLength(int photoId) {
+        if (index.contains(photoId))
+            return 0;
+        CachedImageIndex.Validator validator = index.getValidator(photoId);
+        if (validator == null)
+            return 0;
+        return index.getPartFile(photoId).length();
+    }
+
+    CachedImageIndex.Validator getValidator(int photoId) {
+        return index.getValidator(photoId);
+    }
+
+    /**
+     * @return {@code true}, if the image is cached and has been validated longer ago than the configured age.
+     * Images without a validator, e.g. images that have been sent inline, are never revalidated.
+     */
+    boolean needsRevalidation(int photoId) {
+        if (!index.contains(photoId))
+            return false;
+        CachedImageIndex.Validator validator = index.getValidator(photoId);
+        return validator != null && System.currentTimeMillis() - validator.getValidatedAt() >= revalidateAfterMillis;
     }
 
-    private boolean imageExistsOnFileSystem(String filename) {
-        File file = concatImageFilePath(context, filename);
-        return file.exists();
+    /**
+     * Called after the server has confirmed that the cached image is still up to date
+     * @param validator the validators sent with the confirmation, missing values are taken from the cached ones
+     */
+    void onRevalidated(Photo photo, CachedImageIndex.Validator validator) {
+        int photoId = photo.getId();
+        CachedImageIndex.Validator cached = index.getValidator(photoId);
+        String eTag = validator.getETag() != null || cached == null ? validator.getETag() : cached.getETag();
+        long lastModified = validator.getLastModified() > 0 || cached == null ? validator.getLastModified() : cached.getLastModified();
+        index.setValidator(photoId, new CachedImageIndex.Validator(eTag, lastModified, validator.getValidatedAt()));
+        index.touch(photoId);
+        PhotoAccessor.getInstance().setImageFilePath(photo, getImageFilePathForPhotoId(photoId).getAbsolutePath());
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        int read;
+        while (offset < length && (read = inputStream.read(buffer, offset, length - offset)) != -1) {
+            offset += read;
+        }
+        return offset;
     }
 
     File getImageFilePathForPhotoId(int photoId) {
-        return concatImageFilePath(context, getImageFileName(photoId));
+        File directory = index.getDirectory(photoId);
+        if (directory == null)
+            directory = index.getWriteDirectory();
+        return new File(directory, getImageFileName(photoId));
     }
 
     boolean isCached(int photoId) {
-        return imageExistsOnFileSystem(getImageFileName(photoId));
+        return index.contains(photoId);
+    }
+
+    boolean deleteCachedImage(int photoId) {
+        File directory = index.getDirectory(photoId);
+        File partFile = index.getPartFile(photoId);
+        if (partFile.exists())
+            partFile.delete();
+        index.remove(photoId);
+        return directory != null && new File(directory, getImageFileName(photoId)).delete();
     }
 
     static void deleteAllCachedImages(Context context) {
         File file = context.getFilesDir();
         internalDeleteAllCachedImages(file);
+        ImageCacheJournal.delete(file);
         if (isExternalStorageAccessible()){
             File pictureDirectory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
             internalDeleteAllCachedImages(pictureDirectory);
@@ -155,11 +365,44 @@ class ImageCacher {
         File[] files = dir.listFiles(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
-                return name.toLowerCase().endsWith(".jpg");
+                String fileName = name.toLowerCase();
+                return fileName.endsWith(".jpg") || fileName.endsWith(".jpg" + CachedImageIndex.PART_FILE_SUFFIX);
             }
         });
         for (File file : files){
             file.delete();
         }
     }
+
+    private static class PhotoLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        // guarded by photoLocks
+        private int holders = 0;
+    }
+
+    private static class AsciiInputStream extends InputStream {
+
+        private final String data;
+        private int position = 0;
+
+        AsciiInputStream(String data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length() ? data.charAt(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= data.length())
+                return -1;
+            int count = Math.min(length, data.length() - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) data.charAt(position++);
+            }
+            return count;
+        }
+    }
 }
@@ -29,14 +29,31 @@ import android.content.Context;
 
 class ImageCacherFactory {
 
-    private final Context context;
+    private final CachedImageIndex index;
+    private final long revalidateAfterMillis;
 
     public ImageCacherFactory(Context context){
-        this.context = context;
+        this(context, CachedImageIndex.DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    public ImageCacherFactory(Context context, long maxCacheSizeBytes){
+        this(context, maxCacheSizeBytes, ImageCacher.DEFAULT_REVALIDATE_AFTER_MILLIS);
+    }
+
+    public ImageCacherFactory(Context context, long maxCacheSizeBytes, long revalidateAfterMillis){
+        this.index = new CachedImageIndex(context, maxCacheSizeBytes);
+        this.revalidateAfterMillis = revalidateAfterMillis;
+    }
+
+    /**
+     * Builds the index of the cached images in the background, before it is needed
+     */
+    public void prepare(){
+        index.scanInBackground();
     }
 
     public ImageCacher create(){
-        return new ImageCacher(context);
+        return new ImageCacher(index, revalidateAfterMillis);
     }
 
 }
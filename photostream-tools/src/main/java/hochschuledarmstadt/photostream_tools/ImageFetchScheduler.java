@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gemeinsamer Thread Pool für alle Bild Downloads. Die Anzahl gleichzeitiger Verbindungen ist begrenzt,
+ * wartende Downloads werden nach {@link Priority} und danach in der Reihenfolge ihrer Anmeldung abgearbeitet.
+ * Downloads mit demselben Schlüssel laufen nacheinander, ohne dass ein wartender Download eine Verbindung belegt.
+ */
+class ImageFetchScheduler {
+
+    static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    enum Priority {
+        /**
+         * Bilder zu Fotos, die über den WebSocket empfangen wurden
+         */
+        PUSH,
+        /**
+         * Bilder zu Fotos, die gerade angezeigt werden sollen
+         */
+        VISIBLE,
+        /**
+         * Bilder zu Fotos, die im Voraus geladen werden
+         */
+        PREFETCH
+    }
+
+    interface Fetch extends Runnable {
+        /**
+         * Wird aufgerufen, wenn der Download abgebrochen wurde, bevor er gestartet ist
+         */
+        void onCancelled();
+
+        /**
+         * Wird aufgerufen, wenn der Download abgebrochen wird, während er läuft
+         */
+        void abort();
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final Set<Handle> scheduledFetches = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+    // keys of the running fetches, with the fetches of the same key that wait for them without a thread
+    private final Map<Object, List<Handle>> runningKeys = new HashMap<>();
+
+    public ImageFetchScheduler(int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        executor = new ThreadPoolExecutor(maxConnections, maxConnections, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    Handle schedule(Fetch fetch, Priority priority) {
+        return schedule(fetch, priority, null);
+    }
+
+    /**
+     * @param group the fetch can be cancelled together with all other fetches of this group by {@link #cancelGroup(Object)}
+     */
+    Handle schedule(Fetch fetch, Priority priority, Object group) {
+        return schedule(fetch, priority, group, null);
+    }
+
+    /**
+     * @param key a fetch that starts while another fetch of the same key is running waits for it without
+     *            occupying a connection and is queued again once the other fetch has finished, {@code null} for none
+     */
+    Handle schedule(Fetch fetch, Priority priority, Object group, Object key) {
+        Handle handle = new Handle(fetch, priority, sequence.getAndIncrement(), group, key);
+        scheduledFetches.add(handle);
+        // execute() instead of submit(), the queue needs the comparable Handle and not a FutureTask wrapper
+        executor.execute(handle);
+        return handle;
+    }
+
+    /**
+     * Changes the number of parallel downloads. Running downloads are not interrupted, surplus threads
+     * end once their current download has finished.
+     */
+    synchronized void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        if (maxConnections == executor.getMaximumPoolSize())
+            return;
+        // the core size must never exceed the maximum size, not even in between
+        if (maxConnections > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxConnections);
+            executor.setCorePoolSize(maxConnections);
+        } else {
+            executor.setCorePoolSize(maxConnections);
+            executor.setMaximumPoolSize(maxConnections);
+        }
+    }
+
+    int getMaxConnections() {
+        return executor.getMaximumPoolSize();
+    }
+
+    void cancelAll() {
+        for (Handle handle : scheduledFetches)
+            handle.cancel();
+    }
+
+    /**
+     * Cancels all queued and running fetches that have been scheduled with {@code group}
+     */
+    void cancelGroup(Object group) {
+        if (group == null)
+            return;
+        for (Handle handle : scheduledFetches) {
+            if (group.equals(handle.group))
+                handle.cancel();
+        }
+    }
+
+    int getScheduledFetchCount() {
+        return scheduledFetches.size();
+    }
+
+    int getQueuedFetchCount() {
+        return executor.getQueue().size();
+    }
+
+    int getWaitingFetchCount() {
+        synchronized (runningKeys) {
+            int count = 0;
+            for (List<Handle> waiting : runningKeys.values())
+                count += waiting.size();
+            return count;
+        }
+    }
+
+    final class Handle implements Runnable, Comparable<Handle> {
+
+        private final Fetch fetch;
+        private final Priority priority;
+        private final long sequence;
+        private final Object group;
+        private final Object key;
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        private Handle(Fetch fetch, Priority priority, long sequence, Object group, Object key) {
+            this.fetch = fetch;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.group = group;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            // a waiting fetch stays scheduled, so it can still be cancelled
+            if (!acquireKey())
+                return;
+            try {
+                fetch.run();
+            } finally {
+                scheduledFetches.remove(this);
+                releaseKey();
+            }
+        }
+
+        private boolean acquireKey() {
+            if (key == null)
+                return true;
+            synchronized (runningKeys) {
+                List<Handle> waiting = runningKeys.get(key);
+                if (waiting == null) {
+                    runningKeys.put(key, new ArrayList<Handle>());
+                    return true;
+                }
+                waiting.add(this);
+                return false;
+            }
+        }
+
+        private void releaseKey() {
+            if (key == null)
+                return;
+            List<Handle> waiting;
+            synchronized (runningKeys) {
+                waiting = runningKeys.remove(key);
+            }
+            // the first of them to run becomes the running fetch of the key again
+            for (Handle handle : waiting)
+                executor.execute(handle);
+        }
+
+        private boolean removeWaiting() {
+            if (key == null)
+                return false;
+            synchronized (runningKeys) {
+                List<Handle> waiting = runningKeys.get(key);
+                return waiting != null && waiting.remove(this);
+            }
+        }
+
+        void cancel() {
+            if (!cancelled.compareAndSet(false, true))
+                return;
+            if (executor.remove(this) || removeWaiting()) {
+                scheduledFetches.remove(this);
+                fetch.onCancelled();
+            } else {
+                fetch.abort();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        @Override
+        public int compareTo(Handle other) {
+            int result = priority.compareTo(other.priority);
+            if (result == 0)
+                result = sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+import hochschuledarmstadt.photostream_tools.model.CommentsQueryResult;
+import hochschuledarmstadt.photostream_tools.model.HttpError;
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+/**
+ * Die einzige Gson Instanz der Bibliothek. Die Model Klassen werden über eigene Type Adapter
+ * statt über Reflection gelesen und geschrieben.
+ */
+final class JsonCodec {
+
+    private static final String KEY_PHOTO_ID = "photo_id";
+    private static final String KEY_IMAGE = "image";
+    private static final String KEY_DESCRIPTION = "comment";
+    private static final String KEY_FAVORITE = "favorite";
+    private static final String KEY_DELETEABLE = "deleteable";
+    private static final String KEY_COMMENT_COUNT = "comment_count";
+    private static final String KEY_COMMENT_ID = "comment_id";
+    private static final String KEY_MESSAGE = "message";
+    private static final String KEY_PAGE = "page";
+    private static final String KEY_HAS_NEXT_PAGE = "has_next_page";
+    private static final String KEY_PHOTOS = "photos";
+    private static final String KEY_COMMENTS = "comments";
+    private static final String KEY_RESPONSE_CODE = "response_code";
+
+    private static final Gson GSON = create();
+
+    private JsonCodec() { }
+
+    static Gson gson() {
+        return GSON;
+    }
+
+    private static Gson create() {
+        TypeAdapter<Photo> photoAdapter = new PhotoAdapter().nullSafe();
+        TypeAdapter<Comment> commentAdapter = new CommentAdapter().nullSafe();
+        return new GsonBuilder()
+                .registerTypeAdapter(Photo.class, photoAdapter)
+                .registerTypeAdapter(Comment.class, commentAdapter)
+                .registerTypeAdapter(PhotoQueryResult.class, new PhotoQueryResultAdapter(photoAdapter).nullSafe())
+                .registerTypeAdapter(CommentsQueryResult.class, new CommentsQueryResultAdapter(commentAdapter).nullSafe())
+                .registerTypeAdapter(HttpError.class, new HttpErrorAdapter().nullSafe())
+                .create();
+    }
+
+    static final class PhotoAdapter extends TypeAdapter<Photo> {
+
+        @Override
+        public void write(JsonWriter out, Photo photo) throws IOException {
+            out.beginObject();
+            out.name(KEY_PHOTO_ID).value(photo.getId());
+            out.name(KEY_IMAGE).value(photo.getImageFilePath());
+            out.name(KEY_DESCRIPTION).value(photo.getDescription());
+            out.name(KEY_FAVORITE).value(photo.isFavorite() ? 1 : 0);
+            out.name(KEY_DELETEABLE).value(photo.isDeleteable());
+            out.name(KEY_COMMENT_COUNT).value(photo.getCommentCount());
+            out.endObject();
+        }
+
+        @Override
+        public Photo read(JsonReader in) throws IOException {
+            int id = 0;
+            String image = null;
+            String description = null;
+            boolean favorite = false;
+            boolean deleteable = false;
+            int commentCount = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in))
+                    continue;
+                if (KEY_PHOTO_ID.equals(name)) {
+                    id = in.nextInt();
+                } else if (KEY_IMAGE.equals(name)) {
+                    // JsonReader has no streaming string value, ImageCachePipeline bounds how many of these are held
+                    image = in.nextString();
+                } else if (KEY_DESCRIPTION.equals(name)) {
+                    description = in.nextString();
+                } else if (KEY_FAVORITE.equals(name)) {
+                    favorite = nextBoolean(in);
+                } else if (KEY_DELETEABLE.equals(name)) {
+                    deleteable = nextBoolean(in);
+                } else if (KEY_COMMENT_COUNT.equals(name)) {
+                    commentCount = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Photo(id, image, description, favorite, deleteable, commentCount);
+        }
+    }
+
+    static final class CommentAdapter extends TypeAdapter<Comment> {
+
+        @Override
+        public void write(JsonWriter out, Comment comment) throws IOException {
+            out.beginObject();
+            out.name(KEY_PHOTO_ID).value(comment.getPhotoId());
+            out.name(KEY_COMMENT_ID).value(comment.getId());
+            out.name(KEY_MESSAGE).value(comment.getMessage());
+            out.name(KEY_DELETEABLE).value(comment.isDeleteable());
+            out.endObject();
+        }
+
+        @Override
+        public Comment read(JsonReader in) throws IOException {
+            int photoId = 0;
+            int commentId = 0;
+            String message = null;
+            boolean deleteable = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in))
+                    continue;
+                if (KEY_PHOTO_ID.equals(name)) {
+                    photoId = in.nextInt();
+                } else if (KEY_COMMENT_ID.equals(name)) {
+                    commentId = in.nextInt();
+                } else if (KEY_MESSAGE.equals(name)) {
+                    message = in.nextString();
+                } else if (KEY_DELETEABLE.equals(name)) {
+                    deleteable = nextBoolean(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Comment(commentId, photoId, message, deleteable);
+        }
+    }
+
+    static final class PhotoQueryResultAdapter extends TypeAdapter<PhotoQueryResult> {
+
+        private final TypeAdapter<Photo> photoAdapter;
+
+        PhotoQueryResultAdapter(TypeAdapter<Photo> photoAdapter) {
+            this.photoAdapter = photoAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, PhotoQueryResult result) throws IOException {
+            out.beginObject();
+            out.name(KEY_PAGE).value(result.getPage());
+            out.name(KEY_HAS_NEXT_PAGE).value(result.hasNextPage());
+            out.name(KEY_PHOTOS).beginArray();
+            for (Photo photo : result.getPhotos())
+                photoAdapter.write(out, photo);
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public PhotoQueryResult read(JsonReader in) throws IOException {
+            return read(in, null);
+        }
+
+        /**
+         * Reads a page and hands every photo to {@code listener} as soon as it has been read.
+         */
+        PhotoQueryResult read(JsonReader in, JsonResultReader.OnPhotoReadListener listener) throws IOException {
+            int page = 0;
+            boolean nextPage = false;
+            List<Photo> photos = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in))
+                    continue;
+                if (KEY_PAGE.equals(name)) {
+                    page = in.nextInt();
+                } else if (KEY_HAS_NEXT_PAGE.equals(name)) {
+                    nextPage = nextBoolean(in);
+                } else if (KEY_PHOTOS.equals(name)) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        Photo photo = photoAdapter.read(in);
+                        if (photo == null)
+                            continue;
+                        if (listener != null)
+                            listener.onPhotoRead(photo);
+                        photos.add(photo);
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new PhotoQueryResult(page, nextPage, photos);
+        }
+    }
+
+    static final class CommentsQueryResultAdapter extends TypeAdapter<CommentsQueryResult> {
+
+        private final TypeAdapter<Comment> commentAdapter;
+
+        CommentsQueryResultAdapter(TypeAdapter<Comment> commentAdapter) {
+            this.commentAdapter = commentAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, CommentsQueryResult result) throws IOException {
+            out.beginObject();
+            out.name(KEY_PHOTO_ID).value(result.getPhotoId());
+            out.name(KEY_COMMENTS).beginArray();
+            for (Comment comment : result.getComments())
+                commentAdapter.write(out, comment);
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public CommentsQueryResult read(JsonReader in) throws IOException {
+            int photoId = 0;
+            List<Comment> comments = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in))
+                    continue;
+                if (KEY_PHOTO_ID.equals(name)) {
+                    photoId = in.nextInt();
+                } else if (KEY_COMMENTS.equals(name)) {
+                    readList(in, commentAdapter, comments);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new CommentsQueryResult(photoId, comments);
+        }
+    }
+
+    static final class HttpErrorAdapter extends TypeAdapter<HttpError> {
+
+        @Override
+        public void write(JsonWriter out, HttpError error) throws IOException {
+            out.beginObject();
+            out.name(KEY_RESPONSE_CODE).value(error.getResponseCode());
+            out.name(KEY_MESSAGE).value(error.getMessage());
+            out.endObject();
+        }
+
+        @Override
+        public HttpError read(JsonReader in) throws IOException {
+            int responseCode = 0;
+            String message = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in))
+                    continue;
+                if (KEY_RESPONSE_CODE.equals(name)) {
+                    responseCode = in.nextInt();
+                } else if (KEY_MESSAGE.equals(name)) {
+                    message = in.nextString();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new HttpError(responseCode, message);
+        }
+    }
+
+    private static <T> void readList(JsonReader in, TypeAdapter<T> adapter, List<T> into) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            T item = adapter.read(in);
+            if (item != null)
+                into.add(item);
+        }
+        in.endArray();
+    }
+
+    private static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    // the server sends flags either as json booleans or as 0 and 1
+    private static boolean nextBoolean(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.BOOLEAN)
+            return in.nextBoolean();
+        if (token == JsonToken.NUMBER)
+            return in.nextInt() != 0;
+        String value = in.nextString();
+        return Boolean.parseBoolean(value) || "1".equals(value);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+import hochschuledarmstadt.photostream_tools.model.CommentsQueryResult;
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+/**
+ * Decodes query results directly from the response stream. Photos and comments are read one
+ * at a time, so the response body is never held in memory as a whole.
+ */
+class JsonResultReader {
+
+    private final Gson gson;
+
+    public JsonResultReader(Gson gson) {
+        this.gson = gson;
+    }
+
+    public PhotoQueryResult readPhotoQueryResult(Reader in, OnPhotoReadListener listener) throws IOException {
+        // the page is read by the same adapter as everywhere else, e.g. has_next_page may be sent as 0 or 1
+        JsonCodec.PhotoQueryResultAdapter adapter = new JsonCodec.PhotoQueryResultAdapter(gson.getAdapter(Photo.class));
+        JsonReader reader = new JsonReader(in);
+        try {
+            return adapter.read(reader, listener);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.toString());
+        } catch (JsonParseException e) {
+            throw new IOException(e.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException(e.toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public CommentsQueryResult readCommentsQueryResult(Reader in) throws IOException {
+        JsonCodec.CommentsQueryResultAdapter adapter = new JsonCodec.CommentsQueryResultAdapter(gson.getAdapter(Comment.class));
+        JsonReader reader = new JsonReader(in);
+        try {
+            return adapter.read(reader);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.toString());
+        } catch (JsonParseException e) {
+            throw new IOException(e.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException(e.toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    interface OnPhotoReadListener {
+        void onPhotoRead(Photo photo) throws IOException;
+    }
+}
@@ -24,10 +24,7 @@
 
 package hochschuledarmstadt.photostream_tools;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.util.List;
 
 import hochschuledarmstadt.photostream_tools.model.Comment;
@@ -39,6 +36,7 @@ class LoadCommentsAsyncTask extends BaseAsyncTask<Void, Void, CommentsQueryResul
     private final OnCommentsResultListener callback;
     private final HttpGetExecutor executor;
     private final int photoId;
+    private final JsonResultReader jsonResultReader = new JsonResultReader(JsonCodec.gson());
 
     public LoadCommentsAsyncTask(HttpGetExecutor executor, int photoId, OnCommentsResultListener callback){
         super();
@@ -67,19 +65,17 @@ class LoadCommentsAsyncTask extends BaseAsyncTask<Void, Void, CommentsQueryResul
         HttpResponse httpResponse = executor.execute();
         CommentsQueryResult commentsQueryResult = null;
         if (httpResponse.getStatusCode() == HttpResponse.STATUS_OK) {
-            commentsQueryResult = new Gson().fromJson(httpResponse.getResult(), CommentsQueryResult.class);
+            try {
+                commentsQueryResult = jsonResultReader.readCommentsQueryResult(httpResponse.getReader());
+            } finally {
+                httpResponse.close();
+            }
             final List<Comment> comments = commentsQueryResult.getComments();
-            final Integer photoId = commentsQueryResult.getPhotoId();
-            for (Comment comment : comments) {
-                try {
-                    Field field = comment.getClass().getDeclaredField("photoId");
-                    field.setAccessible(true);
-                    field.set(comment, photoId);
-                } catch (IllegalAccessException e) {
-                    Logger.log(TAG, LogLevel.ERROR, e.toString());
-                } catch (NoSuchFieldException e) {
-                    Logger.log(TAG, LogLevel.ERROR, e.toString());
-                }
+            final int photoId = commentsQueryResult.getPhotoId();
+            // the comments of a thread are sent without the id of their photo
+            for (int i = 0; i < comments.size(); i++) {
+                Comment comment = comments.get(i);
+                comments.set(i, new Comment(comment.getId(), photoId, comment.getMessage(), comment.isDeleteable()));
             }
             String newEtag = executor.getEtag();
             if (newEtag != null)
@@ -109,7 +105,7 @@ class LoadCommentsAsyncTask extends BaseAsyncTask<Void, Void, CommentsQueryResul
     interface OnCommentsResultListener {
         void onGetComments(int photoId, List<Comment> comments);
         void onNewEtag(int photoId, CommentsQueryResult result, String eTag);
-        CommentsQueryResult onCommentsNotModified(int photoId);
+        CommentsQueryResult onCommentsNotModified(int photoId) throws IOException;
         void onGetCommentsFailed(int photoId, HttpError httpError);
     }
 
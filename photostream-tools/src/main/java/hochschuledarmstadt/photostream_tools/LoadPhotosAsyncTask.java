@@ -26,12 +26,8 @@ package hochschuledarmstadt.photostream_tools;
 
 import android.content.Context;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.ArrayList;
-import java.util.List;
 
 import hochschuledarmstadt.photostream_tools.model.HttpError;
 import hochschuledarmstadt.photostream_tools.model.Photo;
@@ -44,6 +40,7 @@ class LoadPhotosAsyncTask extends BaseAsyncTask<Void, Void, PhotoQueryResult> {
     private final GetPhotosCallback callback;
     private final HttpGetExecutor executor;
     private final HttpImageLoader imageLoader;
+    private final JsonResultReader jsonResultReader = new JsonResultReader(JsonCodec.gson());
 
     public LoadPhotosAsyncTask(HttpGetExecutor executor, HttpImageLoader imageLoader, ImageCacher imageCacher, GetPhotosCallback callback) {
         super();
@@ -79,12 +76,24 @@ class LoadPhotosAsyncTask extends BaseAsyncTask<Void, Void, PhotoQueryResult> {
         int statusCode = httpResponse.getStatusCode();
         PhotoQueryResult photoQueryResult = null;
         if (statusCode == HttpURLConnection.HTTP_OK) {
-            String jsonResult = httpResponse.getResult();
-            Gson gson = new Gson();
-            photoQueryResult = gson.fromJson(jsonResult, PhotoQueryResult.class);
-            cacheImagesIfNecessary(photoQueryResult);
-            jsonResult = gson.toJson(photoQueryResult);
-            callback.onNewETag(executor.getEtag(), photoQueryResult.getPage(), jsonResult);
+            final ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+            boolean read = false;
+            try {
+                photoQueryResult = jsonResultReader.readPhotoQueryResult(httpResponse.getReader(), new JsonResultReader.OnPhotoReadListener() {
+                    @Override
+                    public void onPhotoRead(Photo photo) throws IOException {
+                        pipeline.submitStreamed(photo);
+                    }
+                });
+                read = true;
+            } finally {
+                httpResponse.close();
+                // the images of the photos read so far must not keep loading for a failed request
+                if (!read)
+                    pipeline.cancel();
+            }
+            pipeline.awaitAll();
+            callback.onNewETag(executor.getEtag(), photoQueryResult.getPage(), photoQueryResult);
 
         } else if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
             int page = executor.getPage();
@@ -97,26 +106,10 @@ class LoadPhotosAsyncTask extends BaseAsyncTask<Void, Void, PhotoQueryResult> {
     }
 
     private void cacheImagesIfNecessary(PhotoQueryResult photoQueryResult) throws IOException {
-        final List<Photo> photos = photoQueryResult.getPhotos();
-        List<Photo> uncachedPhotos = new ArrayList<>();
-        for (Photo photo : photos) {
-            int photoId = photo.getId();
-            if (!imageCacher.isCached(photoId)) {
-                uncachedPhotos.add(photo);
-            } else {
-                imageCacher.cacheImage(photo);
-            }
-        }
-        if (uncachedPhotos.size() > 0) {
-            imageLoader.execute(uncachedPhotos);
-            while (imageLoader.isRunning()) {
-                HttpImageLoader.HttpImage httpImage = imageLoader.take();
-                if (httpImage != null) {
-                    imageCacher.cacheImage(httpImage.getPhoto(), httpImage.getImageData());
-                }
-            }
-            uncachedPhotos.clear();
-        }
+        ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        for (Photo photo : photoQueryResult.getPhotos())
+            pipeline.submit(photo);
+        pipeline.awaitAll();
     }
 
     @Override
@@ -138,9 +131,9 @@ class LoadPhotosAsyncTask extends BaseAsyncTask<Void, Void, PhotoQueryResult> {
 
         void onPhotosError(HttpError httpError);
 
-        void onNewETag(String eTag, int page, String jsonStringPhotoQueryResult);
+        void onNewETag(String eTag, int page, PhotoQueryResult photoQueryResult);
 
-        PhotoQueryResult onNoNewPhotosAvailable(int page);
+        PhotoQueryResult onNoNewPhotosAvailable(int page) throws IOException;
     }
 
 }
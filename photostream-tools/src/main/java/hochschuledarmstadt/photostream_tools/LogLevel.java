@@ -25,5 +25,5 @@
 package hochschuledarmstadt.photostream_tools;
 
 enum LogLevel {
-    INFO, WARNING, ERROR
+    DEBUG, INFO, WARNING, ERROR
 }
@@ -51,6 +51,9 @@ class Logger {
 
     private static void logToLogcat(String tag, LogLevel logLevel, String logMessage) {
         switch (logLevel) {
+            case DEBUG:
+                Log.d(tag, logMessage);
+                break;
             case INFO:
                 Log.i(tag, logMessage);
                 break;
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the quality of the current network connection from the round trip times of the api requests
+ * and the throughput of the image downloads. Both are smoothed with an exponentially weighted moving average.
+ * The estimate decides about the page size, the number of parallel image downloads and the timeouts.
+ */
+class NetworkQualityEstimator {
+
+    enum Quality {
+        UNKNOWN,
+        POOR,
+        MODERATE,
+        GOOD
+    }
+
+    static final int MIN_TIMEOUT_MILLIS = HttpExecutor.CONNECT_TIMEOUT;
+    static final int MAX_TIMEOUT_MILLIS = 20000;
+    static final int MIN_PAGE_SIZE = 2;
+    static final int MAX_PAGE_SIZE = 30;
+
+    private static final double WEIGHT = 0.25;
+    private static final int MIN_SAMPLES = 3;
+    // transfers below this size are dominated by the round trip and say nothing about the bandwidth
+    private static final long MIN_TRANSFER_BYTES = 16 * 1024;
+    private static final long POOR_RTT_MILLIS = 1000;
+    private static final long GOOD_RTT_MILLIS = 150;
+    private static final double POOR_THROUGHPUT_KBPS = 300;
+    private static final double GOOD_THROUGHPUT_KBPS = 3000;
+    private static final int TIMEOUT_RTT_FACTOR = 8;
+
+    private double rttMillis = -1;
+    private double throughputKbps = -1;
+    private int rttSamples = 0;
+    private int throughputSamples = 0;
+
+    synchronized void onRoundTrip(long elapsedNanos) {
+        double millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        rttMillis = rttSamples == 0 ? millis : average(rttMillis, millis);
+        rttSamples++;
+    }
+
+    synchronized void onTransfer(long bytes, long elapsedNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        if (bytes < MIN_TRANSFER_BYTES || millis <= 0)
+            return;
+        // bits per millisecond equal kilobits per second
+        double kbps = bytes * 8d / millis;
+        throughputKbps = throughputSamples == 0 ? kbps : average(throughputKbps, kbps);
+        throughputSamples++;
+    }
+
+    synchronized Quality getQuality() {
+        boolean rttKnown = rttSamples >= MIN_SAMPLES;
+        boolean throughputKnown = throughputSamples >= MIN_SAMPLES;
+        if (!rttKnown && !throughputKnown)
+            return Quality.UNKNOWN;
+        if ((rttKnown && rttMillis >= POOR_RTT_MILLIS) || (throughputKnown && throughputKbps <= POOR_THROUGHPUT_KBPS))
+            return Quality.POOR;
+        if (rttKnown && rttMillis <= GOOD_RTT_MILLIS && throughputKnown && throughputKbps >= GOOD_THROUGHPUT_KBPS)
+            return Quality.GOOD;
+        return Quality.MODERATE;
+    }
+
+    /**
+     * @param basePageSize the page size from the manifest
+     * @return half the page size on a poor connection, twice the page size on a good one
+     */
+    int getPageSize(int basePageSize) {
+        switch (getQuality()) {
+            case POOR:
+                return Math.max(MIN_PAGE_SIZE, basePageSize / 2);
+            case GOOD:
+                return Math.min(MAX_PAGE_SIZE, basePageSize * 2);
+            default:
+                return basePageSize;
+        }
+    }
+
+    /**
+     * @param maxConnections the number of parallel image downloads from the manifest
+     * @return a single download on a poor connection, otherwise {@code maxConnections}
+     */
+    int getImageConnections(int maxConnections) {
+        return getQuality() == Quality.POOR ? 1 : maxConnections;
+    }
+
+    synchronized int getTimeoutMillis() {
+        if (rttSamples < MIN_SAMPLES)
+            return MIN_TIMEOUT_MILLIS;
+        long timeout = Math.round(rttMillis * TIMEOUT_RTT_FACTOR);
+        return (int) Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, timeout));
+    }
+
+    private static double average(double current, double sample) {
+        return current + WEIGHT * (sample - current);
+    }
+}
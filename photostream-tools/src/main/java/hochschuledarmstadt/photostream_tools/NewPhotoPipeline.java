@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import android.os.Handler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+
+/**
+ * Cacht die Bilder neuer Photos aus dem WebSocket parallel und liefert die Photos in der Reihenfolge
+ * des Servers auf dem UI Thread aus. Events zu einem noch nicht ausgelieferten Photo werden bis dahin zurückgehalten.
+ */
+class NewPhotoPipeline implements OnResponseListener {
+
+    private static final String TAG = NewPhotoPipeline.class.getName();
+    private static final int WORKER_THREADS = 3;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ImageCacher imageCacher;
+    private final HttpImageLoaderFactory imageLoaderFactory;
+    private final Handler handler;
+    private final AndroidSocket.OnMessageListener listener;
+    // photos in the order of arrival, the head is delivered as soon as its image has been handled
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+    // the workers waiting for the download of a photo, by photo id
+    private final Map<Integer, BlockingQueue<Boolean>> downloads = new HashMap<>();
+    // an executor that has been passed in is never shut down by this pipeline
+    private final boolean ownsExecutor;
+    private Executor executor;
+    private HttpImageLoader imageLoader;
+
+    NewPhotoPipeline(ImageCacher imageCacher, HttpImageLoaderFactory imageLoaderFactory, Handler handler, AndroidSocket.OnMessageListener listener) {
+        this(imageCacher, imageLoaderFactory, null, handler, listener);
+    }
+
+    NewPhotoPipeline(ImageCacher imageCacher, HttpImageLoaderFactory imageLoaderFactory, Executor executor, Handler handler, AndroidSocket.OnMessageListener listener) {
+        this.imageCacher = imageCacher;
+        this.imageLoaderFactory = imageLoaderFactory;
+        this.ownsExecutor = executor == null;
+        this.executor = executor;
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private synchronized Executor getExecutor() {
+        // the socket is connected again after a destroy, a new pool is started then
+        if (executor == null)
+            executor = createExecutor();
+        return executor;
+    }
+
+    private synchronized HttpImageLoader getImageLoader() {
+        if (imageLoader == null)
+            imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.PUSH, null, this);
+        return imageLoader;
+    }
+
+    void submit(Photo photo) {
+        final Entry entry = new Entry(photo);
+        synchronized (pending) {
+            pending.addLast(entry);
+        }
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean cached = false;
+                try {
+                    cached = cache(entry.photo);
+                } catch (IOException e) {
+                    Logger.log(TAG, LogLevel.ERROR, e.toString());
+                }
+                complete(entry, cached);
+            }
+        });
+    }
+
+    boolean cache(Photo photo) throws IOException {
+        int photoId = photo.getId();
+        imageCacher.pin(photoId);
+        try {
+            if (imageCacher.isCached(photoId) && imageCacher.useCachedImage(photo)) {
+                // a stale image is delivered right away, a replacing download evicts the bitmaps decoded from it
+                if (imageCacher.needsRevalidation(photoId))
+                    getImageLoader().revalidate(Collections.singletonList(photo));
+                return true;
+            }
+            BlockingQueue<Boolean> result = new ArrayBlockingQueue<>(1);
+            synchronized (downloads) {
+                downloads.put(photoId, result);
+            }
+            try {
+                if (getImageLoader().execute(Collections.singletonList(photo)) == 0)
+                    return false;
+                return result.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.toString());
+            } finally {
+                synchronized (downloads) {
+                    downloads.remove(photoId);
+                }
+            }
+        } finally {
+            imageCacher.unpin(photoId);
+        }
+    }
+
+    @Override
+    public void onResponse(Photo photo, boolean cached, StageTimings timings) {
+        BlockingQueue<Boolean> result;
+        synchronized (downloads) {
+            result = downloads.get(photo.getId());
+        }
+        // null if the waiting worker has been interrupted by destroy()
+        if (result != null)
+            result.offer(cached);
+    }
+
+    /**
+     * Holds {@code event} back until the photo with {@code photoId} has been delivered, if it is still pending.
+     * @return {@code false}, if the photo is not pending and the event has to be dispatched right away
+     */
+    boolean deferUntilDelivered(int photoId, Runnable event) {
+        synchronized (pending) {
+            Entry entry = findPending(photoId);
+            if (entry == null)
+                return false;
+            entry.deferred.add(new DeferredEvent(event, true));
+            return true;
+        }
+    }
+
+    /**
+     * Holds {@code event} back until every pending photo has been delivered, so it is not dispatched before
+     * events that have been held back for one of them. Unlike {@link #deferUntilDelivered(int, Runnable)}
+     * the event is dispatched even if the photo it waits for is dropped.
+     * @return {@code false}, if no photo is pending and the event has to be dispatched right away
+     */
+    boolean deferBehindPending(Runnable event) {
+        synchronized (pending) {
+            if (pending.isEmpty())
+                return false;
+            pending.peekLast().deferred.add(new DeferredEvent(event, false));
+            return true;
+        }
+    }
+
+    /**
+     * Drops the photo with {@code photoId} and the events held back for it, if it has not been delivered yet.
+     */
+    void photoDeleted(int photoId) {
+        synchronized (pending) {
+            Entry entry = findPending(photoId);
+            if (entry != null)
+                entry.deleted = true;
+        }
+    }
+
+    private Entry findPending(int photoId) {
+        for (Entry entry : pending) {
+            if (entry.photo.getId() == photoId && !entry.deleted)
+                return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Stops all downloads and drops the pending photos. The pipeline can be used again afterwards.
+     */
+    void destroy() {
+        synchronized (pending) {
+            pending.clear();
+        }
+        HttpImageLoader loader;
+        Executor oldExecutor;
+        synchronized (this) {
+            loader = imageLoader;
+            oldExecutor = executor;
+            if (ownsExecutor)
+                executor = null;
+        }
+        if (loader != null)
+            loader.cancel();
+        if (ownsExecutor && oldExecutor != null)
+            ((ThreadPoolExecutor) oldExecutor).shutdownNow();
+    }
+
+    private void complete(Entry entry, boolean cached) {
+        synchronized (pending) {
+            entry.done = true;
+            entry.cached = cached;
+            final List<Runnable> ready = new ArrayList<>();
+            while (!pending.isEmpty() && pending.peekFirst().done) {
+                Entry head = pending.pollFirst();
+                final boolean delivered = head.cached && !head.deleted;
+                if (delivered) {
+                    final Photo photo = head.photo;
+                    ready.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onNewPhoto(photo);
+                        }
+                    });
+                }
+                for (DeferredEvent event : head.deferred) {
+                    if (delivered || !event.ofPhoto)
+                        ready.add(event.event);
+                }
+            }
+            if (ready.isEmpty())
+                return;
+            // posted while holding the lock, so batches reach the main thread in the order they were taken
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable runnable : ready)
+                        runnable.run();
+                }
+            });
+        }
+    }
+
+    private static final class Entry {
+        final Photo photo;
+        final List<DeferredEvent> deferred = new ArrayList<>();
+        boolean done = false;
+        boolean cached = false;
+        boolean deleted = false;
+
+        Entry(Photo photo) {
+            this.photo = photo;
+        }
+    }
+
+    private static final class DeferredEvent {
+        final Runnable event;
+        // events of the photo itself are dropped with it
+        final boolean ofPhoto;
+
+        DeferredEvent(Runnable event, boolean ofPhoto) {
+            this.event = event;
+            this.ofPhoto = ofPhoto;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hochschuledarmstadt.photostream_tools;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+
+/**
+ * Zugriff der Bibliothek auf Eigenschaften eines {@link Photo}, die Apps nicht verändern dürfen.
+ * Die einzige Instanz wird von {@link Photo} selbst registriert.
+ */
+public abstract class PhotoAccessor {
+
+    private static volatile PhotoAccessor instance;
+
+    /**
+     * Wird von {@link Photo} beim Laden der Klasse aufgerufen
+     * @param accessor Zugriff auf die Eigenschaften eines Photos
+     * @throws IllegalStateException wenn bereits ein Zugriff registriert wurde
+     */
+    public static synchronized void register(PhotoAccessor accessor) {
+        if (instance != null)
+            throw new IllegalStateException("PhotoAccessor has already been registered");
+        instance = accessor;
+    }
+
+    static PhotoAccessor getInstance() {
+        if (instance == null) {
+            try {
+                // initializing Photo registers its accessor, the jvm makes every other thread wait for it
+                Class.forName(Photo.class.getName(), true, Photo.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return instance;
+    }
+
+    protected abstract void setImageFilePath(Photo photo, String imageFilePath);
+}
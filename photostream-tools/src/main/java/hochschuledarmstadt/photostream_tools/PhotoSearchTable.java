@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+
+/**
+ * Full text index over the descriptions of the cached photos and the messages of the cached comments.
+ * The index is kept in sync with the photo and comment tables by triggers, so it never has to be written directly.
+ */
+class PhotoSearchTable {
+
+    public static final String PHOTO_INDEX_NAME = "photo_search";
+    public static final String COMMENT_INDEX_NAME = "comment_search";
+
+    private static final String PHOTO_INDEX_CREATE = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + PHOTO_INDEX_NAME + " USING fts4(" + PhotoTable.COLUMN_DESCRIPTION + ")";
+
+    private static final String COMMENT_INDEX_CREATE = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + COMMENT_INDEX_NAME + " USING fts4(" + CommentTable.COLUMN_MESSAGE + ")";
+
+    // the docid of an indexed description is the photo id, the docid of an indexed message is the comment id
+    private static final String PHOTO_REINDEX = "DELETE FROM " + PHOTO_INDEX_NAME + " WHERE docid = new." + PhotoTable.COLUMN_PHOTO_ID + "; "
+            + "INSERT INTO " + PHOTO_INDEX_NAME + "(docid, " + PhotoTable.COLUMN_DESCRIPTION + ") "
+            + "VALUES (new." + PhotoTable.COLUMN_PHOTO_ID + ", new." + PhotoTable.COLUMN_DESCRIPTION + "); ";
+
+    private static final String COMMENT_REINDEX = "DELETE FROM " + COMMENT_INDEX_NAME + " WHERE docid = new." + CommentTable.COLUMN_COMMENT_ID + "; "
+            + "INSERT INTO " + COMMENT_INDEX_NAME + "(docid, " + CommentTable.COLUMN_MESSAGE + ") "
+            + "VALUES (new." + CommentTable.COLUMN_COMMENT_ID + ", new." + CommentTable.COLUMN_MESSAGE + "); ";
+
+    // INSERT OR REPLACE does not fire delete triggers for the replaced row, so the insert triggers remove the old entry
+    private static final String[] TRIGGERS_CREATE = new String[]{
+            "CREATE TRIGGER IF NOT EXISTS " + PHOTO_INDEX_NAME + "_insert AFTER INSERT ON " + PhotoTable.TABLE_NAME
+                    + " BEGIN " + PHOTO_REINDEX + "END",
+            "CREATE TRIGGER IF NOT EXISTS " + PHOTO_INDEX_NAME + "_update AFTER UPDATE OF " + PhotoTable.COLUMN_DESCRIPTION
+                    + " ON " + PhotoTable.TABLE_NAME + " BEGIN " + PHOTO_REINDEX + "END",
+            "CREATE TRIGGER IF NOT EXISTS " + PHOTO_INDEX_NAME + "_delete AFTER DELETE ON " + PhotoTable.TABLE_NAME
+                    + " BEGIN DELETE FROM " + PHOTO_INDEX_NAME + " WHERE docid = old." + PhotoTable.COLUMN_PHOTO_ID + "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + COMMENT_INDEX_NAME + "_insert AFTER INSERT ON " + CommentTable.TABLE_NAME
+                    + " BEGIN " + COMMENT_REINDEX + "END",
+            "CREATE TRIGGER IF NOT EXISTS " + COMMENT_INDEX_NAME + "_delete AFTER DELETE ON " + CommentTable.TABLE_NAME
+                    + " BEGIN DELETE FROM " + COMMENT_INDEX_NAME + " WHERE docid = old." + CommentTable.COLUMN_COMMENT_ID + "; END"
+    };
+
+    private static final String[] TRIGGER_NAMES = new String[]{
+            PHOTO_INDEX_NAME + "_insert", PHOTO_INDEX_NAME + "_update", PHOTO_INDEX_NAME + "_delete",
+            COMMENT_INDEX_NAME + "_insert", COMMENT_INDEX_NAME + "_delete"
+    };
+
+    private static final String QUERY_MATCHING_PHOTOS = "SELECT * FROM " + PhotoTable.TABLE_NAME
+            + " WHERE " + PhotoTable.COLUMN_PHOTO_ID + " IN (SELECT docid FROM " + PHOTO_INDEX_NAME
+            + " WHERE " + PHOTO_INDEX_NAME + " MATCH ?)"
+            + " OR " + PhotoTable.COLUMN_PHOTO_ID + " IN (SELECT c." + CommentTable.COLUMN_PHOTO_ID + " FROM " + CommentTable.TABLE_NAME + " c"
+            + " INNER JOIN " + COMMENT_INDEX_NAME + " s ON s.docid = c." + CommentTable.COLUMN_COMMENT_ID
+            + " WHERE " + COMMENT_INDEX_NAME + " MATCH ?)"
+            + " ORDER BY " + PhotoTable.COLUMN_PHOTO_ID + " DESC";
+
+    /**
+     * Creates the index and its triggers. The photo and comment tables have to exist already.
+     */
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL(PHOTO_INDEX_CREATE);
+        db.execSQL(COMMENT_INDEX_CREATE);
+        for (String trigger : TRIGGERS_CREATE)
+            db.execSQL(trigger);
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        for (String triggerName : TRIGGER_NAMES)
+            db.execSQL("DROP TRIGGER IF EXISTS " + triggerName);
+        db.execSQL("DROP TABLE IF EXISTS " + PHOTO_INDEX_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + COMMENT_INDEX_NAME);
+    }
+
+    /**
+     * Indexes the rows that have been stored before the triggers existed.
+     */
+    static void rebuild(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + PHOTO_INDEX_NAME);
+        db.execSQL("DELETE FROM " + COMMENT_INDEX_NAME);
+        db.execSQL("INSERT INTO " + PHOTO_INDEX_NAME + "(docid, " + PhotoTable.COLUMN_DESCRIPTION + ") SELECT "
+                + PhotoTable.COLUMN_PHOTO_ID + ", " + PhotoTable.COLUMN_DESCRIPTION + " FROM " + PhotoTable.TABLE_NAME);
+        db.execSQL("INSERT INTO " + COMMENT_INDEX_NAME + "(docid, " + CommentTable.COLUMN_MESSAGE + ") SELECT "
+                + CommentTable.COLUMN_COMMENT_ID + ", " + CommentTable.COLUMN_MESSAGE + " FROM " + CommentTable.TABLE_NAME);
+    }
+
+    PhotoSearchTable(DbConnection dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    protected SQLiteDatabase database;
+    private DbConnection dbHelper;
+
+    public void openDatabase() {
+        database = dbHelper.openDatabase();
+    }
+
+    public void closeDatabase() {
+        if (database != null) {
+            if (dbHelper.closeDatabase())
+                database = null;
+        }
+    }
+
+    /**
+     * Finds the cached photos whose description or comments contain every word of {@code query}.
+     * A word also matches longer words starting with it.
+     * @return matching photos, newest first
+     */
+    public List<Photo> searchPhotos(String query) {
+        String matchExpression = toMatchExpression(query);
+        if (matchExpression == null)
+            return new ArrayList<>();
+        Cursor cursor = database.rawQuery(QUERY_MATCHING_PHOTOS, new String[]{matchExpression, matchExpression});
+        try {
+            return PhotoTable.readPhotos(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Turns free text into an fts prefix query, so characters of the query syntax in user input are never interpreted.
+     * @return {@code null}, if {@code query} does not contain any word
+     */
+    static String toMatchExpression(String query) {
+        if (query == null)
+            return null;
+        StringBuilder builder = new StringBuilder();
+        for (String term : query.split("[^\\p{L}\\p{N}]+")) {
+            if (term.isEmpty())
+                continue;
+            if (builder.length() > 0)
+                builder.append(' ');
+            // quoted, so words like OR or NOT are not read as operators
+            builder.append('"').append(term).append("*\"");
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+}
@@ -32,7 +32,6 @@ import android.content.ServiceConnection;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -330,8 +329,7 @@ public abstract class PhotoStreamActivity extends AppCompatActivity implements S
         @Override
         protected void onCancelled(Bitmap bitmap) {
             super.onCancelled(bitmap);
-            if (bitmap != null)
-                bitmap.recycle();
+            BitmapPool.getInstance().put(bitmap);
             if (messageListener != null)
                 messageListener.onTaskFinished(this, null);
         }
@@ -343,8 +341,7 @@ public abstract class PhotoStreamActivity extends AppCompatActivity implements S
                 if (messageListener != null)
                     messageListener.onTaskFinished(this, bitmap);
             else {
-                if (bitmap != null)
-                    bitmap.recycle();
+                BitmapPool.getInstance().put(bitmap);
                 if (messageListener != null)
                     messageListener.onTaskFinished(this, null);
             }
@@ -352,8 +349,14 @@ public abstract class PhotoStreamActivity extends AppCompatActivity implements S
 
         private Bitmap internalDecodeBitmap() throws IOException {
             Bitmap bm = null;
+            BitmapPool bitmapPool = BitmapPool.getInstance();
             BitmapFactory.Options options = lessResolution(decoderStrategy.decode(data), 400, 350);
-            bm = BitmapFactory.decodeStream(decoderStrategy.decode(data), null, options);
+            bm = bitmapPool.decodeStream(new BitmapPool.StreamProvider() {
+                @Override
+                public InputStream openStream() throws IOException {
+                    return decoderStrategy.decode(data);
+                }
+            }, options);
             ExifInterface exif = new ExifInterface();
             try {
                 exif.readExif(decoderStrategy.decode(data));
@@ -364,22 +367,22 @@ public abstract class PhotoStreamActivity extends AppCompatActivity implements S
             if (orientation == ExifInterface.ORIENTATION_ROTATE_90) rotationAngle = 90;
             else if (orientation == ExifInterface.ORIENTATION_ROTATE_180) rotationAngle = 180;
             else if (orientation == ExifInterface.ORIENTATION_ROTATE_270) rotationAngle = 270;
-            if (rotationAngle != 0) {
-                Matrix matrix = new Matrix();
-                matrix.postRotate(rotationAngle);
-                Bitmap bmCopy = Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), matrix, true);
-                bm.recycle();
-                bm = bmCopy;
-            }
+            if (rotationAngle != 0 && bm != null)
+                bm = bitmapPool.rotate(bm, rotationAngle);
 
             return bm;
         }
 
-        private static BitmapFactory.Options lessResolution (InputStream is, int reqWidth, int reqHeight) {
+        private static BitmapFactory.Options lessResolution (InputStream is, int reqWidth, int reqHeight) throws IOException {
             BitmapFactory.Options options = new BitmapFactory.Options();
             // First decode with inJustDecodeBounds=true to check dimensions
             options.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(is, null, options);
+            try {
+                BitmapFactory.decodeStream(is, null, options);
+            } finally {
+                if (is != null)
+                    is.close();
+            }
             // Calculate inSampleSize
             options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
             // Decode bitmap with inSampleSize set
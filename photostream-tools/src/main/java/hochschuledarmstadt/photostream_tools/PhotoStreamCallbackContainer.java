@@ -222,6 +222,10 @@ class PhotoStreamCallbackContainer {
         removeListener(onPhotosReceivedListeners, onPhotosReceivedListener);
     }
 
+    public boolean hasOnPhotosReceivedListeners() {
+        return !onPhotosReceivedListeners.isEmpty();
+    }
+
     public void addOnSearchPhotosResultListener(OnSearchedPhotosReceivedListener onSearchedPhotosReceivedListener) {
         addListener(onSearchPhotosListeners, onSearchedPhotosReceivedListener);
     }
@@ -230,6 +234,10 @@ class PhotoStreamCallbackContainer {
         removeListener(onSearchPhotosListeners, onSearchedPhotosReceivedListener);
     }
 
+    public boolean hasOnSearchPhotosResultListeners() {
+        return !onSearchPhotosListeners.isEmpty();
+    }
+
     public void notifyOnNoNewPhotosAvailable() {
         handler.post(new Runnable() {
             @Override
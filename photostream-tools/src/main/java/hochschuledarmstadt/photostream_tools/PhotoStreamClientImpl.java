@@ -30,20 +30,28 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Base64;
 
-import com.google.gson.Gson;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import hochschuledarmstadt.photostream_tools.callback.OnCommentCountChangedListener;
 import hochschuledarmstadt.photostream_tools.callback.OnCommentDeletedListener;
@@ -73,26 +81,46 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
     private final Context context;
     private final CommentTable commentTable;
     private final PhotoTable photoTable;
+    private final PhotoSearchTable photoSearchTable;
     private final ImageCacherFactory imageCacherFactory;
     private final HttpImageLoaderFactory imageLoaderFactory;
+    private final RequestDispatcher requestDispatcher;
+    private final DatabaseExecutor databaseExecutor;
+    private final SingleFlight singleFlight = new SingleFlight();
+    // requests of one type wait for their ETag lookups in this order, so they are started in the order they were made
+    private final Map<RequestType, ArrayDeque<EtagRequest>> etagRequests = new EnumMap<>(RequestType.class);
+    private boolean destroyed = false;
     private String lastSearchQuery;
+    // the latest search, and the latest search whose result from the server has already been delivered
+    private int searchGeneration = 0;
+    private int answeredSearchGeneration = 0;
     private BroadcastReceiver internetAvailableBroadcastReceiver;
     private final UrlBuilder urlBuilder;
     private WebSocketClient webSocketClient;
     private PhotoStreamCallbackContainer callbackContainer = new PhotoStreamCallbackContainer();
     private Map<String, Integer> lastRequestedPageMap = new HashMap<>();
+    // photo ids whose stored comments have been synced while the socket was connected, every comment event since
+    // then has been applied to them, so they can be served from the database without asking the server
+    private final Set<Integer> liveCommentThreads = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger socketSession = new AtomicInteger();
+    // photo ids whose comments are being loaded from the server, mapped to whether a comment event arrived meanwhile
+    private final Map<Integer, Boolean> commentLoadsInFlight = Collections.synchronizedMap(new HashMap<Integer, Boolean>());
+    private volatile boolean socketConnected = false;
 
     private Map<String, Boolean> shouldReloadFirstPageOfPhotosFromCache = new HashMap<>();
 
-    public PhotoStreamClientImpl(Context context, UrlBuilder urlBuilder, HttpImageLoaderFactory imageLoaderFactory, ImageCacherFactory imageCacherFactory, DbConnection dbConnection, WebSocketClient webSocketClient, HttpExecutorFactory httpExecutorFactory){
+    public PhotoStreamClientImpl(Context context, UrlBuilder urlBuilder, HttpImageLoaderFactory imageLoaderFactory, ImageCacherFactory imageCacherFactory, DbConnection dbConnection, WebSocketClient webSocketClient, HttpExecutorFactory httpExecutorFactory, RequestDispatcher requestDispatcher){
         this.context = context;
         this.urlBuilder = urlBuilder;
         this.webSocketClient = webSocketClient;
         this.imageLoaderFactory = imageLoaderFactory;
         this.imageCacherFactory = imageCacherFactory;
         this.httpExecutorFactory = httpExecutorFactory;
+        this.requestDispatcher = requestDispatcher;
         this.commentTable = new CommentTable(dbConnection);
         this.photoTable = new PhotoTable(dbConnection);
+        this.photoSearchTable = new PhotoSearchTable(dbConnection);
+        this.databaseExecutor = dbConnection.getExecutor();
     }
 
     public void addOnPhotoUploadListener(OnPhotoUploadListener onPhotoUploadListener) {
@@ -187,6 +215,11 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
     public void removeOnPhotosReceivedListener(OnPhotosReceivedListener onPhotosReceivedListener){
         callbackContainer.removeOnPhotosReceivedListener(onPhotosReceivedListener);
+        // nobody is left to show the images of the pending pages
+        if (!callbackContainer.hasOnPhotosReceivedListeners()) {
+            imageLoaderFactory.cancel(RequestType.LOAD_PHOTOS);
+            imageLoaderFactory.cancel(RequestType.LOAD_FAVORITE_PHOTOS);
+        }
     }
 
     public void addOnSearchPhotosResultListener(OnSearchedPhotosReceivedListener onSearchedPhotosReceivedListener){
@@ -195,6 +228,8 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
     public void removeOnSearchPhotosResultListener(OnSearchedPhotosReceivedListener onSearchedPhotosReceivedListener){
         callbackContainer.removeOnSearchPhotosResultListener(onSearchedPhotosReceivedListener);
+        if (!callbackContainer.hasOnSearchPhotosResultListeners())
+            imageLoaderFactory.cancel(RequestType.SEARCH_PHOTOS);
     }
 
     void bootstrap(){
@@ -232,23 +267,26 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
     }
 
     void destroy() {
+        destroyed = true;
+        etagRequests.clear();
         callbackContainer.clear();
+        imageLoaderFactory.cancelAll();
         unregisterInternetAvailableBroadcastReceiver();
         internetAvailableBroadcastReceiver = null;
         if (webSocketClient != null) {
             webSocketClient.setMessageListener(null);
             webSocketClient.destroy();
         }
-
+        databaseExecutor.close();
     }
 
     public void loadFavoritePhotos() {
         String url = urlBuilder.getLoadFavoritePhotosApiUrl();
-        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(url);
         final RequestType requestType = RequestType.LOAD_FAVORITE_PHOTOS;
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
 
-        final HttpImageLoader imageLoader = imageLoaderFactory.create();
         final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.VISIBLE, requestType);
         LoadPhotosAsyncTask task = new LoadPhotosAsyncTask(executor, imageLoader, imageCacher, new LoadPhotosAsyncTask.GetPhotosCallback() {
 
             @Override
@@ -264,7 +302,7 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             }
 
             @Override
-            public void onNewETag(String eTag, int page, String jsonStringPhotoQueryResult) {
+            public void onNewETag(String eTag, int page, PhotoQueryResult photoQueryResult) {
 
             }
 
@@ -274,7 +312,7 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             }
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
 
     }
 
@@ -283,81 +321,91 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
         int lastRequestedPage = lastRequestedPageMap.containsKey(instanceId) ? lastRequestedPageMap.get(instanceId) : 1;
 
         String url = urlBuilder.getLoadPhotosApiUrl(lastRequestedPage <= 1);
-        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(url);
-
-        int page = 1;
-        photoTable.openDatabase();
-        int photoPageSize = urlBuilder.getPhotoPageSize();
-        String eTag = photoTable.loadEtagFor(page, photoPageSize);
-        photoTable.closeDatabase();
-
-        if (eTag != null)
-            executor.addHeaderField(HEADER_IF_MODIFIED_SINCE, eTag);
+        final boolean reloadFromCache = !shouldReloadFirstPageOfPhotosFromCache.containsKey(instanceId)
+                || shouldReloadFirstPageOfPhotosFromCache.get(instanceId).equals(Boolean.TRUE);
+        // instances that decide alike about a not modified first page can share the request
+        final String flightKey = RequestType.LOAD_PHOTOS + " " + url + " " + reloadFromCache;
+        boolean started = singleFlight.begin(flightKey, new Runnable() {
+            @Override
+            public void run() {
+                onFirstPageLoaded(instanceId);
+            }
+        });
+        if (!started)
+            return;
 
         final RequestType requestType = RequestType.LOAD_PHOTOS;
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
+
+        final int page = 1;
+        final int photoPageSize = urlBuilder.getPhotoPageSize();
 
-        final HttpImageLoader imageLoader = imageLoaderFactory.create();
         final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.VISIBLE, requestType);
 
         LoadPhotosAsyncTask task = new LoadPhotosAsyncTask(executor, imageLoader, imageCacher, new LoadPhotosAsyncTask.GetPhotosCallback() {
             @Override
             public void onPhotosResult(PhotoQueryResult queryResult) {
-                setShouldReloadFirstPageOfPhotosFromCache(instanceId, Boolean.FALSE);
-                resetLastRequestedPage(instanceId);
+                onFirstPageLoaded(instanceId);
                 removeOpenRequest(requestType);
                 callbackContainer.notifyOnPhotos(queryResult);
+                singleFlight.complete(flightKey);
             }
 
             @Override
             public void onPhotosError(HttpError httpResult) {
                 removeOpenRequest(requestType);
                 callbackContainer.notifyOnPhotosFailed(httpResult);
+                singleFlight.abandon(flightKey);
             }
 
             @Override
-            public void onNewETag(String eTag, int page, String jsonStringPhotoQueryResult) {
-                photoTable.openDatabase();
-                int photoPageSize = urlBuilder.getPhotoPageSize();
-                photoTable.insertOrReplacePhotos(jsonStringPhotoQueryResult, page, photoPageSize, eTag);
-                photoTable.closeDatabase();
+            public void onNewETag(String eTag, int page, PhotoQueryResult photoQueryResult) {
+                storePhotos(photoQueryResult, page, photoPageSize, eTag);
             }
 
             @Override
-            public PhotoQueryResult onNoNewPhotosAvailable(int page) {
-                removeOpenRequest(requestType);
-                if (!shouldReloadFirstPageOfPhotosFromCache.containsKey(instanceId) || shouldReloadFirstPageOfPhotosFromCache.get(instanceId).equals(Boolean.TRUE)) {
-                    photoTable.openDatabase();
-                    int photoPageSize = urlBuilder.getPhotoPageSize();
-                    PhotoQueryResult photoQueryResult = photoTable.getCachedPhotoQueryResult(page, photoPageSize);
-                    photoTable.closeDatabase();
-                    return photoQueryResult;
-                }else{
-                    callbackContainer.notifyOnNoNewPhotosAvailable();
-                    return null;
+            public PhotoQueryResult onNoNewPhotosAvailable(int page) throws IOException {
+                PhotoQueryResult cachedResult = reloadFromCache ? loadCachedPhotos(page, photoPageSize) : null;
+                if (cachedResult == null) {
+                    // onPhotosResult is not called for this request, it ends here
+                    removeOpenRequest(requestType);
+                    singleFlight.abandon(flightKey);
+                    if (!reloadFromCache)
+                        callbackContainer.notifyOnNoNewPhotosAvailable();
                 }
+                return cachedResult;
             }
 
         });
+        singleFlight.endWith(flightKey, task);
         addOpenRequest(requestType);
-        task.execute();
+        executeWithEtag(task, requestType, executor, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return loadPhotosEtag(page, photoPageSize);
+            }
+        });
+    }
+
+    private void onFirstPageLoaded(String instanceId) {
+        setShouldReloadFirstPageOfPhotosFromCache(instanceId, Boolean.FALSE);
+        resetLastRequestedPage(instanceId);
     }
 
     public void loadMorePhotos(final String instanceId){
         String url = urlBuilder.getLoadMorePhotosApiUrl();
-        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(url);
         final RequestType requestType = RequestType.LOAD_PHOTOS;
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
+        // the server advances its paging with every request, a repeated request would skip a page
+        executor.setIdempotent(false);
 
         int lastRequestedPage = lastRequestedPageMap.containsKey(instanceId) ? lastRequestedPageMap.get(instanceId) : 1;
-        photoTable.openDatabase();
-        int nextPage = lastRequestedPage + 1;
-        String eTag = photoTable.loadEtagFor(nextPage, urlBuilder.getPhotoPageSize());
-        photoTable.closeDatabase();
+        final int nextPage = lastRequestedPage + 1;
+        final int photoPageSize = urlBuilder.getPhotoPageSize();
 
-        if (eTag != null)
-            executor.addHeaderField(HEADER_IF_MODIFIED_SINCE, eTag);
-
-        final HttpImageLoader imageLoader = imageLoaderFactory.create();
         final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.PREFETCH, requestType);
 
         LoadMorePhotosAsyncTask task = new LoadMorePhotosAsyncTask(executor, imageLoader, imageCacher, new LoadPhotosAsyncTask.GetPhotosCallback() {
             @Override
@@ -374,26 +422,187 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             }
 
             @Override
-            public void onNewETag(String eTag, int page, String jsonStringPhotoQueryResult) {
-                photoTable.openDatabase();
-                int photoPageSize = urlBuilder.getPhotoPageSize();
-                photoTable.insertOrReplacePhotos(jsonStringPhotoQueryResult, page, photoPageSize, eTag);
-                photoTable.closeDatabase();
+            public void onNewETag(String eTag, int page, PhotoQueryResult photoQueryResult) {
+                storePhotos(photoQueryResult, page, photoPageSize, eTag);
             }
 
             @Override
-            public PhotoQueryResult onNoNewPhotosAvailable(int page) {
+            public PhotoQueryResult onNoNewPhotosAvailable(int page) throws IOException {
+                return loadCachedPhotos(page, photoPageSize);
+            }
+
+        });
+        addOpenRequest(requestType);
+        executeWithEtag(task, requestType, executor, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return loadPhotosEtag(nextPage, photoPageSize);
+            }
+        });
+
+    }
+
+    /**
+     * Looks up the ETag on the database executor and starts {@code task} on the main thread once it is known.
+     * Tasks of the same request type are started in the order of their calls, even if the lookups finish in another order.
+     */
+    private void executeWithEtag(AsyncTask<Void, ?, ?> task, final RequestType requestType, HttpGetExecutor executor, Callable<String> eTagQuery) {
+        if (destroyed)
+            return;
+        ArrayDeque<EtagRequest> queue = etagRequests.get(requestType);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            etagRequests.put(requestType, queue);
+        }
+        final EtagRequest etagRequest = new EtagRequest(task, executor);
+        queue.add(etagRequest);
+        databaseExecutor.read(eTagQuery, new DatabaseExecutor.Callback<String>() {
+            @Override
+            public void onResult(String eTag) {
+                etagRequest.eTag = eTag;
+                etagRequest.ready = true;
+                startReadyEtagRequests(requestType);
+            }
+        });
+    }
+
+    private void startReadyEtagRequests(RequestType requestType) {
+        ArrayDeque<EtagRequest> queue = etagRequests.get(requestType);
+        // the client has been destroyed while the lookup was running
+        if (destroyed || queue == null)
+            return;
+        while (!queue.isEmpty() && queue.peek().ready) {
+            EtagRequest etagRequest = queue.poll();
+            if (etagRequest.eTag != null)
+                etagRequest.executor.addHeaderField(HEADER_IF_MODIFIED_SINCE, etagRequest.eTag);
+            etagRequest.task.executeOnExecutor(requestDispatcher.executorFor(requestType));
+        }
+    }
+
+    private static class EtagRequest {
+        private final AsyncTask<Void, ?, ?> task;
+        private final HttpGetExecutor executor;
+        private String eTag;
+        private boolean ready = false;
+
+        EtagRequest(AsyncTask<Void, ?, ?> task, HttpGetExecutor executor) {
+            this.task = task;
+            this.executor = executor;
+        }
+    }
+
+    private String loadPhotosEtag(int page, int photoPageSize) {
+        photoTable.openDatabase();
+        String eTag = photoTable.loadEtagFor(page, photoPageSize);
+        photoTable.closeDatabase();
+        return eTag;
+    }
+
+    private PhotoQueryResult loadCachedPhotos(final int page, final int photoPageSize) throws IOException {
+        return databaseExecutor.readAndWait(new Callable<PhotoQueryResult>() {
+            @Override
+            public PhotoQueryResult call() throws Exception {
                 photoTable.openDatabase();
-                int photoPageSize = urlBuilder.getPhotoPageSize();
                 PhotoQueryResult photoQueryResult = photoTable.getCachedPhotoQueryResult(page, photoPageSize);
                 photoTable.closeDatabase();
                 return photoQueryResult;
             }
+        });
+    }
 
+    /**
+     * @param photoPageSize the page size of the request, a first page started since may have chosen another one
+     */
+    private void storePhotos(final PhotoQueryResult photoQueryResult, final int page, final int photoPageSize, final String eTag) {
+        databaseExecutor.writeTransaction(new Runnable() {
+            @Override
+            public void run() {
+                photoTable.openDatabase();
+                photoTable.insertOrReplacePhotos(photoQueryResult, page, photoPageSize, eTag);
+                photoTable.closeDatabase();
+            }
         });
-        addOpenRequest(requestType);
-        task.execute();
+    }
 
+    private void updateCachedFavorite(final int photoId, final boolean favorite) {
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                photoTable.openDatabase();
+                photoTable.updateFavorite(photoId, favorite);
+                photoTable.closeDatabase();
+            }
+        });
+    }
+
+    private void updateCachedCommentCount(final int photoId, final int commentCount) {
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                photoTable.openDatabase();
+                photoTable.updateCommentCount(photoId, commentCount);
+                photoTable.closeDatabase();
+            }
+        });
+    }
+
+    private void deleteCachedPhoto(final int photoId) {
+        liveCommentThreads.remove(photoId);
+        databaseExecutor.writeTransaction(new Runnable() {
+            @Override
+            public void run() {
+                photoTable.openDatabase();
+                photoTable.deletePhoto(photoId);
+                photoTable.closeDatabase();
+                commentTable.openDatabase();
+                commentTable.deleteComments(photoId);
+                commentTable.closeDatabase();
+            }
+        });
+    }
+
+    private void insertCachedComment(final Comment comment) {
+        onCommentEvent(comment.getPhotoId());
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                commentTable.openDatabase();
+                commentTable.insertComment(comment);
+                commentTable.closeDatabase();
+            }
+        });
+    }
+
+    private void deleteCachedComment(final int commentId) {
+        // the photo of the comment is unknown here, so every load in flight may have missed the delete
+        onCommentEvent(null);
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                commentTable.openDatabase();
+                commentTable.deleteComment(commentId);
+                commentTable.closeDatabase();
+            }
+        });
+    }
+
+    private void onCommentEvent(Integer photoId) {
+        synchronized (commentLoadsInFlight) {
+            for (Map.Entry<Integer, Boolean> entry : commentLoadsInFlight.entrySet()) {
+                if (photoId == null || photoId.equals(entry.getKey()))
+                    entry.setValue(Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Marks the stored thread as live, unless a comment event of the photo arrived while its comments were loaded.
+     * The response may not contain the comment of that event, so the thread is revalidated with the next load instead.
+     */
+    private void markCommentThreadLive(int photoId, int session) {
+        Boolean missedEvent = commentLoadsInFlight.remove(photoId);
+        if (socketConnected && socketSession.get() == session && !Boolean.TRUE.equals(missedEvent))
+            liveCommentThreads.add(photoId);
     }
 
     private void resetLastRequestedPage(String instanceId) {
@@ -416,19 +625,21 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
     public void likePhoto(int photoId) {
         String url = urlBuilder.getFavoritePhotoApiUrl(photoId);
-        HttpPutExecutor executor = httpExecutorFactory.createHttpPutExecutor(url);
         final RequestType requestType = RequestType.FAVORITE_PHOTO;
+        HttpPutExecutor executor = httpExecutorFactory.createHttpPutExecutor(requestType, url);
         LikeOrDislikePhotoAsyncTask task = new LikePhotoAsyncTask(executor, photoId, new LikeOrDislikePhotoAsyncTask.OnVotePhotoResultListener() {
 
             @Override
             public void onPhotoLiked(int photoId) {
                 removeOpenRequest(requestType);
+                updateCachedFavorite(photoId, true);
                 callbackContainer.notifyOnPhotoLiked(photoId);
             }
 
             @Override
             public void onPhotoDisliked(int photoId) {
                 removeOpenRequest(requestType);
+                updateCachedFavorite(photoId, false);
                 callbackContainer.notifyOnPhotoDisliked(photoId);
             }
 
@@ -440,72 +651,129 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
     }
 
-    public void loadComments(int photoId){
+    public void loadComments(final int photoId){
+        if (socketConnected && liveCommentThreads.contains(photoId))
+            loadCommentsFromDatabase(photoId);
+        else
+            loadCommentsFromServer(photoId);
+    }
+
+    private void loadCommentsFromDatabase(final int photoId) {
+        final RequestType requestType = RequestType.LOAD_COMMENTS;
+        addOpenRequest(requestType);
+        databaseExecutor.read(new Callable<List<Comment>>() {
+            @Override
+            public List<Comment> call() throws Exception {
+                commentTable.openDatabase();
+                List<Comment> comments = commentTable.loadComments(photoId);
+                commentTable.closeDatabase();
+                return comments;
+            }
+        }, new DatabaseExecutor.Callback<List<Comment>>() {
+            @Override
+            public void onResult(List<Comment> comments) {
+                removeOpenRequest(requestType);
+                if (comments != null) {
+                    callbackContainer.notifyOnComments(photoId, comments);
+                } else {
+                    liveCommentThreads.remove(photoId);
+                    loadCommentsFromServer(photoId);
+                }
+            }
+        });
+    }
+
+    private void loadCommentsFromServer(final int photoId) {
+        final int session = socketSession.get();
         String url = urlBuilder.getLoadCommentsApiUrl(photoId);
-        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(url);
+        final String flightKey = RequestType.LOAD_COMMENTS + " " + url;
+        if (!singleFlight.begin(flightKey, null))
+            return;
+        commentLoadsInFlight.put(photoId, Boolean.FALSE);
         final RequestType requestType = RequestType.LOAD_COMMENTS;
-        commentTable.openDatabase();
-        String eTag = commentTable.loadEtag(photoId);
-        commentTable.closeDatabase();
-        if (eTag != null)
-            executor.addHeaderField(HEADER_IF_MODIFIED_SINCE, eTag);
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
         LoadCommentsAsyncTask task = new LoadCommentsAsyncTask(executor, photoId, new LoadCommentsAsyncTask.OnCommentsResultListener() {
 
             @Override
             public void onGetComments(int photoId, List<Comment> comments) {
                 removeOpenRequest(requestType);
                 callbackContainer.notifyOnComments(photoId, comments);
+                singleFlight.complete(flightKey);
             }
 
             @Override
-            public void onNewEtag(int photoId, CommentsQueryResult result, String eTag) {
-                commentTable.openDatabase();
-                boolean isNew = commentTable.areNewComments(photoId, eTag);
-                if (isNew){
-                    Gson gson = new Gson();
-                    String comments = gson.toJson(result);
-                    commentTable.insertOrReplaceComments(photoId, comments, eTag);
-                }
-                commentTable.closeDatabase();
+            public void onNewEtag(final int photoId, final CommentsQueryResult result, final String eTag) {
+                databaseExecutor.writeTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        commentTable.openDatabase();
+                        boolean isNew = commentTable.areNewComments(photoId, eTag);
+                        if (isNew)
+                            commentTable.insertOrReplaceComments(photoId, result.getComments(), eTag);
+                        commentTable.closeDatabase();
+                        markCommentThreadLive(photoId, session);
+                    }
+                });
             }
 
             @Override
-            public CommentsQueryResult onCommentsNotModified(int photoId) {
-                commentTable.openDatabase();
-                Gson gson = new Gson();
-                String comments = commentTable.loadComments(photoId);
-                commentTable.closeDatabase();
-                return gson.fromJson(comments, CommentsQueryResult.class);
+            public CommentsQueryResult onCommentsNotModified(final int photoId) throws IOException {
+                List<Comment> comments = databaseExecutor.readAndWait(new Callable<List<Comment>>() {
+                    @Override
+                    public List<Comment> call() throws Exception {
+                        commentTable.openDatabase();
+                        List<Comment> comments = commentTable.loadComments(photoId);
+                        commentTable.closeDatabase();
+                        return comments;
+                    }
+                });
+                if (comments == null)
+                    throw new IOException("comments of photo " + photoId + " are not cached anymore");
+                markCommentThreadLive(photoId, session);
+                return new CommentsQueryResult(photoId, comments);
             }
 
             @Override
             public void onGetCommentsFailed(int photoId, HttpError httpResult) {
+                commentLoadsInFlight.remove(photoId);
                 removeOpenRequest(requestType);
                 callbackContainer.notifyOnCommentsFailed(photoId, httpResult);
+                singleFlight.abandon(flightKey);
             }
 
         });
+        singleFlight.endWith(flightKey, task);
         addOpenRequest(requestType);
-        task.execute();
+        executeWithEtag(task, requestType, executor, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                commentTable.openDatabase();
+                String eTag = commentTable.loadEtag(photoId);
+                commentTable.closeDatabase();
+                return eTag;
+            }
+        });
     }
 
     public void resetLikeForPhoto(int photoId) {
         String url = urlBuilder.getUnfavoritePhotoApiUrl(photoId);
-        HttpPutExecutor executor = httpExecutorFactory.createHttpPutExecutor(url);
         final RequestType requestType = RequestType.FAVORITE_PHOTO;
+        HttpPutExecutor executor = httpExecutorFactory.createHttpPutExecutor(requestType, url);
         LikeOrDislikePhotoAsyncTask task = new DislikePhotoAsyncTask(executor, photoId, new LikeOrDislikePhotoAsyncTask.OnVotePhotoResultListener() {
             @Override
             public void onPhotoLiked(int photoId) {
                 removeOpenRequest(requestType);
+                updateCachedFavorite(photoId, true);
                 callbackContainer.notifyOnPhotoLiked(photoId);
             }
 
             @Override
             public void onPhotoDisliked(int photoId) {
                 removeOpenRequest(requestType);
+                updateCachedFavorite(photoId, false);
                 callbackContainer.notifyOnPhotoDisliked(photoId);
             }
 
@@ -516,17 +784,18 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             }
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
     }
 
     public void deleteComment(int commentId) {
         String url = urlBuilder.getDeleteCommentApiUrl(commentId);
-        HttpDeleteExecutor executor = httpExecutorFactory.createHttpDeleteExecutor(url);
         final RequestType requestType = RequestType.DELETE_COMMENT;
+        HttpDeleteExecutor executor = httpExecutorFactory.createHttpDeleteExecutor(requestType, url);
         DeleteCommentAsyncTask task = new DeleteCommentAsyncTask(executor, commentId, new DeleteCommentAsyncTask.OnDeleteCommentResultListener() {
             @Override
             public void onCommentDeleted(int commentId) {
                 removeOpenRequest(requestType);
+                deleteCachedComment(commentId);
                 callbackContainer.notifyOnCommentDeleted(commentId);
             }
 
@@ -538,22 +807,21 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
     }
 
     public void deletePhoto(int photoId){
         String url = urlBuilder.getDeletePhotoApiUrl(photoId);
-        HttpDeleteExecutor executor = httpExecutorFactory.createHttpDeleteExecutor(url);
         final RequestType requestType = RequestType.DELETE_PHOTO;
+        HttpDeleteExecutor executor = httpExecutorFactory.createHttpDeleteExecutor(requestType, url);
         DeletePhotoAsyncTask task = new DeletePhotoAsyncTask(executor, photoId, new DeletePhotoAsyncTask.OnDeletePhotoResultListener() {
 
             @Override
             public void onPhotoDeleted(int photoId) {
                 final ImageCacher imageCacher = imageCacherFactory.create();
                 removeOpenRequest(requestType);
-                File imageFile = imageCacher.getImageFilePathForPhotoId(photoId);
-                if (imageFile != null && imageFile.exists())
-                    imageFile.delete();
+                imageCacher.deleteCachedImage(photoId);
+                deleteCachedPhoto(photoId);
                 callbackContainer.notifyOnPhotoDeleted(photoId);
             }
 
@@ -565,17 +833,19 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
     }
 
     public void uploadComment(int photoId, String comment) {
         String url = urlBuilder.getUploadCommentApiUrl(photoId);
-        HttpPostExecutor httpPostExecutor = httpExecutorFactory.createHttpPostExecutor(url);
         final RequestType requestType = RequestType.UPLOAD_COMMENT;
+        HttpPostExecutor httpPostExecutor = httpExecutorFactory.createHttpPostExecutor(requestType, url);
+        httpPostExecutor.setIdempotencyKey(UUID.randomUUID().toString());
         StoreCommentAsyncTask task = new StoreCommentAsyncTask(httpPostExecutor, photoId, comment, new StoreCommentAsyncTask.OnCommentSentListener() {
             @Override
             public void onCommentSent(Comment comment) {
                 removeOpenRequest(requestType);
+                insertCachedComment(comment);
                 callbackContainer.notifyOnNewComment(comment);
             }
 
@@ -586,16 +856,17 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             }
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
     }
 
     public void searchMorePhotos(){
         String url = urlBuilder.getSearchMorePhotosApiUrl();
-        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(url);
         final RequestType requestType = RequestType.SEARCH_PHOTOS;
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
+        executor.setIdempotent(false);
 
-        final HttpImageLoader imageLoader = imageLoaderFactory.create();
         final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.PREFETCH, requestType);
 
         SearchMorePhotosAsyncTask task = new SearchMorePhotosAsyncTask(executor, imageLoader, imageCacher, new SearchPhotosAsyncTask.OnSearchPhotosResultCallback() {
             @Override
@@ -611,21 +882,38 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             }
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
     }
 
     public void searchPhotos(final String queryPhotoDescription) {
+        final int generation = ++searchGeneration;
+        if (!isOnline()) {
+            searchCachedPhotosOnly(queryPhotoDescription, generation);
+            return;
+        }
+
+        // the cached matches are shown until the result of the server replaces them
+        searchCachedPhotos(queryPhotoDescription, new DatabaseExecutor.Callback<List<Photo>>() {
+            @Override
+            public void onResult(List<Photo> photos) {
+                boolean stillPending = generation == searchGeneration && answeredSearchGeneration < generation;
+                if (stillPending && photos != null && !photos.isEmpty())
+                    callbackContainer.notifyOnSearchPhotosResult(new PhotoQueryResult(1, false, photos));
+            }
+        });
+
         String url = urlBuilder.getSearchPhotosApiUrl(queryPhotoDescription);
-        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(url);
         final RequestType requestType = RequestType.SEARCH_PHOTOS;
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
 
-        final HttpImageLoader imageLoader = imageLoaderFactory.create();
         final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.VISIBLE, requestType);
 
         SearchPhotosAsyncTask task = new SearchPhotosAsyncTask(executor, imageLoader, imageCacher, new SearchPhotosAsyncTask.OnSearchPhotosResultCallback() {
             @Override
             public void onSearchPhotosResult(PhotoQueryResult photoQueryResult) {
                 lastSearchQuery = queryPhotoDescription;
+                answeredSearchGeneration = Math.max(answeredSearchGeneration, generation);
                 removeOpenRequest(requestType);
                 callbackContainer.notifyOnSearchPhotosResult(photoQueryResult);
             }
@@ -633,12 +921,50 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
             @Override
             public void onSearchPhotosError(HttpError httpResult) {
                 lastSearchQuery = queryPhotoDescription;
+                answeredSearchGeneration = Math.max(answeredSearchGeneration, generation);
                 removeOpenRequest(requestType);
                 callbackContainer.notifyOnSearchPhotosError(queryPhotoDescription, httpResult);
             }
         });
         addOpenRequest(requestType);
-        task.execute();
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType));
+    }
+
+    private void searchCachedPhotosOnly(final String query, final int generation) {
+        final RequestType requestType = RequestType.SEARCH_PHOTOS;
+        addOpenRequest(requestType);
+        searchCachedPhotos(query, new DatabaseExecutor.Callback<List<Photo>>() {
+            @Override
+            public void onResult(List<Photo> photos) {
+                removeOpenRequest(requestType);
+                if (generation != searchGeneration)
+                    return;
+                lastSearchQuery = query;
+                answeredSearchGeneration = Math.max(answeredSearchGeneration, generation);
+                if (photos == null)
+                    photos = new ArrayList<>();
+                callbackContainer.notifyOnSearchPhotosResult(new PhotoQueryResult(1, false, photos));
+            }
+        });
+    }
+
+    private void searchCachedPhotos(final String query, DatabaseExecutor.Callback<List<Photo>> callback) {
+        databaseExecutor.read(new Callable<List<Photo>>() {
+            @Override
+            public List<Photo> call() throws Exception {
+                photoSearchTable.openDatabase();
+                List<Photo> photos = photoSearchTable.searchPhotos(query);
+                photoSearchTable.closeDatabase();
+                // the image of a cached photo may have been evicted from the image cache
+                List<Photo> displayablePhotos = new ArrayList<>();
+                for (Photo photo : photos) {
+                    String imageFilePath = photo.getImageFilePath();
+                    if (imageFilePath != null && new File(imageFilePath).exists())
+                        displayablePhotos.add(photo);
+                }
+                return displayablePhotos;
+            }
+        }, callback);
     }
 
     public void uploadPhoto(byte[] imageBytes, String description) throws IOException, JSONException {
@@ -651,12 +977,13 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
         }
 
         String url = urlBuilder.getUploadPhotoApiUrl();
-        HttpPostExecutor httpPostExecutor = httpExecutorFactory.createHttpPostExecutor(url);
         final RequestType requestType = RequestType.UPLOAD_PHOTO;
+        HttpPostExecutor httpPostExecutor = httpExecutorFactory.createHttpPostExecutor(requestType, url);
+        httpPostExecutor.setIdempotencyKey(UUID.randomUUID().toString());
         final JSONObject jsonObject = createJsonObject(imageBytes, description);
 
-        final HttpImageLoader imageLoader = imageLoaderFactory.create();
         final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.VISIBLE, requestType);
 
         StorePhotoAsyncTask task = new StorePhotoAsyncTask(httpPostExecutor, imageLoader, imageCacher, new StorePhotoAsyncTask.OnPhotoStoredCallback() {
             @Override
@@ -682,7 +1009,7 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
         });
         addOpenRequest(requestType);
-        task.execute(jsonObject);
+        task.executeOnExecutor(requestDispatcher.executorFor(requestType), jsonObject);
     }
 
     private void addOpenRequest(RequestType requestType) {
@@ -704,26 +1031,88 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
     @Override
     public void onNewComment(Comment comment) {
+        insertCachedComment(comment);
         callbackContainer.notifyOnNewComment(comment);
     }
 
     @Override
     public void onCommentDeleted(int commentId) {
+        deleteCachedComment(commentId);
         callbackContainer.notifyOnCommentDeleted(commentId);
     }
 
     @Override
     public void onPhotoDeleted(int photoId) {
         final ImageCacher imageCacher = imageCacherFactory.create();
-        File imageFile = imageCacher.getImageFilePathForPhotoId(photoId);
-        if (imageFile != null && imageFile.exists())
-            imageFile.delete();
+        imageCacher.deleteCachedImage(photoId);
+        deleteCachedPhoto(photoId);
         callbackContainer.notifyOnPhotoDeleted(photoId);
     }
 
     @Override
     public void onConnect() {
+        // socket.io reconnects on its own without reporting the disconnect, threads synced before may have missed events
+        socketSession.incrementAndGet();
+        liveCommentThreads.clear();
+        socketConnected = true;
+    }
+
+    @Override
+    public void onResyncRequired() {
+        // the missed events can not be replayed, the cached first page is loaded again
+        liveCommentThreads.clear();
+        resyncPhotos();
+    }
+
+    /**
+     * Replaces the cached first page in the page size that is in use. The server starts its paging anew, so every
+     * instance starts at the first page again. The page is delivered if an OnPhotosReceivedListener is registered,
+     * instances that are not visible now get it from the cache with their next {@link #loadPhotos(String)}.
+     */
+    private void resyncPhotos() {
+        String url = urlBuilder.getResyncPhotosApiUrl();
+        final RequestType requestType = RequestType.LOAD_PHOTOS;
+        HttpGetExecutor executor = httpExecutorFactory.createHttpGetExecutor(requestType, url);
 
+        final int page = 1;
+        final int photoPageSize = urlBuilder.getPhotoPageSize();
+
+        final ImageCacher imageCacher = imageCacherFactory.create();
+        final HttpImageLoader imageLoader = imageLoaderFactory.create(imageCacher, ImageFetchScheduler.Priority.PREFETCH, requestType);
+
+        LoadPhotosAsyncTask task = new LoadPhotosAsyncTask(executor, imageLoader, imageCacher, new LoadPhotosAsyncTask.GetPhotosCallback() {
+            @Override
+            public void onPhotosResult(PhotoQueryResult queryResult) {
+                lastRequestedPageMap.clear();
+                for (String instanceId : new ArrayList<>(shouldReloadFirstPageOfPhotosFromCache.keySet()))
+                    setShouldReloadFirstPageOfPhotosFromCache(instanceId, Boolean.TRUE);
+                if (callbackContainer.hasOnPhotosReceivedListeners())
+                    callbackContainer.notifyOnPhotos(queryResult);
+            }
+
+            @Override
+            public void onPhotosError(HttpError httpError) {
+                // nobody has asked for the resync, the next load of the photos tries again
+                Logger.log(TAG, LogLevel.ERROR, "resync failed: " + httpError.getMessage());
+            }
+
+            @Override
+            public void onNewETag(String eTag, int page, PhotoQueryResult photoQueryResult) {
+                storePhotos(photoQueryResult, page, photoPageSize, eTag);
+            }
+
+            @Override
+            public PhotoQueryResult onNoNewPhotosAvailable(int page) {
+                // the cached page is up to date
+                return null;
+            }
+        });
+        executeWithEtag(task, requestType, executor, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return loadPhotosEtag(page, photoPageSize);
+            }
+        });
     }
 
     private void unregisterInternetAvailableBroadcastReceiver() {
@@ -734,11 +1123,16 @@ class PhotoStreamClientImpl implements AndroidSocket.OnMessageListener {
 
     @Override
     public void onDisconnect() {
+        // events may be missed until the socket is connected again, the stored threads have to be revalidated
+        socketConnected = false;
+        socketSession.incrementAndGet();
+        liveCommentThreads.clear();
         webSocketClient.connect();
     }
 
     @Override
     public void onCommentCountChanged(int photoId, int commentCount) {
+        updateCachedCommentCount(photoId, commentCount);
         callbackContainer.notifyOnCommentCountChanged(photoId, commentCount);
     }
 
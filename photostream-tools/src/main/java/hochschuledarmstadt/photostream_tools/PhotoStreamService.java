@@ -39,6 +39,8 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Kommunikationsschnittstelle zu dem PhotoStream Server
  */
@@ -48,6 +50,9 @@ public final class PhotoStreamService extends Service implements PhotoStreamCall
     private static final String PHOTOSTREAM_URL_MANIFEST_KEY = "PHOTOSTREAM_URL";
     private static final String PAGE_SIZE_MANIFEST_KEY = "PAGE_SIZE";
     private static final int DEFAULT_PAGE_SIZE = 5;
+    private static final String MAX_IMAGE_CONNECTIONS_MANIFEST_KEY = "MAX_IMAGE_CONNECTIONS";
+    private static final String IMAGE_CACHE_SIZE_MB_MANIFEST_KEY = "IMAGE_CACHE_SIZE_MB";
+    private static final String IMAGE_REVALIDATE_AFTER_MINUTES_MANIFEST_KEY = "IMAGE_REVALIDATE_AFTER_MINUTES";
     private static final String LAST_USED_PHOTOSTREAM_URL_KEY = "LAST_USED_PHOTOSTREAM_URL";
     private IBinder photoStreamServiceBinder = new PhotoStreamServiceBinder();
     private PhotoStreamClientImpl photoStreamClientImpl;
@@ -82,14 +87,17 @@ public final class PhotoStreamService extends Service implements PhotoStreamCall
         final int photoPageSize = loadPhotoPageSizeFromManifest();
         final String uniqueAndroidId = getUniqueAndroidId();
 
-        UrlBuilder urlBuilder = new UrlBuilder(photoStreamUrl, photoPageSize);
+        NetworkQualityEstimator networkQualityEstimator = new NetworkQualityEstimator();
+        UrlBuilder urlBuilder = new UrlBuilder(photoStreamUrl, photoPageSize, networkQualityEstimator);
         String formatPhotoContentApiUrl = urlBuilder.getFormatPhotoContentApiUrl();
-        HttpImageLoaderFactory imageLoaderFactory = new HttpImageLoaderFactory(formatPhotoContentApiUrl);
-        ImageCacherFactory imageCacherFactory = new ImageCacherFactory(context);
-        WebSocketClient wsClient = new WebSocketClientImpl(photoStreamUrl, uniqueAndroidId, new ImageCacher(getApplicationContext()), new HttpImageLoader(formatPhotoContentApiUrl));
-        HttpExecutorFactory httpFactory = new HttpExecutorFactoryImpl(uniqueAndroidId);
-
-        photoStreamClientImpl = new PhotoStreamClientImpl(context, urlBuilder, imageLoaderFactory, imageCacherFactory, db, wsClient, httpFactory);
+        HttpImageLoaderFactory imageLoaderFactory = new HttpImageLoaderFactory(formatPhotoContentApiUrl, loadMaxImageConnectionsFromManifest(), networkQualityEstimator);
+        ImageCacherFactory imageCacherFactory = new ImageCacherFactory(context, loadImageCacheSizeFromManifest(), loadImageRevalidateAfterFromManifest());
+        imageCacherFactory.prepare();
+        ImageCacher wsImageCacher = imageCacherFactory.create();
+        WebSocketClient wsClient = new WebSocketClientImpl(photoStreamUrl, uniqueAndroidId, wsImageCacher, imageLoaderFactory);
+        HttpExecutorFactory httpFactory = new HttpExecutorFactoryImpl(uniqueAndroidId, networkQualityEstimator);
+
+        photoStreamClientImpl = new PhotoStreamClientImpl(context, urlBuilder, imageLoaderFactory, imageCacherFactory, db, wsClient, httpFactory, new RequestDispatcher());
         photoStreamClientImpl.setOnNoActivitiesRemainingListener(this);
         photoStreamClientImpl.bootstrap();
 
@@ -108,18 +116,21 @@ public final class PhotoStreamService extends Service implements PhotoStreamCall
     }
 
     private int loadPhotoPageSizeFromManifest() {
-        try {
-            Bundle bundle = loadMetaDataFromManifest();
-            int pageSize = bundle.getInt(PAGE_SIZE_MANIFEST_KEY, DEFAULT_PAGE_SIZE);
-            if (pageSize <= 1)
-                pageSize = DEFAULT_PAGE_SIZE;
-            return pageSize;
-        } catch (PackageManager.NameNotFoundException e) {
-            Logger.log(TAG, LogLevel.ERROR, "Failed to load meta-data, NameNotFound: " + e.getMessage());
-        } catch (NullPointerException e) {
-            Logger.log(TAG, LogLevel.ERROR, "Failed to load meta-data, NullPointer: " + e.getMessage());
-        }
-        return DEFAULT_PAGE_SIZE;
+        return loadIntFromManifest(PAGE_SIZE_MANIFEST_KEY, 2, DEFAULT_PAGE_SIZE);
+    }
+
+    private int loadMaxImageConnectionsFromManifest() {
+        return loadIntFromManifest(MAX_IMAGE_CONNECTIONS_MANIFEST_KEY, 1, ImageFetchScheduler.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    private long loadImageCacheSizeFromManifest() {
+        int cacheSizeMb = loadIntFromManifest(IMAGE_CACHE_SIZE_MB_MANIFEST_KEY, 1, 0);
+        return cacheSizeMb > 0 ? cacheSizeMb * 1024L * 1024L : CachedImageIndex.DEFAULT_MAX_SIZE_BYTES;
+    }
+
+    private long loadImageRevalidateAfterFromManifest() {
+        int minutes = loadIntFromManifest(IMAGE_REVALIDATE_AFTER_MINUTES_MANIFEST_KEY, 1, 0);
+        return minutes > 0 ? TimeUnit.MINUTES.toMillis(minutes) : ImageCacher.DEFAULT_REVALIDATE_AFTER_MILLIS;
     }
 
     @NonNull
@@ -132,14 +143,34 @@ public final class PhotoStreamService extends Service implements PhotoStreamCall
     }
 
     private String readUrlFromManifest() {
+        Bundle bundle = readMetaDataFromManifest();
+        return bundle != null ? bundle.getString(PHOTOSTREAM_URL_MANIFEST_KEY) : null;
+    }
+
+    /**
+     * Liest einen ganzzahligen Wert aus den meta-data des Manifests.
+     * @param key Schlüssel des Werts
+     * @param minimum kleinster gültiger Wert
+     * @param fallback Wert, falls der Schlüssel fehlt, der Wert kleiner als {@code minimum} ist
+     *                 oder die meta-data nicht gelesen werden können
+     * @return gelesener Wert oder {@code fallback}
+     */
+    private int loadIntFromManifest(String key, int minimum, int fallback) {
+        Bundle bundle = readMetaDataFromManifest();
+        if (bundle == null)
+            return fallback;
+        int value = bundle.getInt(key, fallback);
+        return value < minimum ? fallback : value;
+    }
+
+    private Bundle readMetaDataFromManifest() {
         try {
             Bundle bundle = loadMetaDataFromManifest();
-            String url = bundle.getString(PHOTOSTREAM_URL_MANIFEST_KEY);
-            return url;
+            if (bundle == null)
+                Logger.log(TAG, LogLevel.ERROR, "Failed to load meta-data, no meta-data in manifest");
+            return bundle;
         } catch (PackageManager.NameNotFoundException e) {
             Logger.log(TAG, LogLevel.ERROR, "Failed to load meta-data, NameNotFound: " + e.getMessage());
-        } catch (NullPointerException e) {
-            Logger.log(TAG, LogLevel.ERROR, "Failed to load meta-data, NullPointer: " + e.getMessage());
         }
         return null;
     }
@@ -25,13 +25,9 @@
 package hochschuledarmstadt.photostream_tools;
 
 
-import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.provider.BaseColumns;
-
-import com.google.gson.Gson;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -42,22 +38,104 @@ import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
 class PhotoTable {
 
     public static final String TABLE_NAME = "photo";
+    public static final String PAGE_TABLE_NAME = "photo_page";
+    public static final String PAGE_ENTRY_TABLE_NAME = "photo_page_entry";
+
+    public static final String COLUMN_PHOTO_ID = "photo_id";
+    public static final String COLUMN_IMAGE_FILE_PATH = "image_file_path";
+    public static final String COLUMN_DESCRIPTION = "description";
+    public static final String COLUMN_FAVORITE = "favorite";
+    public static final String COLUMN_DELETEABLE = "deleteable";
+    public static final String COLUMN_COMMENT_COUNT = "comment_count";
 
     public static final String COLUMN_PAGE = "page";
     public static final String COLUMN_PAGE_SIZE = "page_size";
-    public static final String COLUMN_PHOTOS = "photos";
+    public static final String COLUMN_HAS_NEXT_PAGE = "has_next_page";
     public static final String COLUMN_ETAG = "etag";
+    public static final String COLUMN_POSITION = "position";
 
     public static final String TABLE_CREATE = "CREATE TABLE IF NOT EXISTS "
             + TABLE_NAME + "("
+            + COLUMN_PHOTO_ID + " INTEGER NOT NULL, "
+            + COLUMN_IMAGE_FILE_PATH + " TEXT, "
+            + COLUMN_DESCRIPTION + " TEXT, "
+            + COLUMN_FAVORITE + " INTEGER NOT NULL, "
+            + COLUMN_DELETEABLE + " INTEGER NOT NULL, "
+            + COLUMN_COMMENT_COUNT + " INTEGER NOT NULL, "
+            + String.format("PRIMARY KEY (%s)", COLUMN_PHOTO_ID)
+            + ");";
+
+    public static final String PAGE_TABLE_CREATE = "CREATE TABLE IF NOT EXISTS "
+            + PAGE_TABLE_NAME + "("
             + COLUMN_PAGE + " INTEGER NOT NULL, "
             + COLUMN_PAGE_SIZE + " INTEGER NOT NULL, "
-            + COLUMN_PHOTOS + " TEXT NOT NULL, "
+            + COLUMN_HAS_NEXT_PAGE + " INTEGER NOT NULL, "
             + COLUMN_ETAG + " TEXT NOT NULL, "
             + String.format("PRIMARY KEY (%s)", COLUMN_PAGE)
             + ");";
 
+    public static final String PAGE_ENTRY_TABLE_CREATE = "CREATE TABLE IF NOT EXISTS "
+            + PAGE_ENTRY_TABLE_NAME + "("
+            + COLUMN_PAGE + " INTEGER NOT NULL, "
+            + COLUMN_POSITION + " INTEGER NOT NULL, "
+            + COLUMN_PHOTO_ID + " INTEGER NOT NULL, "
+            + String.format("PRIMARY KEY (%s, %s)", COLUMN_PAGE, COLUMN_POSITION)
+            + ");";
+
+    public static final String PAGE_ENTRY_INDEX_CREATE = "CREATE INDEX IF NOT EXISTS "
+            + PAGE_ENTRY_TABLE_NAME + "_" + COLUMN_PHOTO_ID + "_index ON "
+            + PAGE_ENTRY_TABLE_NAME + "(" + COLUMN_PHOTO_ID + ");";
+
     public static final String TABLE_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
+    public static final String PAGE_TABLE_DROP = "DROP TABLE IF EXISTS " + PAGE_TABLE_NAME;
+    public static final String PAGE_ENTRY_TABLE_DROP = "DROP TABLE IF EXISTS " + PAGE_ENTRY_TABLE_NAME;
+
+    private static final String QUERY_PAGE_PHOTOS = "SELECT p.* FROM " + PAGE_ENTRY_TABLE_NAME + " e"
+            + " INNER JOIN " + TABLE_NAME + " p ON p." + COLUMN_PHOTO_ID + " = e." + COLUMN_PHOTO_ID
+            + " WHERE e." + COLUMN_PAGE + " = ?"
+            + " ORDER BY e." + COLUMN_POSITION;
+
+    private static final String UPSERT_PHOTO = "INSERT OR REPLACE INTO " + TABLE_NAME + "("
+            + COLUMN_PHOTO_ID + ", " + COLUMN_IMAGE_FILE_PATH + ", " + COLUMN_DESCRIPTION + ", "
+            + COLUMN_FAVORITE + ", " + COLUMN_DELETEABLE + ", " + COLUMN_COMMENT_COUNT
+            + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String UPSERT_PAGE = "INSERT OR REPLACE INTO " + PAGE_TABLE_NAME + "("
+            + COLUMN_PAGE + ", " + COLUMN_PAGE_SIZE + ", " + COLUMN_HAS_NEXT_PAGE + ", " + COLUMN_ETAG
+            + ") VALUES (?, ?, ?, ?)";
+
+    private static final String INSERT_PAGE_ENTRY = "INSERT OR REPLACE INTO " + PAGE_ENTRY_TABLE_NAME + "("
+            + COLUMN_PAGE + ", " + COLUMN_POSITION + ", " + COLUMN_PHOTO_ID
+            + ") VALUES (?, ?, ?)";
+
+    private static final String DELETE_PAGE_ENTRIES = "DELETE FROM " + PAGE_ENTRY_TABLE_NAME
+            + " WHERE " + COLUMN_PAGE + " = ?";
+
+    private static final String UPDATE_FAVORITE = "UPDATE " + TABLE_NAME + " SET " + COLUMN_FAVORITE + " = ?"
+            + " WHERE " + COLUMN_PHOTO_ID + " = ?";
+
+    private static final String UPDATE_COMMENT_COUNT = "UPDATE " + TABLE_NAME + " SET " + COLUMN_COMMENT_COUNT + " = ?"
+            + " WHERE " + COLUMN_PHOTO_ID + " = ?";
+
+    private static final String QUERY_PAGE_PHOTO_IDS = "SELECT " + COLUMN_PHOTO_ID + " FROM " + PAGE_ENTRY_TABLE_NAME
+            + " WHERE " + COLUMN_PAGE + " = ?";
+
+    private static final String DELETE_PHOTO_IF_UNREFERENCED = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_PHOTO_ID + " = ? AND NOT EXISTS (SELECT 1 FROM " + PAGE_ENTRY_TABLE_NAME
+            + " WHERE " + COLUMN_PHOTO_ID + " = ?)";
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL(TABLE_CREATE);
+        db.execSQL(PAGE_TABLE_CREATE);
+        db.execSQL(PAGE_ENTRY_TABLE_CREATE);
+        db.execSQL(PAGE_ENTRY_INDEX_CREATE);
+    }
+
+    static void dropTables(SQLiteDatabase db) {
+        db.execSQL(PAGE_ENTRY_TABLE_DROP);
+        db.execSQL(PAGE_TABLE_DROP);
+        db.execSQL(TABLE_DROP);
+    }
 
     PhotoTable(DbConnection dbHelper) {
         this.dbHelper = dbHelper;
@@ -65,6 +143,7 @@ class PhotoTable {
 
     protected SQLiteDatabase database;
     private DbConnection dbHelper;
+    private final CompiledStatements statements = new CompiledStatements();
 
     public void openDatabase() {
         database = dbHelper.openDatabase();
@@ -77,22 +156,83 @@ class PhotoTable {
         }
     }
 
-    public void insertOrReplacePhotos(String jsonStringPhotoQueryResult, int page, int photoPageSize, String eTag) {
-        ContentValues cv = new ContentValues();
-        cv.put(PhotoTable.COLUMN_PAGE, page);
-        cv.put(PhotoTable.COLUMN_ETAG, eTag);
-        cv.put(PhotoTable.COLUMN_PAGE_SIZE, photoPageSize);
-        cv.put(PhotoTable.COLUMN_PHOTOS, jsonStringPhotoQueryResult);
-        try{
-            database.insertOrThrow(TABLE_NAME, null, cv);
-        }catch(SQLException e){
-            database.update(TABLE_NAME, cv, COLUMN_PAGE + " = ?", new String[]{String.valueOf(page)});
+    public void insertOrReplacePhotos(PhotoQueryResult photoQueryResult, int page, int photoPageSize, String eTag) {
+        database.beginTransaction();
+        try {
+            SQLiteStatement upsertPage = statements.get(database, UPSERT_PAGE);
+            upsertPage.bindLong(1, page);
+            upsertPage.bindLong(2, photoPageSize);
+            upsertPage.bindLong(3, photoQueryResult.hasNextPage() ? 1 : 0);
+            upsertPage.bindString(4, eTag);
+            upsertPage.executeInsert();
+
+            // only photos of the page that is replaced can drop out of the stream
+            List<Integer> replacedPhotoIds = loadPagePhotoIds(page);
+            SQLiteStatement deletePageEntries = statements.get(database, DELETE_PAGE_ENTRIES);
+            deletePageEntries.bindLong(1, page);
+            deletePageEntries.executeUpdateDelete();
+
+            SQLiteStatement upsertPhoto = statements.get(database, UPSERT_PHOTO);
+            SQLiteStatement insertPageEntry = statements.get(database, INSERT_PAGE_ENTRY);
+            List<Photo> photos = photoQueryResult.getPhotos();
+            for (int position = 0; position < photos.size(); position++) {
+                Photo photo = photos.get(position);
+                bindPhoto(upsertPhoto, photo);
+                upsertPhoto.executeInsert();
+                insertPageEntry.bindLong(1, page);
+                insertPageEntry.bindLong(2, position);
+                insertPageEntry.bindLong(3, photo.getId());
+                insertPageEntry.executeInsert();
+            }
+            if (!replacedPhotoIds.isEmpty())
+                deleteUnreferencedPhotos(replacedPhotoIds);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private List<Integer> loadPagePhotoIds(int page) {
+        List<Integer> photoIds = new ArrayList<>();
+        Cursor cursor = database.rawQuery(QUERY_PAGE_PHOTO_IDS, new String[]{String.valueOf(page)});
+        try {
+            while (cursor.moveToNext())
+                photoIds.add(cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+        return photoIds;
+    }
+
+    private void deleteUnreferencedPhotos(List<Integer> photoIds) {
+        // photos that moved to another page are still referenced, photos that dropped out of the stream are not
+        SQLiteStatement deletePhoto = statements.get(database, DELETE_PHOTO_IF_UNREFERENCED);
+        for (int photoId : photoIds) {
+            deletePhoto.bindLong(1, photoId);
+            deletePhoto.bindLong(2, photoId);
+            deletePhoto.executeUpdateDelete();
         }
+    }
+
+    private static void bindPhoto(SQLiteStatement statement, Photo photo) {
+        statement.clearBindings();
+        statement.bindLong(1, photo.getId());
+        bindStringOrNull(statement, 2, photo.getImageFilePath());
+        bindStringOrNull(statement, 3, photo.getDescription());
+        statement.bindLong(4, photo.isFavorite() ? 1 : 0);
+        statement.bindLong(5, photo.isDeleteable() ? 1 : 0);
+        statement.bindLong(6, photo.getCommentCount());
+    }
 
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
     }
 
     public String loadEtagFor(int page, int photoPageSize) {
-        Cursor cursor = database.query(TABLE_NAME,
+        Cursor cursor = database.query(PAGE_TABLE_NAME,
                 new String[]{PhotoTable.COLUMN_ETAG},
                 PhotoTable.COLUMN_PAGE + " = ? AND " + PhotoTable.COLUMN_PAGE_SIZE + " = ?",
                 new String[]{String.valueOf(page), String.valueOf(photoPageSize)},
@@ -107,21 +247,70 @@ class PhotoTable {
     }
 
     public PhotoQueryResult getCachedPhotoQueryResult(int page, int photoPageSize) {
-        Cursor cursor = database.query(TABLE_NAME,
-                new String[]{PhotoTable.COLUMN_PHOTOS},
+        Cursor cursor = database.query(PAGE_TABLE_NAME,
+                new String[]{PhotoTable.COLUMN_HAS_NEXT_PAGE},
                 PhotoTable.COLUMN_PAGE + " = ? AND " + PhotoTable.COLUMN_PAGE_SIZE + " = ?",
                 new String[]{String.valueOf(page), String.valueOf(photoPageSize)},
                 null,null,null);
 
-        PhotoQueryResult photos = null;
-
-        if (cursor.moveToFirst()){
-            String json = cursor.getString(cursor.getColumnIndex(PhotoTable.COLUMN_PHOTOS));
-            photos = new Gson().fromJson(json, PhotoQueryResult.class);
-        }
+        boolean cached = cursor.moveToFirst();
+        boolean hasNextPage = cached && cursor.getInt(0) == 1;
+        cursor.close();
+        if (!cached)
+            return null;
 
+        cursor = database.rawQuery(QUERY_PAGE_PHOTOS, new String[]{String.valueOf(page)});
+        List<Photo> photos = readPhotos(cursor);
         cursor.close();
+        return new PhotoQueryResult(page, hasNextPage, photos);
+    }
+
+    /**
+     * Reads all rows of a cursor over the photo table.
+     */
+    static List<Photo> readPhotos(Cursor cursor) {
+        List<Photo> photos = new ArrayList<>();
+        int idIndex = cursor.getColumnIndex(COLUMN_PHOTO_ID);
+        int imageFilePathIndex = cursor.getColumnIndex(COLUMN_IMAGE_FILE_PATH);
+        int descriptionIndex = cursor.getColumnIndex(COLUMN_DESCRIPTION);
+        int favoriteIndex = cursor.getColumnIndex(COLUMN_FAVORITE);
+        int deleteableIndex = cursor.getColumnIndex(COLUMN_DELETEABLE);
+        int commentCountIndex = cursor.getColumnIndex(COLUMN_COMMENT_COUNT);
+        while (cursor.moveToNext()) {
+            photos.add(new Photo(cursor.getInt(idIndex),
+                    cursor.getString(imageFilePathIndex),
+                    cursor.getString(descriptionIndex),
+                    cursor.getInt(favoriteIndex) == 1,
+                    cursor.getInt(deleteableIndex) == 1,
+                    cursor.getInt(commentCountIndex)));
+        }
         return photos;
     }
 
+    public void updateFavorite(int photoId, boolean favorite) {
+        SQLiteStatement statement = statements.get(database, UPDATE_FAVORITE);
+        statement.bindLong(1, favorite ? 1 : 0);
+        statement.bindLong(2, photoId);
+        statement.executeUpdateDelete();
+    }
+
+    public void updateCommentCount(int photoId, int commentCount) {
+        SQLiteStatement statement = statements.get(database, UPDATE_COMMENT_COUNT);
+        statement.bindLong(1, commentCount);
+        statement.bindLong(2, photoId);
+        statement.executeUpdateDelete();
+    }
+
+    public void deletePhoto(int photoId) {
+        String[] whereArgs = new String[]{String.valueOf(photoId)};
+        database.beginTransaction();
+        try {
+            database.delete(PAGE_ENTRY_TABLE_NAME, COLUMN_PHOTO_ID + " = ?", whereArgs);
+            database.delete(TABLE_NAME, COLUMN_PHOTO_ID + " = ?", whereArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package hochschuledarmstadt.photostream_tools;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Benachrichtigt Komponenten, die dekodierte Bilder im Speicher halten, wenn das Bild eines Photos
+ * im Cache durch ein neu heruntergeladenes Bild ersetzt wurde. Die Listener werden nur schwach
+ * referenziert und müssen daher nicht abgemeldet werden.
+ */
+public final class ReplacedImageNotifier {
+
+    private static final List<WeakReference<OnImageReplacedListener>> listeners = new ArrayList<>();
+
+    private ReplacedImageNotifier() {
+    }
+
+    /**
+     * Meldet {@code listener} an
+     * @param listener wird aufgerufen, sobald das Bild eines Photos ersetzt wurde
+     */
+    public static void addListener(OnImageReplacedListener listener) {
+        synchronized (listeners) {
+            listeners.add(new WeakReference<>(listener));
+        }
+    }
+
+    /**
+     * Meldet {@code listener} wieder ab
+     * @param listener der angemeldete Listener
+     */
+    public static void removeListener(OnImageReplacedListener listener) {
+        synchronized (listeners) {
+            Iterator<WeakReference<OnImageReplacedListener>> iterator = listeners.iterator();
+            while (iterator.hasNext()) {
+                OnImageReplacedListener registered = iterator.next().get();
+                if (registered == null || registered == listener)
+                    iterator.remove();
+            }
+        }
+    }
+
+    static void notifyImageReplaced(int photoId) {
+        List<OnImageReplacedListener> current = new ArrayList<>();
+        synchronized (listeners) {
+            Iterator<WeakReference<OnImageReplacedListener>> iterator = listeners.iterator();
+            while (iterator.hasNext()) {
+                OnImageReplacedListener listener = iterator.next().get();
+                if (listener == null)
+                    iterator.remove();
+                else
+                    current.add(listener);
+            }
+        }
+        // listeners are called outside of the lock, they may add or remove listeners themselves
+        for (OnImageReplacedListener listener : current)
+            listener.onImageReplaced(photoId);
+    }
+
+    /**
+     * Listener, der über ersetzte Bilder benachrichtigt wird
+     */
+    public interface OnImageReplacedListener {
+        /**
+         * Wird auf dem Thread aufgerufen, der das neue Bild heruntergeladen hat
+         * @param photoId id des Photos, dessen Bild ersetzt wurde
+         */
+        void onImageReplaced(int photoId);
+    }
+}
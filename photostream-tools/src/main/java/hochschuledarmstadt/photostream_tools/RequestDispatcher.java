@@ -0,0 +1,351 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verteilt die API Requests auf einen eigenen Thread Pool.
+ * Interaktive Requests (Favorisieren, Kommentieren, Löschen, Kommentare laden) werden vor
+ * Requests bevorzugt, die ganze Seiten laden oder Bilder hochladen. Innerhalb einer Gruppe
+ * werden die Request Typen reihum bedient, damit kein Typ einen anderen aushungern kann.
+ * Ein Request, der auf eine Wiederholung wartet, gibt seinen Platz für diese Zeit frei.
+ */
+class RequestDispatcher {
+
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_TYPE = 2;
+    // slots that bulk requests may never occupy, so interactive requests never wait for a page load
+    private static final int RESERVED_INTERACTIVE_SLOTS = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final ThreadLocal<Slot> CURRENT_SLOT = new ThreadLocal<>();
+    private static final ScheduledExecutorService RETRY_TIMER = createRetryTimer();
+
+    private static final RequestType[] INTERACTIVE_REQUEST_TYPES = {
+            RequestType.FAVORITE_PHOTO,
+            RequestType.UPLOAD_COMMENT,
+            RequestType.DELETE_COMMENT,
+            RequestType.DELETE_PHOTO,
+            RequestType.LOAD_COMMENTS
+    };
+
+    private static final RequestType[] BULK_REQUEST_TYPES = {
+            RequestType.LOAD_PHOTOS,
+            RequestType.LOAD_FAVORITE_PHOTOS,
+            RequestType.SEARCH_PHOTOS,
+            RequestType.UPLOAD_PHOTO
+    };
+
+    private final Executor executor;
+    private final int maxConcurrentRequests;
+    private final Map<RequestType, ArrayDeque<Runnable>> pendingRequests = new EnumMap<>(RequestType.class);
+    private final Map<RequestType, Integer> runningRequests = new EnumMap<>(RequestType.class);
+    private final Map<RequestType, Integer> maxConcurrentRequestsPerType = new EnumMap<>(RequestType.class);
+    private final Map<RequestType, Executor> executors = new EnumMap<>(RequestType.class);
+    private final Lane interactiveLane;
+    private final Lane bulkLane;
+    private int runningTotal = 0;
+    private int waitingRetries = 0;
+
+    public RequestDispatcher() {
+        this(createDefaultExecutor(DEFAULT_MAX_CONCURRENT_REQUESTS), DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    public RequestDispatcher(Executor executor, int maxConcurrentRequests) {
+        if (maxConcurrentRequests <= RESERVED_INTERACTIVE_SLOTS)
+            throw new IllegalArgumentException("maxConcurrentRequests must be greater than " + RESERVED_INTERACTIVE_SLOTS);
+        this.executor = executor;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.interactiveLane = new Lane(INTERACTIVE_REQUEST_TYPES, maxConcurrentRequests);
+        this.bulkLane = new Lane(BULK_REQUEST_TYPES, maxConcurrentRequests - RESERVED_INTERACTIVE_SLOTS);
+        for (RequestType requestType : RequestType.values()) {
+            pendingRequests.put(requestType, new ArrayDeque<Runnable>());
+            runningRequests.put(requestType, 0);
+            maxConcurrentRequestsPerType.put(requestType, DEFAULT_MAX_CONCURRENT_REQUESTS_PER_TYPE);
+            executors.put(requestType, new RequestTypeExecutor(requestType));
+        }
+        // uploads are large, running them one after another keeps the bandwidth for everything else
+        maxConcurrentRequestsPerType.put(RequestType.UPLOAD_PHOTO, 1);
+    }
+
+    private static Executor createDefaultExecutor(int maxConcurrentRequests) {
+        // one thread per slot and one per request that waits for its retry, see awaitRetry(Slot, long)
+        int poolSize = maxConcurrentRequests * 2;
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    private static ScheduledExecutorService createRetryTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+        timer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+        return timer;
+    }
+
+    /**
+     * Wartet vor der Wiederholung des aufrufenden Requests. Ein Request des Dispatchers gibt seinen Platz
+     * währenddessen frei und wird danach vor den anderen Requests seines Typs wieder eingereiht.
+     * @param delayMillis Wartezeit in Millisekunden
+     */
+    static void awaitRetry(long delayMillis) throws InterruptedException {
+        Slot slot = CURRENT_SLOT.get();
+        if (slot == null) {
+            if (delayMillis > 0)
+                Thread.sleep(delayMillis);
+            return;
+        }
+        slot.getDispatcher().awaitRetry(slot, delayMillis);
+    }
+
+    private void awaitRetry(final Slot slot, long delayMillis) throws InterruptedException {
+        boolean keepSlot;
+        synchronized (this) {
+            // every waiting request keeps its thread, so their number is bounded by the number of slots
+            keepSlot = waitingRetries >= maxConcurrentRequests;
+            if (!keepSlot)
+                waitingRetries++;
+        }
+        if (keepSlot) {
+            if (delayMillis > 0)
+                Thread.sleep(delayMillis);
+            return;
+        }
+        final RetryResume resume = new RetryResume();
+        onRequestFinished(slot.requestType, slot.lane);
+        RETRY_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RequestDispatcher.this) {
+                    if (resume.cancelled)
+                        return;
+                    pendingRequests.get(slot.requestType).addFirst(resume);
+                }
+                scheduleNext();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        try {
+            resume.latch.await();
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                waitingRetries--;
+                if (!resume.slotTaken) {
+                    resume.cancelled = true;
+                    pendingRequests.get(slot.requestType).remove(resume);
+                    // the request ends with the exception, it gives back a slot then
+                    takeSlot(slot.requestType, slot.lane);
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            waitingRetries--;
+        }
+    }
+
+    /**
+     * Liefert einen {@link Executor}, der mit {@link android.os.AsyncTask#executeOnExecutor(Executor, Object[])}
+     * verwendet werden kann. Die Ergebnisse werden weiterhin auf dem UI Thread ausgeliefert.
+     * @param requestType Art des Requests
+     * @return Executor für die übergebene Art von Request
+     */
+    Executor executorFor(RequestType requestType) {
+        return executors.get(requestType);
+    }
+
+    synchronized void setMaxConcurrentRequests(RequestType requestType, int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1)
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1");
+        maxConcurrentRequestsPerType.put(requestType, maxConcurrentRequests);
+    }
+
+    synchronized int getPendingRequestCount(RequestType requestType) {
+        return pendingRequests.get(requestType).size();
+    }
+
+    synchronized int getRunningRequestCount(RequestType requestType) {
+        return runningRequests.get(requestType);
+    }
+
+    synchronized int getWaitingRetryCount() {
+        return waitingRetries;
+    }
+
+    private void enqueue(RequestType requestType, Runnable runnable) {
+        synchronized (this) {
+            pendingRequests.get(requestType).add(runnable);
+        }
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        List<Runnable> readyRequests = new ArrayList<>();
+        synchronized (this) {
+            Runnable runnable;
+            while ((runnable = pollNext()) != null)
+                readyRequests.add(runnable);
+        }
+        for (Runnable runnable : readyRequests) {
+            // a retry runs on the thread that has been waiting for it
+            if (runnable instanceof RetryResume)
+                runnable.run();
+            else
+                executor.execute(runnable);
+        }
+    }
+
+    private void takeSlot(RequestType requestType, Lane lane) {
+        runningRequests.put(requestType, runningRequests.get(requestType) + 1);
+        lane.running++;
+        runningTotal++;
+    }
+
+    private Runnable pollNext() {
+        if (runningTotal >= maxConcurrentRequests)
+            return null;
+        Runnable runnable = interactiveLane.poll();
+        if (runnable == null)
+            runnable = bulkLane.poll();
+        return runnable;
+    }
+
+    private void onRequestFinished(RequestType requestType, Lane lane) {
+        synchronized (this) {
+            runningRequests.put(requestType, runningRequests.get(requestType) - 1);
+            lane.running--;
+            runningTotal--;
+        }
+        scheduleNext();
+    }
+
+    /**
+     * Gruppe von Request Typen, die sich eine begrenzte Anzahl von Plätzen teilen
+     */
+    private class Lane {
+
+        private final RequestType[] requestTypes;
+        private final int maxRunning;
+        private int running = 0;
+        private int nextIndex = 0;
+
+        Lane(RequestType[] requestTypes, int maxRunning) {
+            this.requestTypes = requestTypes;
+            this.maxRunning = maxRunning;
+        }
+
+        Runnable poll() {
+            if (running >= maxRunning)
+                return null;
+            for (int i = 0; i < requestTypes.length; i++) {
+                int index = (nextIndex + i) % requestTypes.length;
+                final RequestType requestType = requestTypes[index];
+                ArrayDeque<Runnable> queue = pendingRequests.get(requestType);
+                int runningOfType = runningRequests.get(requestType);
+                if (!queue.isEmpty() && runningOfType < maxConcurrentRequestsPerType.get(requestType)) {
+                    final Runnable runnable = queue.poll();
+                    takeSlot(requestType, this);
+                    nextIndex = (index + 1) % requestTypes.length;
+                    if (runnable instanceof RetryResume) {
+                        ((RetryResume) runnable).slotTaken = true;
+                        return runnable;
+                    }
+                    return new Runnable() {
+                        @Override
+                        public void run() {
+                            CURRENT_SLOT.set(new Slot(requestType, Lane.this));
+                            try {
+                                runnable.run();
+                            } finally {
+                                CURRENT_SLOT.remove();
+                                onRequestFinished(requestType, Lane.this);
+                            }
+                        }
+                    };
+                }
+            }
+            return null;
+        }
+    }
+
+    private class RequestTypeExecutor implements Executor {
+
+        private final RequestType requestType;
+
+        RequestTypeExecutor(RequestType requestType) {
+            this.requestType = requestType;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            enqueue(requestType, runnable);
+        }
+    }
+
+    /**
+     * Platz, den ein Request belegt, während er auf einem Thread des Dispatchers läuft
+     */
+    private class Slot {
+
+        private final RequestType requestType;
+        private final Lane lane;
+
+        Slot(RequestType requestType, Lane lane) {
+            this.requestType = requestType;
+            this.lane = lane;
+        }
+
+        RequestDispatcher getDispatcher() {
+            return RequestDispatcher.this;
+        }
+    }
+
+    /**
+     * Platzhalter eines Requests, der auf seine Wiederholung wartet. Der Platz, mit dem er abgeholt wird,
+     * geht an den wartenden Thread.
+     */
+    private static class RetryResume implements Runnable {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        // guarded by the dispatcher
+        private boolean slotTaken = false;
+        private boolean cancelled = false;
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import java.util.Random;
+
+/**
+ * Legt fest, wie oft ein fehlgeschlagener Request wiederholt wird. Die Wartezeit wächst exponentiell
+ * und wird zufällig unterhalb dieser Grenze gewählt ("full jitter").
+ */
+class RetryPolicy {
+
+    static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param retry number of the retry, starting at 1
+     */
+    long getDelayMillis(int retry, Random random) {
+        long bound = baseDelayMillis;
+        for (int i = 1; i < retry && bound < maxDelayMillis; i++)
+            bound *= 2;
+        bound = Math.min(bound, maxDelayMillis);
+        if (bound <= 0)
+            return 0;
+        return (long) (random.nextDouble() * (bound + 1));
+    }
+
+    /**
+     * Server errors and throttling are worth another attempt, every other error response would be the same again
+     * @param statusCode the HTTP status of the response, not the code in its body
+     */
+    static boolean isTransient(int statusCode) {
+        return statusCode >= HttpResponse.STATUS_INTERNAL_SERVER_ERROR || statusCode == STATUS_TOO_MANY_REQUESTS;
+    }
+}
@@ -26,11 +26,7 @@ package hochschuledarmstadt.photostream_tools;
 
 import android.content.Context;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import hochschuledarmstadt.photostream_tools.model.HttpError;
 import hochschuledarmstadt.photostream_tools.model.Photo;
@@ -43,6 +39,7 @@ class SearchPhotosAsyncTask extends BaseAsyncTask<Void, Void, PhotoQueryResult>
     private final HttpGetExecutor executor;
     private final ImageCacher imageCacher;
     private final HttpImageLoader imageLoader;
+    private final JsonResultReader jsonResultReader = new JsonResultReader(JsonCodec.gson());
 
     public SearchPhotosAsyncTask(HttpGetExecutor executor, HttpImageLoader imageLoader, ImageCacher imageCacher, OnSearchPhotosResultCallback callback){
         super();
@@ -73,27 +70,23 @@ class SearchPhotosAsyncTask extends BaseAsyncTask<Void, Void, PhotoQueryResult>
 
     private PhotoQueryResult searchPhotos() throws IOException, HttpPhotoStreamException {
         HttpResponse httpResponse = executor.execute();
-        PhotoQueryResult photoQueryResult = new Gson().fromJson(httpResponse.getResult(), PhotoQueryResult.class);
-        final List<Photo> photos = photoQueryResult.getPhotos();
-        List<Photo> uncachedPhotos = new ArrayList<>();
-        for (Photo photo : photos) {
-            int photoId = photo.getId();
-            if (!imageCacher.isCached(photoId)) {
-                uncachedPhotos.add(photo);
-            }else{
-                imageCacher.cacheImage(photo);
-            }
-        }
-        if (uncachedPhotos.size() > 0) {
-            imageLoader.execute(uncachedPhotos);
-            while(imageLoader.isRunning()) {
-                HttpImageLoader.HttpImage httpImage = imageLoader.take();
-                if (httpImage != null){
-                    imageCacher.cacheImage(httpImage.getPhoto(), httpImage.getImageData());
+        final ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        PhotoQueryResult photoQueryResult;
+        boolean read = false;
+        try {
+            photoQueryResult = jsonResultReader.readPhotoQueryResult(httpResponse.getReader(), new JsonResultReader.OnPhotoReadListener() {
+                @Override
+                public void onPhotoRead(Photo photo) throws IOException {
+                    pipeline.submitStreamed(photo);
                 }
-            }
-            uncachedPhotos.clear();
+            });
+            read = true;
+        } finally {
+            httpResponse.close();
+            if (!read)
+                pipeline.cancel();
         }
+        pipeline.awaitAll();
         return photoQueryResult;
     }
 
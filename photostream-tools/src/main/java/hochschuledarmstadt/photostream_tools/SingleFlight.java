@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fasst gleiche Requests, die gestartet werden, während der erste noch läuft, zu einem Request zusammen.
+ */
+class SingleFlight {
+
+    private final Map<String, List<Runnable>> flights = new HashMap<>();
+
+    /**
+     * @param key identifies the request, requests with equal keys must produce the same result
+     * @param onSuccess run on the main thread when the request succeeds, if the caller joins a running request. May be {@code null}
+     * @return {@code true}, if the caller has to start the request, {@code false}, if it joined a running one
+     */
+    synchronized boolean begin(String key, Runnable onSuccess) {
+        List<Runnable> waiters = flights.get(key);
+        if (waiters != null) {
+            if (onSuccess != null)
+                waiters.add(onSuccess);
+            return false;
+        }
+        flights.put(key, new ArrayList<Runnable>());
+        return true;
+    }
+
+    /**
+     * Ends a successful request and runs the callbacks of every caller that joined it. Must be called on the main thread.
+     */
+    void complete(String key) {
+        List<Runnable> waiters;
+        synchronized (this) {
+            waiters = flights.remove(key);
+        }
+        if (waiters != null) {
+            for (Runnable waiter : waiters)
+                waiter.run();
+        }
+    }
+
+    /**
+     * Ends a request without running the callbacks of the callers that joined it.
+     */
+    synchronized void abandon(String key) {
+        flights.remove(key);
+    }
+
+    /**
+     * Ends the request once {@code task} has finished, if it has neither been completed nor abandoned by then,
+     * e.g. because the task has been cancelled or has ended without calling back. Must be called right after
+     * {@link #begin(String, Runnable)} has returned {@code true}.
+     */
+    void endWith(final String key, BaseAsyncTask<?, ?, ?> task) {
+        final List<Runnable> flight;
+        synchronized (this) {
+            flight = flights.get(key);
+        }
+        task.setOnFinishedListener(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SingleFlight.this) {
+                    // a later request with the same key may have begun in the meantime
+                    if (flight != null && flights.get(key) == flight)
+                        flights.remove(key);
+                }
+            }
+        });
+    }
+
+    synchronized boolean isRunning(String key) {
+        return flights.containsKey(key);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+
+/**
+ * Sammelt die Events des WebSocket Threads und übergibt sie einmal pro Frame an den UI Thread.
+ * Events, die innerhalb eines Frames überholt werden, werden verworfen.
+ */
+class SocketEventCoalescer {
+
+    static final long FRAME_MILLIS = 16;
+
+    private static final int NEW_COMMENT = 0;
+    private static final int COMMENT_DELETED = 1;
+    private static final int PHOTO_DELETED = 2;
+
+    private final Handler handler;
+    private final AndroidSocket.OnMessageListener listener;
+    private final Object lock = new Object();
+    private List<Event> pendingEvents = new ArrayList<>();
+    private Map<Integer, Integer> pendingCommentCounts = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            List<Event> events;
+            Map<Integer, Integer> commentCounts;
+            synchronized (lock) {
+                events = pendingEvents;
+                commentCounts = pendingCommentCounts;
+                pendingEvents = new ArrayList<>();
+                pendingCommentCounts = new LinkedHashMap<>();
+                flushScheduled = false;
+            }
+            dispatch(events, commentCounts);
+        }
+    };
+
+    SocketEventCoalescer(Handler handler, AndroidSocket.OnMessageListener listener) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    void newComment(Comment comment) {
+        synchronized (lock) {
+            pendingEvents.add(new Event(NEW_COMMENT, comment.getId(), comment));
+            scheduleFlush();
+        }
+    }
+
+    void commentDeleted(int commentId) {
+        synchronized (lock) {
+            for (Iterator<Event> it = pendingEvents.iterator(); it.hasNext(); ) {
+                Event event = it.next();
+                if (event.type == NEW_COMMENT && event.id == commentId) {
+                    // nobody has seen the comment yet, so neither event has to be delivered
+                    it.remove();
+                    return;
+                }
+            }
+            pendingEvents.add(new Event(COMMENT_DELETED, commentId, null));
+            scheduleFlush();
+        }
+    }
+
+    void photoDeleted(int photoId) {
+        synchronized (lock) {
+            pendingCommentCounts.remove(photoId);
+            pendingEvents.add(new Event(PHOTO_DELETED, photoId, null));
+            scheduleFlush();
+        }
+    }
+
+    void commentCountChanged(int photoId, int commentCount) {
+        synchronized (lock) {
+            // keep the position of the first update, so a burst of updates does not starve other photos
+            pendingCommentCounts.put(photoId, commentCount);
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flush, FRAME_MILLIS);
+        }
+    }
+
+    private void dispatch(List<Event> events, Map<Integer, Integer> commentCounts) {
+        Set<Integer> deletedPhotos = new HashSet<>();
+        for (Event event : events) {
+            switch (event.type) {
+                case NEW_COMMENT:
+                    listener.onNewComment(event.comment);
+                    break;
+                case COMMENT_DELETED:
+                    listener.onCommentDeleted(event.id);
+                    break;
+                case PHOTO_DELETED:
+                    deletedPhotos.add(event.id);
+                    listener.onPhotoDeleted(event.id);
+                    break;
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : commentCounts.entrySet()) {
+            if (!deletedPhotos.contains(entry.getKey()))
+                listener.onCommentCountChanged(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static final class Event {
+        final int type;
+        final int id;
+        final Comment comment;
+
+        Event(int type, int id, Comment comment) {
+            this.type = type;
+            this.id = id;
+            this.comment = comment;
+        }
+    }
+}
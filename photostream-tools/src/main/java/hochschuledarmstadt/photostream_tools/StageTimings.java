@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accumulates the time spent in each stage of caching images. Safe to update from several threads.
+ */
+class StageTimings {
+
+    enum Stage {
+        /**
+         * Opening the connection until the response body is available
+         */
+        FETCH,
+        /**
+         * Reading and checking the image header
+         */
+        VERIFY,
+        /**
+         * Writing the image into the cache
+         */
+        PERSIST
+    }
+
+    private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(Stage.values().length);
+
+    void record(Stage stage, long elapsedNanos) {
+        nanos.addAndGet(stage.ordinal(), elapsedNanos);
+        counts.incrementAndGet(stage.ordinal());
+    }
+
+    void add(StageTimings other) {
+        for (Stage stage : Stage.values()) {
+            nanos.addAndGet(stage.ordinal(), other.nanos.get(stage.ordinal()));
+            counts.addAndGet(stage.ordinal(), other.counts.get(stage.ordinal()));
+        }
+    }
+
+    long getMillis(Stage stage) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos.get(stage.ordinal()));
+    }
+
+    int getCount(Stage stage) {
+        return counts.get(stage.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (builder.length() > 0)
+                builder.append(", ");
+            builder.append(String.format(Locale.US, "%s: %d ms (%d)", stage.name().toLowerCase(Locale.US), getMillis(stage), getCount(stage)));
+        }
+        return builder.toString();
+    }
+}
@@ -24,8 +24,6 @@
 
 package hochschuledarmstadt.photostream_tools;
 
-import com.google.gson.Gson;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -74,7 +72,7 @@ class StoreCommentAsyncTask extends BaseAsyncTask<Void, Void, Comment> {
             jsonObject.put(KEY_MESSAGE, comment);
             String s = jsonObject.toString();
             HttpResponse httpResponse = executor.execute(s);
-            return new Gson().fromJson(httpResponse.getResult(), Comment.class);
+            return JsonCodec.gson().fromJson(httpResponse.getResult(), Comment.class);
         } catch (JSONException e) {
             Logger.log(TAG, LogLevel.ERROR, e.toString());
         }
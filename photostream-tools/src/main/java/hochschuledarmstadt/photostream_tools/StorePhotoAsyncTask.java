@@ -24,13 +24,9 @@
 
 package hochschuledarmstadt.photostream_tools;
 
-import com.google.gson.Gson;
-
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import hochschuledarmstadt.photostream_tools.model.HttpError;
 import hochschuledarmstadt.photostream_tools.model.Photo;
@@ -75,16 +71,12 @@ class StorePhotoAsyncTask extends BaseAsyncTask<JSONObject, Void, Photo> {
         String newEtag = executor.geteTag();
         if (newEtag != null)
             callback.onNewETag(newEtag);
-        Photo photo = new Gson().fromJson(httpResponse.getResult(), Photo.class);
+        Photo photo = JsonCodec.gson().fromJson(httpResponse.getResult(), Photo.class);
         if (photo == null)
             throw new IOException("Internal error, could not decode result from http request!");
-        List<Photo> list = new ArrayList<>(1);
-        list.add(photo);
-        imageLoader.execute(list);
-        HttpImageLoader.HttpImage httpImage = imageLoader.take();
-        if (httpImage != null) {
-            imageCacher.cacheImage(httpImage.getPhoto(), httpImage.getImageData());
-        }
+        ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        pipeline.submit(photo);
+        pipeline.awaitAll();
         return photo;
     }
 
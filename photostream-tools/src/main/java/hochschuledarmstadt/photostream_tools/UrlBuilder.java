@@ -30,17 +30,35 @@ import java.net.URLEncoder;
 class UrlBuilder {
 
     private final String baseUrl;
-    private final int photoPageSize;
+    private final int basePhotoPageSize;
+    private final NetworkQualityEstimator networkQualityEstimator;
+    // the page size is chosen when a stream starts at its first page and kept for all following pages
+    private volatile int photoPageSize;
+    private volatile int searchPageSize;
 
     public UrlBuilder(String baseUrl, int photoPageSize){
+        this(baseUrl, photoPageSize, new NetworkQualityEstimator());
+    }
+
+    public UrlBuilder(String baseUrl, int photoPageSize, NetworkQualityEstimator networkQualityEstimator){
         this.baseUrl = baseUrl;
+        this.basePhotoPageSize = photoPageSize;
+        this.networkQualityEstimator = networkQualityEstimator;
         this.photoPageSize = photoPageSize;
+        this.searchPageSize = photoPageSize;
     }
 
     public int getPhotoPageSize() {
         return photoPageSize;
     }
 
+    private int choosePageSize(int currentPageSize) {
+        // without measurements keep the current size, so cached first pages stay valid
+        if (networkQualityEstimator.getQuality() == NetworkQualityEstimator.Quality.UNKNOWN)
+            return currentPageSize;
+        return networkQualityEstimator.getPageSize(basePhotoPageSize);
+    }
+
     public String getUploadPhotoApiUrl(){
         return  String.format("%s/photostream/api/image", baseUrl);
     }
@@ -51,9 +69,18 @@ class UrlBuilder {
 
     public String getLoadPhotosApiUrl(boolean initialLoad){
         int initial = initialLoad ? 1 : 0;
+        if (initialLoad)
+            photoPageSize = choosePageSize(photoPageSize);
         return String.format("%s/photostream/api/stream?page_size=%d&initial_load=%d", baseUrl, photoPageSize, initial);
     }
 
+    /**
+     * The first page in the page size that is in use, a resync must not change the size of the cached pages
+     */
+    public String getResyncPhotosApiUrl(){
+        return String.format("%s/photostream/api/stream?page_size=%d&initial_load=1", baseUrl, photoPageSize);
+    }
+
     public String getLoadMorePhotosApiUrl(){
         return String.format("%s/photostream/api/stream/more?page_size=%d", baseUrl, photoPageSize);
     }
@@ -83,16 +110,18 @@ class UrlBuilder {
     }
 
     public String getSearchMorePhotosApiUrl() {
-        return String.format("%s/photostream/api/search/more?page_size=%d", baseUrl, photoPageSize);
+        return String.format("%s/photostream/api/search/more?page_size=%d", baseUrl, searchPageSize);
     }
 
     public String getSearchPhotosApiUrl(String query) {
+        searchPageSize = choosePageSize(searchPageSize);
+        final int searchPageSize = this.searchPageSize;
         try {
             String encode = URLEncoder.encode(query, "UTF-8");
-            return String.format("%s/photostream/api/search/?q=%s&page_size=%d", baseUrl, encode, photoPageSize);
+            return String.format("%s/photostream/api/search/?q=%s&page_size=%d", baseUrl, encode, searchPageSize);
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
-            return String.format("%s/photostream/api/search/?q=%s&page_size=%d", baseUrl, query, photoPageSize);
+            return String.format("%s/photostream/api/search/?q=%s&page_size=%d", baseUrl, query, searchPageSize);
         }
     }
 
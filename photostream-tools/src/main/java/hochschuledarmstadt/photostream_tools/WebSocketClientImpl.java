@@ -42,17 +42,17 @@ class WebSocketClientImpl implements WebSocketClient {
     public static final int RECONNECTION_DELAY_IN_MILLIS = 3000;
     public static final int COUNT_OF_RECONNECTION_ATTEMPTS = 30;
     private String installationId;
-    private final HttpImageLoader imageLoader;
+    private final HttpImageLoaderFactory imageLoaderFactory;
     private String url;
     private AndroidSocket.OnMessageListener messageListener;
     private AndroidSocket androidSocket;
     private ImageCacher imageCacher;
 
-    public WebSocketClientImpl(String url, String installationId, ImageCacher imageCacher, HttpImageLoader imageLoader) {
+    public WebSocketClientImpl(String url, String installationId, ImageCacher imageCacher, HttpImageLoaderFactory imageLoaderFactory) {
         this.url = url;
         this.installationId = installationId;
         this.imageCacher = imageCacher;
-        this.imageLoader = imageLoader;
+        this.imageLoaderFactory = imageLoaderFactory;
     }
 
     @Override
@@ -70,9 +70,11 @@ class WebSocketClientImpl implements WebSocketClient {
                 options.transports = new String[]{WebSocket.NAME};
                 options.reconnectionAttempts = COUNT_OF_RECONNECTION_ATTEMPTS;
                 options.rememberUpgrade = true;
-                String endpoint = String.format("%s/?token=%s", this.url, installationId);
+                // the query is kept in the options, AndroidSocket appends the resume cursor to it
+                options.query = String.format("token=%s", installationId);
+                String endpoint = String.format("%s/", this.url);
                 URI uri = URI.create(endpoint);
-                androidSocket = new AndroidSocket(options, uri, imageLoader, imageCacher, messageListener);
+                androidSocket = new AndroidSocket(options, uri, imageLoaderFactory, imageCacher, messageListener);
             }
             return androidSocket.connect();
         } catch (KeyManagementException e) {
@@ -27,16 +27,60 @@ package hochschuledarmstadt.photostream_tools.adapter;
 
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 
 import java.lang.ref.WeakReference;
 
 class AsyncDrawable extends BitmapDrawable{
+
+    private static Bitmap emptyPlaceholder;
+
     private final WeakReference<BitmapLoaderTask> bitmapLoaderTaskReference;
+    private final int intrinsicWidth;
+    private final int intrinsicHeight;
 
-    public AsyncDrawable(Resources res, Bitmap bitmap, BitmapLoaderTask bitmapLoaderTask) {
+    /**
+     * The placeholder bitmap is stretched to the bounds of the drawable, while the ImageView
+     * measures it with the dimensions of the photo that is loaded. {@code -1} means the
+     * dimensions are unknown.
+     */
+    public AsyncDrawable(Resources res, Bitmap bitmap, BitmapLoaderTask bitmapLoaderTask, int intrinsicWidth, int intrinsicHeight) {
         super(res, bitmap);
         bitmapLoaderTaskReference = new WeakReference<>(bitmapLoaderTask);
+        this.intrinsicWidth = intrinsicWidth;
+        this.intrinsicHeight = intrinsicHeight;
+        setFilterBitmap(true);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return intrinsicWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return intrinsicHeight;
+    }
+
+    /**
+     * Creates a drawable that shows the preview of {@code placeholder}, or a black area
+     * if there is no preview yet.
+     * @param placeholder cached placeholder of the photo or {@code null}, if nothing is known about it yet
+     */
+    static AsyncDrawable create(Resources res, BitmapLoaderTask bitmapLoaderTask, PlaceholderCache.Placeholder placeholder) {
+        if (placeholder == null)
+            return new AsyncDrawable(res, getEmptyPlaceholder(), bitmapLoaderTask, -1, -1);
+        Bitmap preview = placeholder.getPreview() != null ? placeholder.getPreview() : getEmptyPlaceholder();
+        return new AsyncDrawable(res, preview, bitmapLoaderTask, placeholder.getWidth(), placeholder.getHeight());
+    }
+
+    private static synchronized Bitmap getEmptyPlaceholder() {
+        if (emptyPlaceholder == null) {
+            emptyPlaceholder = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+            emptyPlaceholder.eraseColor(Color.BLACK);
+        }
+        return emptyPlaceholder;
     }
 
     public BitmapLoaderTask getBitmapLoaderTask() {
@@ -25,9 +25,6 @@
 package hochschuledarmstadt.photostream_tools.adapter;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
 import android.os.Bundle;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -36,7 +33,6 @@ import android.view.View;
 import android.widget.ImageView;
 
 import java.lang.ref.WeakReference;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -69,9 +65,17 @@ public abstract class BasePhotoAdapter<H extends RecyclerView.ViewHolder> extend
 
     private List<BitmapLoaderTask> tasks = new ArrayList<>();
     private OnImageLoadedListener listener = new InternalBitmapLoaderListener();
+    private final BitmapMemoryCache memoryCache;
+    private final PlaceholderCache placeholderCache = PlaceholderCache.getInstance();
+    private RecyclerView recyclerView;
+    private PhotoPrefetcher prefetcher;
+    private int prefetchThreshold;
+    private boolean prefetchOnMeteredNetwork;
+    private OnPrefetchListener prefetchListener;
 
     private BasePhotoAdapter(ArrayList<Photo> photos, int cacheSizeInMegaByte){
         super(photos);
+        memoryCache = new BitmapMemoryCache(cacheSizeInMegaByte * 1024L * 1024L);
         Log.d(BasePhotoAdapter.class.getName(), String.format("Using %d MB for the lru photo cache", cacheSizeInMegaByte));
     }
 
@@ -147,9 +151,87 @@ public abstract class BasePhotoAdapter<H extends RecyclerView.ViewHolder> extend
         return super.getItemCount();
     }
 
+    /**
+     * Aktiviert das vorausschauende Laden der nächsten Seite von Photos. Sobald der Nutzer in der
+     * RecyclerView bis auf {@code threshold} Photos an das Ende der Liste gescrollt hat, wird die Methode
+     * {@link OnPrefetchListener#onPrefetchNextPage()} aufgerufen. Dort sollte
+     * {@code IPhotoStreamClient#loadMorePhotos()} aufgerufen werden, damit die Seite und ihre Photos bereits
+     * geladen sind, wenn das Ende der Liste erreicht wird. Kommt die Liste vorher zum Stillstand, wird das
+     * Laden nicht gestartet. In einem getakteten Netzwerk (z.B. mobile Daten) wird nicht vorausschauend geladen.
+     * @param threshold Anzahl der Photos vor dem Ende der Liste, ab der die nächste Seite geladen wird
+     * @param listener wird aufgerufen, wenn die nächste Seite geladen werden soll
+     */
+    public void enablePrefetch(int threshold, OnPrefetchListener listener) {
+        disablePrefetch();
+        prefetchThreshold = threshold;
+        prefetchListener = listener;
+        if (recyclerView != null)
+            attachPrefetcher(recyclerView);
+    }
+
+    /**
+     * Legt fest, ob auch in einem getakteten Netzwerk (z.B. mobile Daten) vorausschauend geladen werden darf.
+     * Ist der Datensparmodus aktiv, wird unabhängig von dieser Einstellung nicht vorausschauend geladen.
+     * @param prefetchOnMeteredNetwork {@code true}, wenn auch in getakteten Netzwerken geladen werden darf
+     */
+    public void setPrefetchOnMeteredNetwork(boolean prefetchOnMeteredNetwork) {
+        this.prefetchOnMeteredNetwork = prefetchOnMeteredNetwork;
+        if (prefetcher != null)
+            prefetcher.setPrefetchOnMeteredNetwork(prefetchOnMeteredNetwork);
+    }
+
+    /**
+     * Deaktiviert das vorausschauende Laden der nächsten Seite von Photos
+     */
+    public void disablePrefetch() {
+        detachPrefetcher();
+        prefetchListener = null;
+    }
+
+    /**
+     * Erlaubt ein erneutes vorausschauendes Laden, obwohl die Liste seit dem letzten Mal nicht gewachsen ist,
+     * z.B. nachdem das Laden der nächsten Seite fehlgeschlagen ist
+     */
+    public void resetPrefetch() {
+        if (prefetcher != null)
+            prefetcher.reset();
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+        if (prefetchListener != null)
+            attachPrefetcher(recyclerView);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        detachPrefetcher();
+        this.recyclerView = null;
+        super.onDetachedFromRecyclerView(recyclerView);
+    }
+
+    private void attachPrefetcher(RecyclerView recyclerView) {
+        prefetcher = new PhotoPrefetcher(recyclerView.getContext(), this, prefetchThreshold, prefetchListener);
+        prefetcher.setPrefetchOnMeteredNetwork(prefetchOnMeteredNetwork);
+        recyclerView.addOnScrollListener(prefetcher);
+    }
+
+    private void detachPrefetcher() {
+        if (prefetcher == null)
+            return;
+        prefetcher.cancel();
+        if (recyclerView != null)
+            recyclerView.removeOnScrollListener(prefetcher);
+        prefetcher = null;
+    }
+
     @Override
     protected void destroyReferences() {
         super.destroyReferences();
+        detachPrefetcher();
+        prefetchListener = null;
         for (BitmapLoaderTask task : tasks) {
             Log.d(BasePhotoAdapter.class.getSimpleName(), "cancelled task");
             task.cancel(true);
@@ -160,6 +242,8 @@ public abstract class BasePhotoAdapter<H extends RecyclerView.ViewHolder> extend
         tasks.clear();
         listener = null;
         threadPoolExecutor.shutdown();
+        // the placeholders are shared with the next adapter, e.g. after a configuration change
+        memoryCache.evictAll();
     }
 
     /**
@@ -214,15 +298,7 @@ public abstract class BasePhotoAdapter<H extends RecyclerView.ViewHolder> extend
         for (int position = 0; position < itemCount; position++) {
             Photo photo = getItemAtPosition(position);
             if (itemHasEqualId(photoId, photo)) {
-                try {
-                    Field f = photo.getClass().getDeclaredField("commentCount");
-                    f.setAccessible(true);
-                    f.set(photo, comment_count);
-                } catch (NoSuchFieldException e) {
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
+                photo.setCommentCount(comment_count);
                 notifyItemChanged(position);
             }
         }
@@ -237,43 +313,40 @@ public abstract class BasePhotoAdapter<H extends RecyclerView.ViewHolder> extend
      * @param photo das Photo, das geladen werden soll
      */
     protected void loadBitmapIntoImageViewAsync(H viewHolder, final ImageView imageView, final Photo photo){
-        if (imageView.getDrawable() instanceof AsyncDrawable) {
-            AsyncDrawable drawable = (AsyncDrawable) imageView.getDrawable();
-            Bitmap bitmap = drawable.getBitmap();
-            if (bitmap != null && !bitmap.isRecycled())
-                bitmap.recycle();
+        String cacheKey = BitmapMemoryCache.createKey(photo.getId(), BitmapLoaderTask.DECODE_WIDTH, BitmapLoaderTask.DECODE_HEIGHT);
+        Object previousKey = imageView.getTag(R.id.bitmap_cache_key);
+        Bitmap cachedBitmap = memoryCache.acquire(cacheKey);
+        // acquire before release, so rebinding the same photo never drops the bitmap from the cache
+        if (previousKey != null) {
+            memoryCache.release(previousKey.toString());
+            imageView.setTag(R.id.bitmap_cache_key, null);
         }
-        imageView.setImageBitmap(null);
 
-/*        Integer prevKey = -1;
-        try{
-            prevKey = Integer.valueOf(imageView.getTag().toString());
-        }catch(Exception e){}*/
+        if (cachedBitmap != null) {
+            BitmapLoaderTask bitmapLoaderTask = BitmapLoaderTask.getBitmapLoaderTaskRefFrom(imageView);
+            if (bitmapLoaderTask != null)
+                bitmapLoaderTask.cancel(false);
+            imageView.setImageBitmap(cachedBitmap);
+            imageView.setTag(photo.getId());
+            imageView.setTag(R.id.bitmap_cache_key, cacheKey);
+            return;
+        }
 
-        if (cancelPotentialWork(photo.getId(), imageView)) {
+        imageView.setImageBitmap(null);
 
-            /*if (prevKey != -1){
-                lruBitmapCache.referenceDecrease(prevKey);
-            }*/
+        if (cancelPotentialWork(photo.getId(), imageView)) {
 
             Object tag = viewHolder.itemView.getTag(R.id.should_animate);
             boolean shouldAnimate = tag == null || !tag.equals(Boolean.FALSE);
             if (!shouldAnimate)
                 viewHolder.itemView.setTag(R.id.should_animate, Boolean.TRUE);
 
-            BitmapLoaderTask task = new BitmapLoaderTask(imageView, photo.getId(), photo.getImageFile(), listener);
+            BitmapLoaderTask task = new BitmapLoaderTask(imageView, photo.getId(), photo.getImageFile(), listener, memoryCache, placeholderCache);
             task.setShouldAnimate(shouldAnimate);
 
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeFile(photo.getImageFilePath(), options);
-            int imageHeight = options.outHeight;
-            int imageWidth = options.outWidth;
-            Bitmap placeHolder = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.ALPHA_8);
-            Canvas canvas = new Canvas(placeHolder);
-            canvas.drawColor(Color.BLACK);
-            AsyncDrawable asyncDrawable = new AsyncDrawable(imageView.getContext().getResources(), placeHolder, task);
-            imageView.setImageDrawable(asyncDrawable);
+            // only the header of a photo seen the first time is read here, the preview is created by the task
+            PlaceholderCache.Placeholder placeholder = placeholderCache.getOrReadBounds(photo.getId(), photo.getImageFile());
+            imageView.setImageDrawable(AsyncDrawable.create(imageView.getContext().getResources(), task, placeholder));
             task.executeOnExecutor(threadPoolExecutor);
         }
     }
@@ -303,6 +376,13 @@ public abstract class BasePhotoAdapter<H extends RecyclerView.ViewHolder> extend
      */
     protected abstract void onBitmapLoadedIntoImageView(ImageView imageView);
 
+    /**
+     * Wird aufgerufen, wenn die nächste Seite von Photos vorausschauend geladen werden soll
+     */
+    public interface OnPrefetchListener {
+        void onPrefetchNextPage();
+    }
+
     public interface OnItemClickListener<H extends RecyclerView.ViewHolder> extends BaseAdapter.OnItemClickListener<H, Photo>{
         @Override
         void onItemClicked(H viewHolder, View v, Photo photo);
@@ -32,7 +32,6 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import hochschuledarmstadt.photostream_tools.model.Photo;
@@ -96,17 +95,8 @@ public abstract class BasePhotoPagerAdapter extends PagerAdapter{
     public void updateCommentCount(int photoId, int commentCount){
         for (Photo photo : photos){
             if (photo.getId() == photoId){
-                try {
-                    Field f = photo.getClass().getDeclaredField("commentCount");
-                    f.setAccessible(true);
-                    f.set(photo, commentCount);
-                } catch (NoSuchFieldException e) {
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }finally {
-                    notifyDataSetChanged();
-                }
+                photo.setCommentCount(commentCount);
+                notifyDataSetChanged();
             }
         }
     }
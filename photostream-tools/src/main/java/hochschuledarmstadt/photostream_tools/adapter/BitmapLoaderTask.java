@@ -28,7 +28,6 @@ import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.graphics.drawable.Drawable;
 import android.media.ExifInterface;
 import android.net.Uri;
@@ -44,7 +43,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 
+import hochschuledarmstadt.photostream_tools.BitmapPool;
 import hochschuledarmstadt.photostream_tools.BitmapUtils;
+import hochschuledarmstadt.photostream_tools.R;
 
 
 class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
@@ -52,11 +53,16 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
     private static final int TYPE_ASSET = -1;
     private static final int TYPE_FILE = -2;
     private static final int TYPE_OTHER = -3;
+    static final int DECODE_WIDTH = 450;
+    static final int DECODE_HEIGHT = 450;
 
     private WeakReference<ImageView> imageViewReference;
     private final int photoId;
     private OnImageLoadedListener listener;
     private File imageFile;
+    private final BitmapMemoryCache memoryCache;
+    private final PlaceholderCache placeholderCache;
+    private final String cacheKey;
 
 
     private boolean shouldAnimate = false;
@@ -73,11 +79,14 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
         return photoId;
     }
 
-    public BitmapLoaderTask(ImageView imageView, int photoId, File imageFile, OnImageLoadedListener listener) {
+    public BitmapLoaderTask(ImageView imageView, int photoId, File imageFile, OnImageLoadedListener listener, BitmapMemoryCache memoryCache, PlaceholderCache placeholderCache) {
         this.imageViewReference = new WeakReference<>(imageView);
         this.photoId = photoId;
         this.listener = listener;
         this.imageFile = new File(imageFile.getAbsolutePath());
+        this.memoryCache = memoryCache;
+        this.placeholderCache = placeholderCache;
+        this.cacheKey = BitmapMemoryCache.createKey(photoId, DECODE_WIDTH, DECODE_HEIGHT);
     }
 
     @Override
@@ -93,10 +102,16 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
             return null;
         }
 
+        PlaceholderCache.Placeholder placeholder = placeholderCache.get(photoId);
+        if (placeholder == null || placeholder.getPreview() == null)
+            cachePlaceholder(placeholder);
+
         boolean retry = false;
         do{
             try {
-                return decodeBitmapFromFile(imageFile);
+                bitmap = decodeBitmapFromFile(imageFile);
+                cachePreviewIfMissing(bitmap);
+                return bitmap;
             } catch (Exception e) {
                 e.printStackTrace();
                 retry = true;
@@ -106,6 +121,36 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
         return bitmap;
     }
 
+    private void cachePlaceholder(PlaceholderCache.Placeholder placeholder) {
+        if (placeholder == null) {
+            placeholder = placeholderCache.getOrReadBounds(photoId, imageFile);
+            if (placeholder == null)
+                return;
+        }
+        Bitmap preview = PlaceholderCache.decodeExifThumbnail(imageFile.getAbsolutePath());
+        if (preview == null)
+            return;
+        placeholderCache.put(photoId, new PlaceholderCache.Placeholder(placeholder.getWidth(), placeholder.getHeight(), preview));
+        // show the preview while the photo itself is decoded
+        publishProgress();
+    }
+
+    private void cachePreviewIfMissing(Bitmap bitmap) {
+        PlaceholderCache.Placeholder placeholder = placeholderCache.get(photoId);
+        if (bitmap != null && placeholder != null && placeholder.getPreview() == null) {
+            Bitmap preview = PlaceholderCache.createPreview(bitmap);
+            placeholderCache.put(photoId, new PlaceholderCache.Placeholder(placeholder.getWidth(), placeholder.getHeight(), preview));
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Void... values) {
+        super.onProgressUpdate(values);
+        ImageView imageView = imageViewReference != null ? imageViewReference.get() : null;
+        if (imageView != null && getBitmapLoaderTaskRefFrom(imageView) == this)
+            imageView.setImageDrawable(AsyncDrawable.create(imageView.getResources(), this, placeholderCache.get(photoId)));
+    }
+
     @Override
     protected void onCancelled() {
         super.onCancelled();
@@ -140,14 +185,20 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
             if (imageView != null) {
                 final BitmapLoaderTask bitmapWorkerTask = getBitmapLoaderTaskRefFrom(imageView);
                 if (this == bitmapWorkerTask && imageView != null) {
-                    //lruBitmapCache.referenceIncrease(photoId);
+                    if (bitmap != null) {
+                        // the image view holds a reference until it is bound to another photo
+                        bitmap = memoryCache.put(cacheKey, bitmap, true);
+                        imageView.setTag(R.id.bitmap_cache_key, cacheKey);
+                    }
                     imageView.setImageBitmap(bitmap);
                     imageView.setTag(photoId);
                     listener.onTaskFinishedOrCanceled(this, imageView);
                 }else{
+                    cacheUnused(bitmap);
                     listener.onTaskFinishedOrCanceled(this, null);
                 }
             }else{
+                cacheUnused(bitmap);
                 listener.onTaskFinishedOrCanceled(this, null);
             }
         }else{
@@ -157,6 +208,12 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
 
     }
 
+    private void cacheUnused(Bitmap bitmap) {
+        // nobody shows the bitmap right now, but the next bind of this photo can still use it
+        if (bitmap != null)
+            memoryCache.put(cacheKey, bitmap, false);
+    }
+
     static BitmapLoaderTask getBitmapLoaderTaskRefFrom(ImageView imageView) {
         if (imageView != null) {
             final Drawable drawable = imageView.getDrawable();
@@ -188,12 +245,18 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
         return null;
     }
 
-    private static Bitmap internalDecodeBitmap(Context context, Uri uri, int type) throws FileNotFoundException {
+    private static Bitmap internalDecodeBitmap(final Context context, final Uri uri, final int type) throws FileNotFoundException {
         Bitmap bm = null;
         try {
-            BitmapFactory.Options options = lessResolution(createInputStream(context, uri, type), 450, 450);
-            bm = BitmapFactory.decodeStream(createInputStream(context, uri, type), null, options);
-            if (context != null) {
+            BitmapPool bitmapPool = BitmapPool.getInstance();
+            BitmapFactory.Options options = lessResolution(createInputStream(context, uri, type), DECODE_WIDTH, DECODE_HEIGHT);
+            bm = bitmapPool.decodeStream(new BitmapPool.StreamProvider() {
+                @Override
+                public InputStream openStream() throws IOException {
+                    return createInputStream(context, uri, type);
+                }
+            }, options);
+            if (context != null && bm != null) {
                 ExifInterface exif = new ExifInterface(getRealPathFromURI(context, uri));
                 String orientString = exif.getAttribute(ExifInterface.TAG_ORIENTATION);
                 int orientation = orientString != null ? Integer.parseInt(orientString) : ExifInterface.ORIENTATION_NORMAL;
@@ -203,13 +266,8 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
                 else if (orientation == ExifInterface.ORIENTATION_ROTATE_180) rotationAngle = 180;
                 else if (orientation == ExifInterface.ORIENTATION_ROTATE_270) rotationAngle = 270;
 
-                if (rotationAngle != 0) {
-                    Matrix matrix = new Matrix();
-                    matrix.postRotate(rotationAngle);
-                    Bitmap bmCopy = Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), matrix, true);
-                    bm.recycle();
-                    bm = bmCopy;
-                }
+                if (rotationAngle != 0)
+                    bm = bitmapPool.rotate(bm, rotationAngle);
             }
         } catch (IOException e) {
             Log.e(BitmapLoaderTask.class.getName(), e.toString(), e);
@@ -217,11 +275,16 @@ class BitmapLoaderTask extends AsyncTask<Void, Void, Bitmap> {
         return bm;
     }
 
-    private static BitmapFactory.Options lessResolution (InputStream is, int reqWidth, int reqHeight) {
+    private static BitmapFactory.Options lessResolution (InputStream is, int reqWidth, int reqHeight) throws IOException {
         BitmapFactory.Options options = new BitmapFactory.Options();
         // First decode with inJustDecodeBounds=true to check dimensions
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(is, null, options);
+        try {
+            BitmapFactory.decodeStream(is, null, options);
+        } finally {
+            if (is != null)
+                is.close();
+        }
         // Calculate inSampleSize
         options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
         // Decode bitmap with inSampleSize set
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools.adapter;
+
+import android.graphics.Bitmap;
+
+import hochschuledarmstadt.photostream_tools.BitmapPool;
+import hochschuledarmstadt.photostream_tools.ReplacedImageNotifier;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache for decoded bitmaps, bounded by the number of bytes of the cached bitmaps.
+ * Bitmaps are reference counted: a bitmap that is shown in an ImageView is acquired and
+ * is never evicted until it has been released again. Evicted bitmaps are handed to the
+ * {@link BitmapPool}, so their memory is reused by later decodes. Bitmaps of a photo whose
+ * cached image has been replaced by a new download are evicted.
+ */
+class BitmapMemoryCache implements ReplacedImageNotifier.OnImageReplacedListener {
+
+    private final long maxSizeBytes;
+    private final BitmapPool bitmapPool;
+    // least recently used entries first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // references to evicted bitmaps of replaced images, released before those of the current entry under the same key
+    private final Map<String, Integer> replacedReferences = new HashMap<>();
+    private long sizeBytes = 0;
+
+    public BitmapMemoryCache(long maxSizeBytes) {
+        this(maxSizeBytes, BitmapPool.getInstance());
+    }
+
+    BitmapMemoryCache(long maxSizeBytes, BitmapPool bitmapPool) {
+        this.maxSizeBytes = maxSizeBytes;
+        this.bitmapPool = bitmapPool;
+        ReplacedImageNotifier.addListener(this);
+    }
+
+    static String createKey(int photoId, int width, int height) {
+        return photoId + ":" + width + "x" + height;
+    }
+
+    /**
+     * Returns the cached bitmap for {@code key} and increases its reference count.
+     * @return the bitmap or {@code null}, if it is not in the cache
+     */
+    synchronized Bitmap acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        entry.references++;
+        return entry.bitmap;
+    }
+
+    /**
+     * Adds a bitmap to the cache. If another bitmap for {@code key} is cached and still referenced,
+     * the cached bitmap is kept and {@code bitmap} is handed to the {@link BitmapPool}.
+     * @param acquire {@code true}, if the caller shows the bitmap and later calls {@link #release(String)}
+     * @return the cached bitmap for {@code key}, which the caller has to use instead of {@code bitmap}
+     */
+    synchronized Bitmap put(String key, Bitmap bitmap, boolean acquire) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(bitmap);
+            entries.put(key, entry);
+            sizeBytes += entry.size;
+        } else if (entry.bitmap != bitmap) {
+            if (entry.references == 0) {
+                bitmapPool.put(entry.bitmap);
+                sizeBytes += sizeOf(bitmap) - entry.size;
+                entry.bitmap = bitmap;
+                entry.size = sizeOf(bitmap);
+            } else {
+                // the cached bitmap is shown somewhere else, a second copy would be neither counted nor released
+                bitmapPool.put(bitmap);
+            }
+        }
+        if (acquire)
+            entry.references++;
+        trimToSize();
+        return entry.bitmap;
+    }
+
+    synchronized void release(String key) {
+        Integer replaced = replacedReferences.get(key);
+        if (replaced != null) {
+            // the total count stays balanced, the current bitmap is never pooled while it is shown
+            if (replaced == 1)
+                replacedReferences.remove(key);
+            else
+                replacedReferences.put(key, replaced - 1);
+            return;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && entry.references > 0) {
+            entry.references--;
+            trimToSize();
+        }
+    }
+
+    @Override
+    public void onImageReplaced(int photoId) {
+        evictPhoto(photoId);
+    }
+
+    /**
+     * Removes every bitmap of the photo from the cache, in every size it has been decoded to.
+     */
+    synchronized void evictPhoto(int photoId) {
+        String prefix = photoId + ":";
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = iterator.next();
+            if (!mapEntry.getKey().startsWith(prefix))
+                continue;
+            Entry entry = mapEntry.getValue();
+            iterator.remove();
+            sizeBytes -= entry.size;
+            if (entry.references == 0) {
+                bitmapPool.put(entry.bitmap);
+            } else {
+                // the bitmap is still shown, it is left to the garbage collector instead of the pool
+                Integer replaced = replacedReferences.get(mapEntry.getKey());
+                replacedReferences.put(mapEntry.getKey(), (replaced == null ? 0 : replaced) + entry.references);
+            }
+        }
+    }
+
+    synchronized void evictAll() {
+        // referenced bitmaps are still shown and must not be reused
+        for (Entry entry : entries.values()) {
+            if (entry.references == 0)
+                bitmapPool.put(entry.bitmap);
+        }
+        entries.clear();
+        replacedReferences.clear();
+        sizeBytes = 0;
+    }
+
+    synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    synchronized int getReferenceCount(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? 0 : entry.references;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.references > 0)
+                continue;
+            iterator.remove();
+            sizeBytes -= entry.size;
+            bitmapPool.put(entry.bitmap);
+        }
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static class Entry {
+        private Bitmap bitmap;
+        private long size;
+        private int references = 0;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.size = sizeOf(bitmap);
+        }
+    }
+}
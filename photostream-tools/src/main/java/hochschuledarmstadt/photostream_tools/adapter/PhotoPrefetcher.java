@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools.adapter;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * Requests the next page of photos while the user scrolls towards the end of the list, so the
+ * page and its images are already on disk when the list runs out of items. A prefetch is only
+ * started after the list kept moving for {@link #SETTLE_DELAY_MILLIS}; if the list comes to rest
+ * before, the pending prefetch is dropped, unless it rests within the threshold, e.g. after a short
+ * fling, and the page is requested right away. A page request that has already been started is never
+ * cancelled, because the server advances its paging with every request.
+ */
+class PhotoPrefetcher extends RecyclerView.OnScrollListener implements Runnable {
+
+    static final long SETTLE_DELAY_MILLIS = 120;
+
+    private final Context context;
+    private final RecyclerView.Adapter<?> adapter;
+    private final int threshold;
+    private final BasePhotoAdapter.OnPrefetchListener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean prefetchOnMeteredNetwork = false;
+    private boolean scheduled = false;
+    // item count at the time of the last prefetch, the next one waits until the list has grown
+    private int prefetchedAtItemCount = -1;
+
+    PhotoPrefetcher(Context context, RecyclerView.Adapter<?> adapter, int threshold, BasePhotoAdapter.OnPrefetchListener listener) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold must not be negative");
+        this.context = context.getApplicationContext();
+        this.adapter = adapter;
+        this.threshold = threshold;
+        this.listener = listener;
+    }
+
+    void setPrefetchOnMeteredNetwork(boolean prefetchOnMeteredNetwork) {
+        this.prefetchOnMeteredNetwork = prefetchOnMeteredNetwork;
+    }
+
+    void reset() {
+        prefetchedAtItemCount = -1;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dx <= 0 && dy <= 0)
+            return;
+        onScrolledTo(findLastVisiblePosition(recyclerView));
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE)
+            onSettledAt(findLastVisiblePosition(recyclerView));
+    }
+
+    void onScrolledTo(int lastVisiblePosition) {
+        if (!scheduled && shouldPrefetch(lastVisiblePosition)) {
+            scheduled = true;
+            handler.postDelayed(this, SETTLE_DELAY_MILLIS);
+        }
+    }
+
+    void onSettledAt(int lastVisiblePosition) {
+        cancel();
+        if (shouldPrefetch(lastVisiblePosition))
+            run();
+    }
+
+    void cancel() {
+        if (scheduled) {
+            scheduled = false;
+            handler.removeCallbacks(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        int itemCount = adapter.getItemCount();
+        if (itemCount == prefetchedAtItemCount)
+            return;
+        if (isMeteredNetwork() && (!prefetchOnMeteredNetwork || isBackgroundDataRestricted()))
+            return;
+        prefetchedAtItemCount = itemCount;
+        listener.onPrefetchNextPage();
+    }
+
+    private boolean shouldPrefetch(int lastVisiblePosition) {
+        int itemCount = adapter.getItemCount();
+        return itemCount > 0
+                && itemCount != prefetchedAtItemCount
+                && lastVisiblePosition != RecyclerView.NO_POSITION
+                && lastVisiblePosition >= itemCount - 1 - threshold;
+    }
+
+    private static int findLastVisiblePosition(RecyclerView recyclerView) {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (layoutManager == null)
+            return RecyclerView.NO_POSITION;
+        int lastVisiblePosition = RecyclerView.NO_POSITION;
+        for (int i = layoutManager.getChildCount() - 1; i >= 0; i--) {
+            View child = layoutManager.getChildAt(i);
+            lastVisiblePosition = Math.max(lastVisiblePosition, recyclerView.getChildAdapterPosition(child));
+        }
+        return lastVisiblePosition;
+    }
+
+    boolean isMeteredNetwork() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager == null || ConnectivityManagerCompat.isActiveNetworkMetered(connectivityManager);
+    }
+
+    boolean isBackgroundDataRestricted() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager == null
+                || ConnectivityManagerCompat.getRestrictBackgroundStatus(connectivityManager) == ConnectivityManagerCompat.RESTRICT_BACKGROUND_STATUS_ENABLED;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools.adapter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hochschuledarmstadt.photostream_tools.exif.ExifInterface;
+
+/**
+ * Remembers the dimensions of decoded photos together with a tiny preview, so a placeholder with the
+ * right aspect ratio can be shown on the UI thread without touching the image file. The preview is the
+ * embedded EXIF thumbnail if the photo has one, otherwise a downscaled copy of the decoded bitmap.
+ * Photo ids are unique, so all adapters share one instance and placeholders survive the recreation of an adapter.
+ */
+class PlaceholderCache {
+
+    static final int PREVIEW_SIZE = 64;
+    private static final int DEFAULT_MAX_SIZE_BYTES = 2 * 1024 * 1024;
+    // accounts for entries without a preview, so the number of entries stays bounded as well
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private static PlaceholderCache instance;
+
+    private final long maxSizeBytes;
+    // least recently used entries first
+    private final LinkedHashMap<Integer, Placeholder> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes = 0;
+
+    PlaceholderCache() {
+        this(DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    PlaceholderCache(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    static synchronized PlaceholderCache getInstance() {
+        if (instance == null)
+            instance = new PlaceholderCache();
+        return instance;
+    }
+
+    synchronized Placeholder get(int photoId) {
+        return entries.get(photoId);
+    }
+
+    /**
+     * Returns the placeholder of the photo. A photo that is seen the first time gets a placeholder
+     * without preview, its dimensions are read from the header of {@code imageFile}.
+     * @return the placeholder or {@code null}, if the dimensions could not be read
+     */
+    Placeholder getOrReadBounds(int photoId, File imageFile) {
+        Placeholder placeholder = get(photoId);
+        if (placeholder != null || imageFile == null || !imageFile.exists())
+            return placeholder;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+        placeholder = new Placeholder(options.outWidth, options.outHeight, null);
+        put(photoId, placeholder);
+        return placeholder;
+    }
+
+    synchronized void put(int photoId, Placeholder placeholder) {
+        Placeholder previous = entries.put(photoId, placeholder);
+        if (previous != null)
+            sizeBytes -= previous.getSizeBytes();
+        sizeBytes += placeholder.getSizeBytes();
+        Iterator<Map.Entry<Integer, Placeholder>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Placeholder eldest = iterator.next().getValue();
+            iterator.remove();
+            sizeBytes -= eldest.getSizeBytes();
+        }
+    }
+
+    synchronized void evictAll() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Decodes the embedded EXIF thumbnail of a jpeg file, sampled down to about {@link #PREVIEW_SIZE} pixels.
+     * @return the thumbnail or {@code null}, if the file has none
+     */
+    static Bitmap decodeExifThumbnail(String filePath) {
+        byte[] thumbnail;
+        try {
+            ExifInterface exif = new ExifInterface();
+            exif.readExif(filePath);
+            thumbnail = exif.getThumbnailBytes();
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // the parser throws unchecked exceptions for files without valid exif data
+            return null;
+        }
+        if (thumbnail == null)
+            return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+        options.inSampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / (options.inSampleSize * 2) >= PREVIEW_SIZE)
+            options.inSampleSize *= 2;
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+    }
+
+    /**
+     * Creates a preview from an already decoded bitmap.
+     */
+    static Bitmap createPreview(Bitmap bitmap) {
+        float scale = (float) PREVIEW_SIZE / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale >= 1f)
+            return bitmap.copy(Bitmap.Config.RGB_565, false);
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    static class Placeholder {
+
+        private final int width;
+        private final int height;
+        private final Bitmap preview;
+
+        Placeholder(int width, int height, Bitmap preview) {
+            this.width = width;
+            this.height = height;
+            this.preview = preview;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return the preview or {@code null}, if no preview could be created
+         */
+        Bitmap getPreview() {
+            return preview;
+        }
+
+        private long getSizeBytes() {
+            long previewSize = preview == null ? 0 : (long) preview.getRowBytes() * preview.getHeight();
+            return ENTRY_OVERHEAD_BYTES + previewSize;
+        }
+    }
+}
@@ -81,6 +81,20 @@ public class Comment extends BaseItem implements Parcelable {
         return photoId;
     }
 
+    /**
+     * Erzeugt einen Kommentar
+     * @param commentId id des Kommentars
+     * @param photoId id des Photos, zu dem der Kommentar gehört
+     * @param message Inhalt des Kommentars
+     * @param deleteable {@code true}, wenn das aktuelle Gerät den Kommentar löschen darf
+     */
+    public Comment(int commentId, int photoId, String message, boolean deleteable) {
+        this.commentId = commentId;
+        this.photoId = photoId;
+        this.message = message;
+        this.deleteable = deleteable;
+    }
+
     protected Comment(Parcel in) {
         photoId = in.readInt();
         commentId = in.readInt();
@@ -43,6 +43,18 @@ public class CommentsQueryResult {
     @Expose
     private List<Comment> comments = new ArrayList<>();
 
+    public CommentsQueryResult() { }
+
+    /**
+     * Erzeugt das Ergebnis zu der Abfrage der Kommentare eines Photos
+     * @param photoId id des Photos
+     * @param comments Liste von Kommentaren
+     */
+    public CommentsQueryResult(int photoId, List<Comment> comments) {
+        this.photoId = photoId;
+        this.comments = comments;
+    }
+
     /**
      * Liefert die photo id zurück, zu der die Kommentare zugeordnet sind
      * @return photo id
@@ -33,6 +33,8 @@ import com.google.gson.annotations.SerializedName;
 
 import java.io.File;
 
+import hochschuledarmstadt.photostream_tools.PhotoAccessor;
+
 /**
  * Repräsentiert ein Photo aus dem Photo Stream
  */
@@ -40,6 +42,15 @@ public class Photo extends BaseItem implements Parcelable{
 
     private static final String TAG = Photo.class.getName();
 
+    static {
+        PhotoAccessor.register(new PhotoAccessor() {
+            @Override
+            protected void setImageFilePath(Photo photo, String imageFilePath) {
+                photo.setImageFilePath(imageFilePath);
+            }
+        });
+    }
+
     @SerializedName("image")
     @Expose
     private String imageFilePath;
@@ -111,6 +122,22 @@ public class Photo extends BaseItem implements Parcelable{
         this.favorite = favorite ? 1 : 0;
     }
 
+    /**
+     * Setzt die Anzahl der Kommentare zu dem Photo
+     * @param commentCount Anzahl der Kommentare
+     */
+    public void setCommentCount(int commentCount) {
+        this.commentCount = commentCount;
+    }
+
+    /**
+     * Wird von der Bibliothek aufgerufen, sobald das Photo im Cache abgelegt wurde
+     * @param imageFilePath absoluter Dateipfad, an dem das Photo abgespeichert ist
+     */
+    void setImageFilePath(String imageFilePath) {
+        this.imageFilePath = imageFilePath;
+    }
+
     /**
      * Liefert die id des Photos zurück
      * @return {@code Integer} id des Photos
@@ -119,6 +146,24 @@ public class Photo extends BaseItem implements Parcelable{
         return id;
     }
 
+    /**
+     * Erzeugt ein Photo
+     * @param id id des Photos
+     * @param imageFilePath absoluter Dateipfad, an dem das Photo abgespeichert ist
+     * @param description Beschreibung des Photos
+     * @param favorite {@code true}, wenn das Photo über das aktuelle Gerät favorisiert ist
+     * @param deleteable {@code true}, wenn das aktuelle Gerät das Photo löschen darf
+     * @param commentCount Anzahl der Kommentare
+     */
+    public Photo(int id, String imageFilePath, String description, boolean favorite, boolean deleteable, int commentCount) {
+        this.id = id;
+        this.imageFilePath = imageFilePath;
+        this.description = description;
+        this.favorite = favorite ? 1 : 0;
+        this.deleteable = deleteable;
+        this.commentCount = commentCount;
+    }
+
     protected Photo(Parcel in) {
         id = in.readInt();
         imageFilePath = in.readString();
@@ -47,6 +47,20 @@ public class PhotoQueryResult {
     @Expose
     private List<Photo> photos = new ArrayList<>();
 
+    public PhotoQueryResult() { }
+
+    /**
+     * Erzeugt das Ergebnis zu einer Seite von Photos
+     * @param page Seitenzahl
+     * @param nextPage {@code true}, wenn noch eine weitere Seite vorhanden ist
+     * @param photos die Photos auf dieser Seite
+     */
+    public PhotoQueryResult(int page, boolean nextPage, List<Photo> photos) {
+        this.page = page;
+        this.nextPage = nextPage;
+        this.photos = photos;
+    }
+
     /**
      * Gibt die aktuelle Seite des Streams zurück
      * @return {@link Integer} Seitenzahl
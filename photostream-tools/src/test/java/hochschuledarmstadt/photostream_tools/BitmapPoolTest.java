@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BitmapPoolTest {
+
+    private static final int BITMAP_SIZE = 10;
+    private static final long BITMAP_BYTES = BITMAP_SIZE * BITMAP_SIZE * 4;
+
+    private BitmapPool bitmapPool;
+
+    @Before
+    public void setUp() {
+        // room for two bitmaps
+        bitmapPool = new BitmapPool(BITMAP_BYTES * 2);
+    }
+
+    @Test
+    public void reusesBitmapOfSameSize() {
+        Bitmap bitmap = createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+        bitmapPool.put(bitmap);
+        assertSame(bitmap, bitmapPool.get(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+        assertFalse(bitmap.isRecycled());
+    }
+
+    @Test
+    public void handsOutBitmapOnlyOnce() {
+        bitmapPool.put(createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+        bitmapPool.get(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+        assertNull(bitmapPool.get(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void doesNotReuseBitmapOfOtherConfig() {
+        bitmapPool.put(createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+        assertNull(bitmapPool.get(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.RGB_565));
+    }
+
+    @Test
+    public void doesNotReuseSmallerBitmap() {
+        bitmapPool.put(createBitmap(BITMAP_SIZE / 2, Bitmap.Config.ARGB_8888));
+        assertNull(bitmapPool.get(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void doesNotReuseMuchLargerBitmap() {
+        bitmapPool.put(createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+        assertNull(bitmapPool.get(BITMAP_SIZE / 4, BITMAP_SIZE / 4, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void dropsOldestBitmapWhenFull() {
+        Bitmap oldest = createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+        bitmapPool.put(oldest);
+        bitmapPool.put(createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+        bitmapPool.put(createBitmap(BITMAP_SIZE, Bitmap.Config.ARGB_8888));
+        assertTrue(oldest.isRecycled());
+    }
+
+    @Test
+    public void recyclesBitmapTooLargeForPool() {
+        Bitmap bitmap = createBitmap(BITMAP_SIZE * 2, Bitmap.Config.ARGB_8888);
+        bitmapPool.put(bitmap);
+        assertTrue(bitmap.isRecycled());
+        assertNull(bitmapPool.get(BITMAP_SIZE * 2, BITMAP_SIZE * 2, Bitmap.Config.ARGB_8888));
+    }
+
+    private static Bitmap createBitmap(int size, Bitmap.Config config) {
+        return Bitmap.createBitmap(size, size, config);
+    }
+}
@@ -35,6 +35,11 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -47,6 +52,7 @@ import static org.junit.Assert.assertTrue;
 public class CommentTableTest {
 
     private static final String DUMMY_COMMENT_STRING = "DUMMY_COMMENT_STRING";
+    private static final String OTHER_COMMENT_STRING = "OTHER_COMMENT_STRING";
     private static final String SOME_ETAG_VALUE = "some etag value";
     private static final String SOME_OTHER_ETAG_VALUE = "some other etag value";
     private static final int PHOTO_ID = 1;
@@ -76,7 +82,10 @@ public class CommentTableTest {
     }
 
     private long internalInsertComments() {
-        return commentTable.insertOrReplaceComments(PHOTO_ID, DUMMY_COMMENT_STRING, SOME_ETAG_VALUE);
+        List<Comment> comments = new ArrayList<>();
+        comments.add(new Comment(1, PHOTO_ID, DUMMY_COMMENT_STRING, false));
+        comments.add(new Comment(2, PHOTO_ID, OTHER_COMMENT_STRING, true));
+        return commentTable.insertOrReplaceComments(PHOTO_ID, comments, SOME_ETAG_VALUE);
     }
 
     @Test
@@ -94,7 +103,45 @@ public class CommentTableTest {
     @Test
     public void loadComments(){
         internalInsertComments();
-        assertEquals(DUMMY_COMMENT_STRING, commentTable.loadComments(1));
+        List<Comment> comments = commentTable.loadComments(PHOTO_ID);
+        assertEquals(2, comments.size());
+        assertEquals(DUMMY_COMMENT_STRING, comments.get(0).getMessage());
+        assertEquals(OTHER_COMMENT_STRING, comments.get(1).getMessage());
+        assertTrue(comments.get(1).isDeleteable());
+        assertEquals(PHOTO_ID, comments.get(1).getPhotoId());
+    }
+
+    @Test
+    public void insertCommentAppendsToStoredThread(){
+        internalInsertComments();
+        assertTrue(commentTable.insertComment(new Comment(3, PHOTO_ID, "new", false)));
+        List<Comment> comments = commentTable.loadComments(PHOTO_ID);
+        assertEquals(3, comments.size());
+        assertEquals(3, comments.get(2).getId());
+        assertEquals(SOME_ETAG_VALUE, commentTable.loadEtag(PHOTO_ID));
+    }
+
+    @Test
+    public void insertCommentIgnoresThreadThatIsNotStored(){
+        assertFalse(commentTable.insertComment(new Comment(3, PHOTO_ID, "new", false)));
+        assertNull(commentTable.loadComments(PHOTO_ID));
+    }
+
+    @Test
+    public void deleteComment(){
+        internalInsertComments();
+        commentTable.deleteComment(1);
+        List<Comment> comments = commentTable.loadComments(PHOTO_ID);
+        assertEquals(1, comments.size());
+        assertEquals(2, comments.get(0).getId());
+    }
+
+    @Test
+    public void deleteCommentsRemovesThread(){
+        internalInsertComments();
+        commentTable.deleteComments(PHOTO_ID);
+        assertNull(commentTable.loadComments(PHOTO_ID));
+        assertNull(commentTable.loadEtag(PHOTO_ID));
     }
 
     @Test
@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DatabaseExecutorTest {
+
+    private QueueExecutor readExecutor;
+    private QueueExecutor writeExecutor;
+    private DatabaseExecutor databaseExecutor;
+    private List<String> executed;
+    private DbTestConnectionDelegate connection;
+
+    @Before
+    public void setUp() {
+        readExecutor = new QueueExecutor();
+        writeExecutor = new QueueExecutor();
+        databaseExecutor = new DatabaseExecutor(readExecutor, writeExecutor);
+        executed = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        if (connection != null)
+            connection.recreateTables();
+    }
+
+    @Test
+    public void writesRunInSubmissionOrder() {
+        databaseExecutor.write(record("a"));
+        databaseExecutor.write(record("b"));
+        databaseExecutor.write(record("c"));
+        writeExecutor.runAll();
+        assertEquals(Arrays.asList("a", "b", "c"), executed);
+    }
+
+    @Test
+    public void writeSubmittedByWriteRunsAfterIt() {
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                executed.add("a");
+                databaseExecutor.write(record("c"));
+            }
+        });
+        databaseExecutor.write(record("b"));
+        writeExecutor.runAll();
+        assertEquals(Arrays.asList("a", "b", "c"), executed);
+    }
+
+    @Test
+    public void failingWriteDoesNotStopLaterWrites() {
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("write failed");
+            }
+        });
+        databaseExecutor.write(record("b"));
+        writeExecutor.runAll();
+        assertEquals(Arrays.asList("b"), executed);
+    }
+
+    @Test
+    public void readResultsAreDeliveredOnMainThreadInOrder() {
+        databaseExecutor.read(query("a"), callback());
+        databaseExecutor.read(query("b"), callback());
+        readExecutor.runAll();
+        assertTrue(executed.isEmpty());
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Arrays.asList("a", "b"), executed);
+    }
+
+    @Test
+    public void failingReadDeliversNull() {
+        databaseExecutor.read(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException("read failed");
+            }
+        }, callback());
+        readExecutor.runAll();
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Arrays.asList((String) null), executed);
+    }
+
+    @Test
+    public void closeWaitsForPendingWrites() {
+        databaseExecutor.attach(new DbTestConnectionDelegate(RuntimeEnvironment.application) {
+            @Override
+            synchronized void closeConnection() {
+                executed.add("close");
+                super.closeConnection();
+            }
+        });
+        databaseExecutor.write(record("a"));
+        databaseExecutor.close();
+        writeExecutor.runAll();
+        assertEquals(Arrays.asList("a", "close"), executed);
+    }
+
+    @Test
+    public void queuedWritesShareOneTransaction() {
+        attachConnection();
+        databaseExecutor.write(recordTransaction("a"));
+        databaseExecutor.write(recordTransaction("b"));
+        writeExecutor.runAll();
+        assertEquals(Arrays.asList("a:true", "b:true"), executed);
+    }
+
+    @Test
+    public void writeTransactionIsNotBatched() {
+        attachConnection();
+        databaseExecutor.write(recordTransaction("a"));
+        databaseExecutor.write(recordTransaction("b"));
+        databaseExecutor.writeTransaction(recordTransaction("c"));
+        databaseExecutor.write(recordTransaction("d"));
+        writeExecutor.runAll();
+        assertEquals(Arrays.asList("a:true", "b:true", "c:false", "d:false"), executed);
+    }
+
+    @Test
+    public void failingWriteTransactionKeepsOtherWrites() {
+        attachConnection();
+        databaseExecutor.write(insertPhoto(1));
+        databaseExecutor.write(insertPhoto(2));
+        databaseExecutor.writeTransaction(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = connection.openDatabase();
+                database.beginTransaction();
+                try {
+                    insertPhoto(3).run();
+                    throw new IllegalStateException("write failed");
+                } finally {
+                    database.endTransaction();
+                    connection.closeDatabase();
+                }
+            }
+        });
+        writeExecutor.runAll();
+        assertEquals(2, countPhotos());
+    }
+
+    @Test
+    public void failingWriteOfBatchIsRetriedAlone() {
+        attachConnection();
+        databaseExecutor.write(insertPhoto(1));
+        databaseExecutor.write(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("write failed");
+            }
+        });
+        databaseExecutor.write(insertPhoto(2));
+        writeExecutor.runAll();
+        assertEquals(2, countPhotos());
+    }
+
+    private void attachConnection() {
+        connection = new DbTestConnectionDelegate(RuntimeEnvironment.application);
+        databaseExecutor.attach(connection);
+    }
+
+    private Runnable recordTransaction(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = connection.openDatabase();
+                executed.add(name + ":" + database.inTransaction());
+                connection.closeDatabase();
+            }
+        };
+    }
+
+    private Runnable insertPhoto(final int photoId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = connection.openDatabase();
+                database.execSQL("INSERT OR REPLACE INTO " + PhotoTable.TABLE_NAME + " (" + PhotoTable.COLUMN_PHOTO_ID + ", "
+                        + PhotoTable.COLUMN_FAVORITE + ", " + PhotoTable.COLUMN_DELETEABLE + ", " + PhotoTable.COLUMN_COMMENT_COUNT
+                        + ") VALUES (" + photoId + ", 0, 0, 0)");
+                connection.closeDatabase();
+            }
+        };
+    }
+
+    private long countPhotos() {
+        SQLiteDatabase database = connection.openDatabase();
+        long count = DatabaseUtils.queryNumEntries(database, PhotoTable.TABLE_NAME);
+        connection.closeDatabase();
+        return count;
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.add(name);
+            }
+        };
+    }
+
+    private static Callable<String> query(final String result) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return result;
+            }
+        };
+    }
+
+    private DatabaseExecutor.Callback<String> callback() {
+        return new DatabaseExecutor.Callback<String>() {
+            @Override
+            public void onResult(String result) {
+                executed.add(result);
+            }
+        };
+    }
+
+    private static class QueueExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            tasks.add(runnable);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty())
+                tasks.poll().run();
+        }
+    }
+}
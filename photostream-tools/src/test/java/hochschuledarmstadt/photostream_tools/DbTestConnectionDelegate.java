@@ -27,19 +27,33 @@ package hochschuledarmstadt.photostream_tools;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.util.concurrent.Executor;
+
 
 public class DbTestConnectionDelegate extends DbConnection {
 
     public static final String DATABASE_NAME = "test.db";
 
+    // runs reads and writes on the calling thread, so tests see them in order
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
     public DbTestConnectionDelegate(Context context) {
-        super(context, DATABASE_NAME, null, 1);
+        super(context, DATABASE_NAME, null, 1, new DatabaseExecutor(DIRECT_EXECUTOR, DIRECT_EXECUTOR));
     }
 
     public void recreateTables(){
         openDatabase();
-        database.execSQL(CommentTable.TABLE_DROP);
-        database.execSQL(CommentTable.TABLE_CREATE);
+        PhotoSearchTable.dropTables(database);
+        CommentTable.dropTables(database);
+        CommentTable.createTables(database);
+        PhotoTable.dropTables(database);
+        PhotoTable.createTables(database);
+        PhotoSearchTable.createTables(database);
         closeDatabase();
     }
 }
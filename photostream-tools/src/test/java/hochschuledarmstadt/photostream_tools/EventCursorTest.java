@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays the part of the server: events are fed to the cursor the way socket.io hands them to the listeners,
+ * including the replay of a gap after a reconnect.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class EventCursorTest {
+
+    private static final String TOKEN_QUERY = "token=abc";
+
+    private EventCursor cursor;
+
+    @Before
+    public void setUp() {
+        cursor = new EventCursor();
+    }
+
+    private static JSONObject event(long sequence) throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("photo_id", 1);
+        jsonObject.put(EventCursor.KEY_EVENT_SEQUENCE, sequence);
+        return jsonObject;
+    }
+
+    private static JSONObject event(long sequence, String epoch) throws JSONException {
+        JSONObject jsonObject = event(sequence);
+        jsonObject.put(EventCursor.KEY_EVENT_EPOCH, epoch);
+        return jsonObject;
+    }
+
+    @Test
+    public void noResumeParameterBeforeFirstEvent() {
+        assertEquals(TOKEN_QUERY, cursor.appendTo(TOKEN_QUERY));
+    }
+
+    @Test
+    public void tracksObjectPayloadsAndPlainIds() throws JSONException {
+        assertTrue(cursor.accept(event(4)));
+        assertTrue(cursor.accept("17", 5));
+        assertEquals(5, cursor.getLastSequence());
+        assertEquals(TOKEN_QUERY + "&last_event=5", cursor.appendTo(TOKEN_QUERY));
+    }
+
+    @Test
+    public void replayedEventsAreProcessedOnce() throws JSONException {
+        cursor.accept(event(1));
+        cursor.accept(event(2));
+        // after the reconnect the server replays from its own position, which may overlap
+        assertFalse(cursor.accept(event(2)));
+        assertTrue(cursor.accept(event(3)));
+        assertFalse(cursor.accept("17", 3));
+    }
+
+    @Test
+    public void eventsWithoutSequenceAreAlwaysProcessed() throws JSONException {
+        cursor.accept(event(8));
+        assertTrue(cursor.accept("17"));
+        assertTrue(cursor.accept(new JSONObject()));
+        assertEquals(8, cursor.getLastSequence());
+    }
+
+    @Test
+    public void resyncMovesOrClearsTheCursor() throws JSONException {
+        cursor.accept(event(3));
+        cursor.reset(event(40));
+        assertFalse(cursor.accept(event(40)));
+        assertTrue(cursor.accept(event(41)));
+        cursor.reset();
+        assertEquals(TOKEN_QUERY, cursor.appendTo(TOKEN_QUERY));
+    }
+
+    @Test
+    public void eventsOfRestartedServerInstanceAreProcessed() throws JSONException {
+        cursor.accept(event(50, "a"));
+        assertEquals(TOKEN_QUERY + "&last_event=50&last_event_epoch=a", cursor.appendTo(TOKEN_QUERY));
+        // the new instance counts from the start again
+        assertTrue(cursor.accept(event(1, "b")));
+        assertTrue(cursor.accept("17", 2, "b"));
+        assertFalse(cursor.accept(event(2, "b")));
+        assertEquals(2, cursor.getLastSequence());
+    }
+
+    @Test
+    public void farBackwardJumpWithoutEpochResetsTheCursor() throws JSONException {
+        cursor.accept(event(5000));
+        assertFalse(cursor.accept(event(5000 - EventCursor.MAX_REPLAY_OVERLAP)));
+        assertTrue(cursor.accept(event(3)));
+        assertEquals(3, cursor.getLastSequence());
+        assertFalse(cursor.accept(event(3)));
+    }
+}
@@ -36,7 +36,7 @@ import static org.mockito.Mockito.when;
 class HttpCommentExecutorFactoryStub implements HttpExecutorFactory {
 
     @Override
-    public HttpPutExecutor createHttpPutExecutor(String url) {
+    public HttpPutExecutor createHttpPutExecutor(RequestType requestType, String url) {
         try {
             HttpPutExecutor executor = mock(HttpPutExecutor.class);
             when(executor.execute()).thenReturn(new HttpResponse(HttpResponse.STATUS_OK, null));
@@ -50,7 +50,7 @@ class HttpCommentExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpGetExecutor createHttpGetExecutor(String url) {
+    public HttpGetExecutor createHttpGetExecutor(RequestType requestType, String url) {
         try {
             JSONObject json = new JSONObject(Fakes.COMMENT_RESULT);
             HttpGetExecutor executor = mock(HttpGetExecutor.class);
@@ -67,7 +67,7 @@ class HttpCommentExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpDeleteExecutor createHttpDeleteExecutor(String url) {
+    public HttpDeleteExecutor createHttpDeleteExecutor(RequestType requestType, String url) {
         try {
             HttpDeleteExecutor executor = mock(HttpDeleteExecutor.class);
             when(executor.execute()).thenReturn(new HttpResponse(HttpResponse.STATUS_OK, null));
@@ -81,7 +81,7 @@ class HttpCommentExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpPostExecutor createHttpPostExecutor(String url) {
+    public HttpPostExecutor createHttpPostExecutor(RequestType requestType, String url) {
         try {
             JSONObject json = new JSONObject(Fakes.POST_COMMENT_OBJECT);
             HttpPostExecutor executor = mock(HttpPostExecutor.class);
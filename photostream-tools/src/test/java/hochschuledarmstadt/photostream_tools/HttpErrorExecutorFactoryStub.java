@@ -35,7 +35,7 @@ import static org.mockito.Mockito.when;
 public class HttpErrorExecutorFactoryStub implements HttpExecutorFactory {
 
     @Override
-    public HttpPostExecutor createHttpPostExecutor(String url) {
+    public HttpPostExecutor createHttpPostExecutor(RequestType requestType, String url) {
         try {
             HttpPostExecutor executor = mock(HttpPostExecutor.class);
             HttpError errorResult = new HttpError(HttpResponse.STATUS_INTERNAL_SERVER_ERROR, null);
@@ -50,7 +50,7 @@ public class HttpErrorExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpDeleteExecutor createHttpDeleteExecutor(String url) {
+    public HttpDeleteExecutor createHttpDeleteExecutor(RequestType requestType, String url) {
         try {
             HttpDeleteExecutor executor = mock(HttpDeleteExecutor.class);
             HttpError errorResult = new HttpError(HttpResponse.STATUS_INTERNAL_SERVER_ERROR, null);
@@ -65,7 +65,7 @@ public class HttpErrorExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpPutExecutor createHttpPutExecutor(String url) {
+    public HttpPutExecutor createHttpPutExecutor(RequestType requestType, String url) {
         try {
             HttpPutExecutor executor = mock(HttpPutExecutor.class);
             HttpError errorResult = new HttpError(HttpResponse.STATUS_INTERNAL_SERVER_ERROR, null);
@@ -80,7 +80,7 @@ public class HttpErrorExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpGetExecutor createHttpGetExecutor(String url) {
+    public HttpGetExecutor createHttpGetExecutor(RequestType requestType, String url) {
         try {
             HttpGetExecutor executor = mock(HttpGetExecutor.class);
             HttpError errorResult = new HttpError(HttpResponse.STATUS_INTERNAL_SERVER_ERROR, null);
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.HttpError;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class HttpExecutorRetryTest {
+
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(3, 100, 1000);
+
+    private static class TestExecutor extends HttpExecutor {
+
+        private final List<Long> sleeps = new ArrayList<>();
+
+        TestExecutor() {
+            super("http://localhost", "installation_id");
+        }
+
+        @Override
+        protected void awaitRetry(long millis) {
+            sleeps.add(millis);
+        }
+    }
+
+    private static class FailingAttempt implements HttpExecutor.Attempt {
+
+        private final int failures;
+        private final HttpError httpError;
+        private final int statusCode;
+        private int runs = 0;
+
+        FailingAttempt(int failures, HttpError httpError) {
+            this(failures, httpError, httpError != null ? httpError.getResponseCode() : -1);
+        }
+
+        FailingAttempt(int failures, HttpError httpError, int statusCode) {
+            this.failures = failures;
+            this.httpError = httpError;
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public HttpResponse run() throws IOException, BaseAsyncTask.HttpPhotoStreamException {
+            runs++;
+            if (runs > failures)
+                return new HttpResponse(HttpResponse.STATUS_OK, "");
+            if (httpError != null)
+                throw new BaseAsyncTask.HttpPhotoStreamException(statusCode, httpError);
+            throw new IOException("connection reset");
+        }
+    }
+
+    private long now;
+    private CircuitBreaker circuitBreaker;
+    private RetryMetrics retryMetrics;
+    private TestExecutor executor;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        circuitBreaker = new CircuitBreaker(3, 1000) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+        retryMetrics = new RetryMetrics(circuitBreaker);
+        executor = new TestExecutor();
+        executor.setRetryPolicy(RETRY_POLICY, circuitBreaker, retryMetrics);
+    }
+
+    @Test
+    public void retriesNetworkErrorsWithBackoff() throws Exception {
+        FailingAttempt attempt = new FailingAttempt(2, null);
+        HttpResponse httpResponse = executor.executeWithRetry(attempt);
+        assertEquals(HttpResponse.STATUS_OK, httpResponse.getStatusCode());
+        assertEquals(3, attempt.runs);
+        assertEquals(2, retryMetrics.getRetries());
+        assertEquals(2, executor.sleeps.size());
+        assertTrue(executor.sleeps.get(0) <= 100);
+        assertTrue(executor.sleeps.get(1) <= 200);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        FailingAttempt attempt = new FailingAttempt(1, new HttpError(404, "not found"));
+        try {
+            executor.executeWithRetry(attempt);
+            fail();
+        } catch (BaseAsyncTask.HttpPhotoStreamException e) {
+            assertEquals(1, attempt.runs);
+        }
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        FailingAttempt attempt = new FailingAttempt(1, new HttpError(HttpResponse.STATUS_INTERNAL_SERVER_ERROR, null));
+        executor.executeWithRetry(attempt);
+        assertEquals(2, attempt.runs);
+    }
+
+    @Test
+    public void classifiesByStatusNotByErrorBody() throws Exception {
+        FailingAttempt serverError = new FailingAttempt(1, new HttpError(400, "bad request"), HttpResponse.STATUS_INTERNAL_SERVER_ERROR);
+        executor.executeWithRetry(serverError);
+        assertEquals(2, serverError.runs);
+
+        FailingAttempt clientError = new FailingAttempt(1, new HttpError(HttpResponse.STATUS_INTERNAL_SERVER_ERROR, null), 404);
+        try {
+            executor.executeWithRetry(clientError);
+            fail();
+        } catch (BaseAsyncTask.HttpPhotoStreamException e) {
+            assertEquals(1, clientError.runs);
+        }
+    }
+
+    @Test
+    public void doesNotRetryNonIdempotentRequests() throws Exception {
+        executor.setIdempotent(false);
+        FailingAttempt attempt = new FailingAttempt(1, null);
+        try {
+            executor.executeWithRetry(attempt);
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, attempt.runs);
+            assertEquals(0, retryMetrics.getRetries());
+        }
+    }
+
+    @Test
+    public void circuitBreakerFailsFastWhileOpen() throws Exception {
+        FailingAttempt attempt = new FailingAttempt(3, null);
+        try {
+            executor.executeWithRetry(attempt);
+            fail();
+        } catch (IOException e) {
+            assertEquals(3, attempt.runs);
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+
+        FailingAttempt rejectedAttempt = new FailingAttempt(0, null);
+        try {
+            executor.executeWithRetry(rejectedAttempt);
+            fail();
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            assertEquals(0, rejectedAttempt.runs);
+            assertEquals(1, retryMetrics.getRejected());
+        }
+
+        now += 1000;
+        HttpResponse httpResponse = executor.executeWithRetry(rejectedAttempt);
+        assertEquals(HttpResponse.STATUS_OK, httpResponse.getStatusCode());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getOpenedCount());
+    }
+}
@@ -31,7 +31,7 @@ public class HttpImageLoaderFactoryStub extends HttpImageLoaderFactory{
     }
 
     @Override
-    public HttpImageLoader create() {
+    public HttpImageLoader create(ImageCacher imageCacher, ImageFetchScheduler.Priority priority, RequestType requestType) {
         return new HttpImageLoaderStub();
     }
 }
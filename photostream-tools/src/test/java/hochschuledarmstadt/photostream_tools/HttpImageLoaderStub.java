@@ -24,7 +24,6 @@
 
 package hochschuledarmstadt.photostream_tools;
 
-import java.nio.ByteBuffer;
 import java.util.List;
 
 import hochschuledarmstadt.photostream_tools.model.Photo;
@@ -32,31 +31,28 @@ import hochschuledarmstadt.photostream_tools.model.Photo;
 public class HttpImageLoaderStub extends HttpImageLoader {
 
     private Photo photo;
-    private byte[] bytes = ByteBuffer.allocate(4).putInt(0xffd8ffe0).array();
-    private boolean isRunning = true;
 
     public HttpImageLoaderStub() {
-        super(null);
+        super(null, null, null, null);
     }
 
     @Override
-    public void execute(List<Photo> photos) {
+    public int execute(List<Photo> photos) {
         photo = photos.get(0);
+        return 1;
     }
 
     @Override
-    public boolean isRunning() {
-        return isRunning;
+    public void revalidate(List<Photo> photos) {
     }
 
     @Override
     public HttpImage take() {
-        isRunning = false;
-        return new HttpImage(photo, bytes);
+        return new HttpImage(photo, true, new StageTimings());
     }
 
     @Override
-    public void onResponse(byte[] imageData, Photo photo, boolean fileNotFound) {
-        super.onResponse(imageData, photo, fileNotFound);
+    public void onResponse(Photo photo, boolean cached, StageTimings timings) {
+        super.onResponse(photo, cached, timings);
     }
 }
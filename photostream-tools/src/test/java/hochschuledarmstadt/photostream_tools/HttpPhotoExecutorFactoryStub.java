@@ -37,7 +37,7 @@ import static org.mockito.Mockito.when;
 public class HttpPhotoExecutorFactoryStub implements HttpExecutorFactory {
 
     @Override
-    public HttpPutExecutor createHttpPutExecutor(String url) {
+    public HttpPutExecutor createHttpPutExecutor(RequestType requestType, String url) {
         try {
             HttpPutExecutor executor = mock(HttpPutExecutor.class);
             when(executor.execute()).thenReturn(new HttpResponse(HttpResponse.STATUS_OK, null));
@@ -51,7 +51,7 @@ public class HttpPhotoExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpGetExecutor createHttpGetExecutor(String url) {
+    public HttpGetExecutor createHttpGetExecutor(RequestType requestType, String url) {
         try {
             JSONObject json = new JSONObject();
             json.put("page", 1);
@@ -72,7 +72,7 @@ public class HttpPhotoExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpDeleteExecutor createHttpDeleteExecutor(String url) {
+    public HttpDeleteExecutor createHttpDeleteExecutor(RequestType requestType, String url) {
         try {
             HttpDeleteExecutor executor = mock(HttpDeleteExecutor.class);
             when(executor.execute()).thenReturn(new HttpResponse(HttpResponse.STATUS_OK, null));
@@ -86,7 +86,7 @@ public class HttpPhotoExecutorFactoryStub implements HttpExecutorFactory {
     }
 
     @Override
-    public HttpPostExecutor createHttpPostExecutor(String url) {
+    public HttpPostExecutor createHttpPostExecutor(RequestType requestType, String url) {
         try {
             HttpPostExecutor executor = mock(HttpPostExecutor.class);
             when(executor.execute(any(String.class))).thenReturn(new HttpResponse(HttpResponse.STATUS_OK, Fakes.PHOTO_RESULT));
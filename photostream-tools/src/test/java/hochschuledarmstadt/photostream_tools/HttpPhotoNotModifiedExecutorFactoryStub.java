@@ -32,12 +32,12 @@ import static org.mockito.Mockito.when;
 public class HttpPhotoNotModifiedExecutorFactoryStub implements HttpExecutorFactory {
 
     @Override
-    public HttpPutExecutor createHttpPutExecutor(String url) {
+    public HttpPutExecutor createHttpPutExecutor(RequestType requestType, String url) {
         return null;
     }
 
     @Override
-    public HttpGetExecutor createHttpGetExecutor(String url) {
+    public HttpGetExecutor createHttpGetExecutor(RequestType requestType, String url) {
         try {
             HttpGetExecutor executor = mock(HttpGetExecutor.class);
             when(executor.execute()).thenReturn(new HttpResponse(HttpResponse.STATUS_CONTENT_NOT_MODIFIED, null));
@@ -51,12 +51,12 @@ public class HttpPhotoNotModifiedExecutorFactoryStub implements HttpExecutorFact
     }
 
     @Override
-    public HttpDeleteExecutor createHttpDeleteExecutor(String url) {
+    public HttpDeleteExecutor createHttpDeleteExecutor(RequestType requestType, String url) {
         return null;
     }
 
     @Override
-    public HttpPostExecutor createHttpPostExecutor(String url) {
+    public HttpPostExecutor createHttpPostExecutor(RequestType requestType, String url) {
         return null;
     }
 }
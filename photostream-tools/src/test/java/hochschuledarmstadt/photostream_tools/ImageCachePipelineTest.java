@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import hochschuledarmstadt.photostream_tools.model.HttpError;
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ImageCachePipelineTest {
+
+    private static final String TRUNCATED_PAGE = "{\"page\":1,\"has_next_page\":false,\"photos\":["
+            + "{\"photo_id\":1,\"comment\":\"eins\",\"favorite\":0,\"deleteable\":false,\"comment_count\":0},"
+            + "{\"photo_id\":2,\"comment\":\"zwei\",\"favorite\":0,\"deleteable\":false,\"comment_count\":0},"
+            + "{\"photo_id\":";
+
+    private ImageCacher imageCacher;
+    private FakeImageLoader imageLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        imageCacher = mock(ImageCacher.class);
+        when(imageCacher.isCached(anyInt())).thenReturn(false);
+        when(imageCacher.cacheImage(any(Photo.class), any(StageTimings.class))).thenReturn(true);
+        imageLoader = new FakeImageLoader();
+    }
+
+    @Test
+    public void awaitAllCollectsPersistedAndDownloadedImages() throws IOException {
+        ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        pipeline.submitStreamed(Fakes.buildFakePhoto(1, "aW5saW5l", "", false, false, 0));
+        pipeline.submit(Fakes.buildFakePhoto(2, null, "", false, false, 0));
+        imageLoader.deliverAll(true);
+        assertTrue(pipeline.awaitAll());
+        assertFalse(imageLoader.cancelled);
+    }
+
+    @Test
+    public void readerWaitsUntilThePreviousInlineImageHasBeenWritten() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                return written.await(5, TimeUnit.SECONDS);
+            }
+        }).when(imageCacher).cacheImage(any(Photo.class), any(StageTimings.class));
+        final ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        pipeline.submitStreamed(Fakes.buildFakePhoto(1, "aW5saW5l", "", false, false, 0));
+        final CountDownLatch secondSubmitted = new CountDownLatch(1);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.submitStreamed(Fakes.buildFakePhoto(2, "aW5saW5l", "", false, false, 0));
+                    secondSubmitted.countDown();
+                } catch (IOException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        reader.start();
+        assertFalse(secondSubmitted.await(200, TimeUnit.MILLISECONDS));
+        written.countDown();
+        assertTrue(secondSubmitted.await(5, TimeUnit.SECONDS));
+        reader.join(5000);
+        assertTrue(pipeline.awaitAll());
+    }
+
+    @Test
+    public void cancelCollectsEveryPendingDownload() throws IOException {
+        ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        pipeline.submit(Fakes.buildFakePhoto(1, null, "", false, false, 0));
+        pipeline.submit(Fakes.buildFakePhoto(2, null, "", false, false, 0));
+        pipeline.cancel();
+        assertTrue(imageLoader.cancelled);
+        assertEquals(0, imageLoader.results.size());
+        assertFalse(pipeline.awaitAll());
+    }
+
+    @Test
+    public void staleImageIsUsedRightAwayAndRevalidatedInTheBackground() throws IOException {
+        Photo photo = Fakes.buildFakePhoto(1, null, "", false, false, 0);
+        when(imageCacher.isCached(1)).thenReturn(true);
+        when(imageCacher.needsRevalidation(1)).thenReturn(true);
+        when(imageCacher.useCachedImage(photo)).thenReturn(true);
+        ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        pipeline.submit(photo);
+        // nothing is delivered, awaitAll() must not wait for the revalidation
+        assertTrue(pipeline.awaitAll());
+        assertEquals(0, imageLoader.executed);
+        assertEquals(1, imageLoader.revalidated);
+    }
+
+    @Test
+    public void evictedImageIsDownloadedAgain() throws IOException {
+        Photo photo = Fakes.buildFakePhoto(1, null, "", false, false, 0);
+        when(imageCacher.isCached(1)).thenReturn(true);
+        when(imageCacher.useCachedImage(photo)).thenReturn(false);
+        ImageCachePipeline pipeline = new ImageCachePipeline(imageCacher, imageLoader);
+        pipeline.submit(photo);
+        assertEquals(1, imageLoader.executed);
+        assertEquals(0, imageLoader.revalidated);
+        imageLoader.deliverAll(true);
+        assertTrue(pipeline.awaitAll());
+    }
+
+    @Test
+    public void parseFailureCancelsDownloadsOfThePhotosReadSoFar() throws Exception {
+        HttpGetExecutor executor = mock(HttpGetExecutor.class);
+        when(executor.execute()).thenReturn(new HttpResponse(HttpResponse.STATUS_OK, TRUNCATED_PAGE));
+        final List<PhotoQueryResult> results = new ArrayList<>();
+        LoadPhotosAsyncTask task = new LoadPhotosAsyncTask(executor, imageLoader, imageCacher, new LoadPhotosAsyncTask.GetPhotosCallback() {
+            @Override
+            public void onPhotosResult(PhotoQueryResult photoQueryResult) {
+                results.add(photoQueryResult);
+            }
+
+            @Override
+            public void onPhotosError(HttpError httpError) {
+            }
+
+            @Override
+            public void onNewETag(String eTag, int page, PhotoQueryResult photoQueryResult) {
+                results.add(photoQueryResult);
+            }
+
+            @Override
+            public PhotoQueryResult onNoNewPhotosAvailable(int page) {
+                return null;
+            }
+        });
+        assertNull(task.doInBackground());
+        assertTrue(results.isEmpty());
+        // both photos read before the malformed tail have been handed to the loader and cancelled again
+        assertEquals(2, imageLoader.executed);
+        assertTrue(imageLoader.cancelled);
+        assertEquals(0, imageLoader.results.size());
+    }
+
+    /**
+     * Keeps every download pending until it is delivered or cancelled
+     */
+    private static class FakeImageLoader extends HttpImageLoader {
+
+        final LinkedBlockingQueue<HttpImage> results = new LinkedBlockingQueue<>();
+        private final List<Photo> pending = new ArrayList<>();
+        volatile boolean cancelled = false;
+        int executed = 0;
+        int revalidated = 0;
+
+        FakeImageLoader() {
+            super(null, null, null, null);
+        }
+
+        @Override
+        public synchronized int execute(List<Photo> photos) {
+            pending.addAll(photos);
+            executed += photos.size();
+            return photos.size();
+        }
+
+        @Override
+        public synchronized void revalidate(List<Photo> photos) {
+            revalidated += photos.size();
+        }
+
+        synchronized void deliverAll(boolean cached) {
+            for (Photo photo : pending)
+                results.add(new HttpImage(photo, cached, new StageTimings()));
+            pending.clear();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            deliverAll(false);
+        }
+
+        @Override
+        public HttpImage take() throws InterruptedException {
+            return results.take();
+        }
+    }
+}
@@ -34,7 +34,7 @@ import hochschuledarmstadt.photostream_tools.model.Photo;
 public class ImageCacherStub extends ImageCacher{
 
     public ImageCacherStub() {
-        super(null);
+        super((Context) null);
     }
 
     @Override
@@ -47,13 +47,36 @@ public class ImageCacherStub extends ImageCacher{
         return true;
     }
 
+    @Override
+    boolean useCachedImage(Photo photo) {
+        return true;
+    }
+
+    @Override
+    void pin(int photoId) {
+    }
+
+    @Override
+    void unpin(int photoId) {
+    }
+
     @Override
     boolean isCached(int photoId) {
         return true;
     }
 
+    @Override
+    boolean needsRevalidation(int photoId) {
+        return false;
+    }
+
     @Override
     File getImageFilePathForPhotoId(int photoId) {
         return null;
     }
+
+    @Override
+    boolean deleteCachedImage(int photoId) {
+        return true;
+    }
 }
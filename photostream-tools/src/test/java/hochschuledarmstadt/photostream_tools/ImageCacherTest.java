@@ -36,14 +36,26 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import hochschuledarmstadt.photostream_tools.model.Photo;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -57,6 +69,10 @@ public class ImageCacherTest {
     private Context context;
     private ImageCacher imageCacher;
     private Photo photo;
+    private File cacheDir;
+    private Context cacheContext;
+    private String base64Image;
+    private byte[] data;
 
     private void educateMock(String fileName) {
         when(context.getFileStreamPath(fileName)).thenReturn(new File(CURRENT_DIR, fileName));
@@ -68,10 +84,16 @@ public class ImageCacherTest {
     }
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException {
         context = mock(Context.class);
         when(context.getFilesDir()).thenReturn(new File(CURRENT_DIR));
         imageCacher = new ImageCacher(context);
+        // an empty cache directory for the tests that build their own index
+        cacheDir = Files.createTempDirectory("image-cache").toFile();
+        cacheContext = mock(Context.class);
+        when(cacheContext.getFilesDir()).thenReturn(cacheDir);
+        base64Image = new Gson().fromJson(Fakes.PHOTO_RESULT, Photo.class).getImageFilePath();
+        data = Base64.decode(base64Image, Base64.DEFAULT);
     }
 
     @After
@@ -82,6 +104,8 @@ public class ImageCacherTest {
                 imageFile.delete();
             }
         }
+        new File(CURRENT_DIR, ImageCacheJournal.FILE_NAME).delete();
+        deleteDirectory(cacheDir);
     }
 
     @Test
@@ -102,6 +126,22 @@ public class ImageCacherTest {
         }
     }
 
+    @Test
+    public void cachedImagePathIsSeenByHolderOfPhoto() {
+        photo = buildPhotoForImageCacher();
+        educateMock(String.format("%s.jpg", photo.getId()));
+        // a listener keeps the instance that is handed to it, the path is set on that instance in place
+        List<Photo> delivered = Collections.singletonList(photo);
+        try {
+            assertTrue(imageCacher.cacheImage(photo));
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+        Photo seen = delivered.get(0);
+        assertEquals(imageCacher.getImageFilePathForPhotoId(photo.getId()).getAbsolutePath(), seen.getImageFilePath());
+        assertTrue(seen.getImageFile().exists());
+    }
+
     @Test
     public void detectImageAlreadyCached() {
         photo = buildPhotoForImageCacher();
@@ -114,6 +154,20 @@ public class ImageCacherTest {
         }
     }
 
+    @Test
+    public void deleteCachedImage() {
+        photo = buildPhotoForImageCacher();
+        educateMock(String.format("%s.jpg", photo.getId()));
+        try {
+            assertTrue(imageCacher.cacheImage(photo));
+            assertTrue(imageCacher.deleteCachedImage(photo.getId()));
+            assertFalse(imageCacher.isCached(photo.getId()));
+            assertFalse(new ImageCacher(context).isCached(photo.getId()));
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+    }
+
     @Test
     public void cacheImageWithBytes() {
         Gson gson = new Gson();
@@ -128,6 +182,242 @@ public class ImageCacherTest {
         }
     }
 
+    @Test
+    public void evictLeastRecentlyUsedImages() throws IOException {
+        long budget = data.length * 5 / 2;
+        ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext, budget));
+        assertTrue(cacher.cacheImage(Fakes.buildFakePhoto(1, base64Image, "", false, false, 0)));
+        assertTrue(cacher.cacheImage(Fakes.buildFakePhoto(2, base64Image, "", false, false, 0)));
+        // reading photo 1 makes photo 2 the least recently used image
+        assertTrue(cacher.cacheImage(Fakes.buildFakePhoto(1, null, "", false, false, 0)));
+
+        // the access order is restored from the journal
+        cacher = new ImageCacher(new CachedImageIndex(cacheContext, budget));
+        assertTrue(cacher.cacheImage(Fakes.buildFakePhoto(3, base64Image, "", false, false, 0)));
+        assertTrue(cacher.isCached(1));
+        assertFalse(cacher.isCached(2));
+        assertTrue(cacher.isCached(3));
+        assertFalse(new File(cacheDir, "2.jpg").exists());
+    }
+
+    @Test
+    public void truncatedImageIsNotCached() throws IOException {
+        ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext));
+        // a stream that ends early passes the header check, but misses the end of the image
+        assertFalse(cacher.cacheImage(Fakes.buildFakePhoto(1, null, "", false, false, 0), new ByteArrayInputStream(data, 0, data.length / 2)));
+        assertFalse(cacher.isCached(1));
+        assertFalse(new File(cacheDir, "1.jpg").exists());
+    }
+
+    @Test
+    public void concurrentWritersOfOnePhotoDoNotInterleave() throws Exception {
+        final ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext));
+        final CountDownLatch firstHalfWritten = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final CountDownLatch secondStarted = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cacher.cacheImage(Fakes.buildFakePhoto(1, null, "", false, false, 0), new PausingInputStream(data, data.length / 2, firstHalfWritten, resume));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+        first.start();
+        assertTrue(firstHalfWritten.await(5, TimeUnit.SECONDS));
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    secondStarted.countDown();
+                    cacher.cacheImage(Fakes.buildFakePhoto(1, null, "", false, false, 0), new ByteArrayInputStream(data));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+        second.start();
+        assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+        // the first writer holds the lock of the photo, so the second one has to park on it
+        awaitParked(second);
+        resume.countDown();
+        first.join(5000);
+        second.join(5000);
+        assertNull(failure.get());
+        assertTrue(cacher.isCached(1));
+        assertArrayEquals(data, Files.readAllBytes(new File(cacheDir, "1.jpg").toPath()));
+    }
+
+    @Test
+    public void resumePartialDownload() throws IOException {
+        int interruptedAt = data.length / 2;
+        CachedImageIndex.Validator validator = new CachedImageIndex.Validator("\"v1\"", 0, System.currentTimeMillis());
+        ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext));
+        Photo photo = Fakes.buildFakePhoto(1, null, "", false, false, 0);
+        try {
+            cacher.cacheDownloadedImage(photo, new InterruptedInputStream(data, interruptedAt), 0, validator, new StageTimings());
+            fail();
+        } catch (IOException e) {
+            assertFalse(cacher.isCached(1));
+        }
+
+        // the partial download and its validator survive a restart
+        cacher = new ImageCacher(new CachedImageIndex(cacheContext));
+        assertEquals(interruptedAt, cacher.getResumableLength(1));
+        assertEquals("\"v1\"", cacher.getValidator(1).getETag());
+        InputStream rest = new ByteArrayInputStream(data, interruptedAt, data.length - interruptedAt);
+        assertTrue(cacher.cacheDownloadedImage(photo, rest, interruptedAt, validator, new StageTimings()));
+        assertTrue(cacher.isCached(1));
+        assertEquals(0, cacher.getResumableLength(1));
+        assertArrayEquals(data, Files.readAllBytes(new File(cacheDir, "1.jpg").toPath()));
+    }
+
+    @Test
+    public void downloadEndingEarlyIsResumed() throws IOException {
+        int endsAt = data.length / 2;
+        CachedImageIndex.Validator validator = new CachedImageIndex.Validator("\"v1\"", 0, System.currentTimeMillis());
+        ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext));
+        Photo photo = Fakes.buildFakePhoto(1, null, "", false, false, 0);
+        try {
+            cacher.cacheDownloadedImage(photo, new ByteArrayInputStream(data, 0, endsAt), 0, validator, new StageTimings());
+            fail();
+        } catch (IOException e) {
+            assertFalse(cacher.isCached(1));
+        }
+        assertEquals(endsAt, cacher.getResumableLength(1));
+    }
+
+    @Test
+    public void revalidateAfterConfiguredAge() throws IOException {
+        long revalidateAfter = TimeUnit.HOURS.toMillis(1);
+        long validatedAt = System.currentTimeMillis() - 2 * revalidateAfter;
+        ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext), revalidateAfter);
+        Photo photo = Fakes.buildFakePhoto(1, null, "", false, false, 0);
+        CachedImageIndex.Validator validator = new CachedImageIndex.Validator("\"v1\"", 1000, validatedAt);
+        assertTrue(cacher.cacheDownloadedImage(photo, new ByteArrayInputStream(data), 0, validator, new StageTimings()));
+
+        cacher = new ImageCacher(new CachedImageIndex(cacheContext), revalidateAfter);
+        assertTrue(cacher.needsRevalidation(1));
+        // a 304 without validators keeps the known ones
+        cacher.onRevalidated(photo, new CachedImageIndex.Validator(null, 0, System.currentTimeMillis()));
+        assertFalse(cacher.needsRevalidation(1));
+        assertEquals("\"v1\"", cacher.getValidator(1).getETag());
+        assertEquals(1000, cacher.getValidator(1).getLastModified());
+    }
+
+    @Test
+    public void replacingImageNotifiesListeners() throws IOException {
+        final List<Integer> replaced = new ArrayList<>();
+        ReplacedImageNotifier.OnImageReplacedListener listener = new ReplacedImageNotifier.OnImageReplacedListener() {
+            @Override
+            public void onImageReplaced(int photoId) {
+                replaced.add(photoId);
+            }
+        };
+        ReplacedImageNotifier.addListener(listener);
+        try {
+            ImageCacher cacher = new ImageCacher(new CachedImageIndex(cacheContext));
+            Photo photo = Fakes.buildFakePhoto(1, null, "", false, false, 0);
+            CachedImageIndex.Validator validator = new CachedImageIndex.Validator("\"v1\"", 0, System.currentTimeMillis());
+            assertTrue(cacher.cacheDownloadedImage(photo, new ByteArrayInputStream(data), 0, validator, new StageTimings()));
+            assertTrue(replaced.isEmpty());
+            assertTrue(cacher.cacheDownloadedImage(photo, new ByteArrayInputStream(data), 0, validator, new StageTimings()));
+            assertEquals(Collections.singletonList(1), replaced);
+        } finally {
+            ReplacedImageNotifier.removeListener(listener);
+        }
+    }
+
+    private static void awaitParked(Thread thread) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(thread.isAlive() && System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Delivers the first {@code length} bytes, then fails like a dropped connection
+     */
+    private static class InterruptedInputStream extends InputStream {
+
+        private final InputStream inputStream;
+
+        InterruptedInputStream(byte[] data, int length) {
+            inputStream = new ByteArrayInputStream(data, 0, length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = inputStream.read();
+            if (b == -1)
+                throw new IOException("connection reset");
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = inputStream.read(buffer, offset, length);
+            if (read == -1)
+                throw new IOException("connection reset");
+            return read;
+        }
+    }
+
+    /**
+     * Delivers the first {@code length} bytes, then waits for {@code resume} before delivering the rest
+     */
+    private static class PausingInputStream extends InputStream {
+
+        private final InputStream inputStream;
+        private final int pauseAt;
+        private final CountDownLatch paused;
+        private final CountDownLatch resume;
+        private int position = 0;
+
+        PausingInputStream(byte[] data, int pauseAt, CountDownLatch paused, CountDownLatch resume) {
+            this.inputStream = new ByteArrayInputStream(data);
+            this.pauseAt = pauseAt;
+            this.paused = paused;
+            this.resume = resume;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position == pauseAt) {
+                paused.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.toString());
+                }
+            }
+            int limit = position < pauseAt ? Math.min(length, pauseAt - position) : length;
+            int read = inputStream.read(buffer, offset, limit);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+    }
+
     private Photo buildPhotoForImageCacher() {
         Gson gson = new Gson();
         photo = gson.fromJson(Fakes.PHOTO_RESULT, Photo.class);
@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ImageFetchSchedulerTest {
+
+    private ImageFetchScheduler scheduler;
+    private CountDownLatch release;
+    private List<String> executed;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        scheduler = new ImageFetchScheduler(1);
+        release = new CountDownLatch(1);
+        executed = Collections.synchronizedList(new ArrayList<String>());
+        // occupies the only connection, everything scheduled afterwards is queued
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.schedule(new RecordingFetch("blocker") {
+            @Override
+            public void run() {
+                started.countDown();
+                await(release);
+            }
+        }, ImageFetchScheduler.Priority.PUSH);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void queuedFetchesRunByPriorityThenInOrder() throws InterruptedException {
+        scheduler.schedule(new RecordingFetch("prefetch"), ImageFetchScheduler.Priority.PREFETCH);
+        scheduler.schedule(new RecordingFetch("visible 1"), ImageFetchScheduler.Priority.VISIBLE);
+        scheduler.schedule(new RecordingFetch("push"), ImageFetchScheduler.Priority.PUSH);
+        scheduler.schedule(new RecordingFetch("visible 2"), ImageFetchScheduler.Priority.VISIBLE);
+        release.countDown();
+        awaitIdle();
+        assertEquals(4, executed.size());
+        assertEquals("push", executed.get(0));
+        assertEquals("visible 1", executed.get(1));
+        assertEquals("visible 2", executed.get(2));
+        assertEquals("prefetch", executed.get(3));
+    }
+
+    @Test
+    public void cancelledQueuedFetchIsReportedAndNeverRuns() throws InterruptedException {
+        RecordingFetch fetch = new RecordingFetch("queued");
+        ImageFetchScheduler.Handle handle = scheduler.schedule(fetch, ImageFetchScheduler.Priority.VISIBLE);
+        handle.cancel();
+        assertTrue(fetch.cancelled);
+        assertFalse(fetch.aborted);
+        assertEquals(0, scheduler.getQueuedFetchCount());
+        release.countDown();
+        awaitIdle();
+        assertTrue(executed.isEmpty());
+    }
+
+    @Test
+    public void cancelledRunningFetchIsAborted() {
+        final CountDownLatch started = new CountDownLatch(1);
+        release.countDown();
+        RecordingFetch fetch = new RecordingFetch("running") {
+            @Override
+            public void run() {
+                started.countDown();
+                await(abortLatch);
+            }
+        };
+        ImageFetchScheduler.Handle handle = scheduler.schedule(fetch, ImageFetchScheduler.Priority.VISIBLE);
+        await(started);
+        handle.cancel();
+        assertTrue(fetch.aborted);
+        assertFalse(fetch.cancelled);
+    }
+
+    @Test
+    public void cancelGroupOnlyCancelsFetchesOfTheGroup() throws InterruptedException {
+        RecordingFetch photos = new RecordingFetch("photos");
+        RecordingFetch search = new RecordingFetch("search");
+        scheduler.schedule(photos, ImageFetchScheduler.Priority.VISIBLE, RequestType.LOAD_PHOTOS);
+        scheduler.schedule(search, ImageFetchScheduler.Priority.VISIBLE, RequestType.SEARCH_PHOTOS);
+        scheduler.cancelGroup(RequestType.LOAD_PHOTOS);
+        assertTrue(photos.cancelled);
+        assertFalse(search.cancelled);
+        release.countDown();
+        awaitIdle();
+        assertEquals(1, executed.size());
+        assertEquals("search", executed.get(0));
+    }
+
+    @Test
+    public void fetchOfARunningKeyWaitsWithoutAConnection() throws InterruptedException {
+        release.countDown();
+        awaitIdle();
+        scheduler.setMaxConnections(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        scheduler.schedule(new RecordingFetch("first") {
+            @Override
+            public void run() {
+                super.run();
+                started.countDown();
+                await(finish);
+            }
+        }, ImageFetchScheduler.Priority.PREFETCH, null, 1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.schedule(new RecordingFetch("second"), ImageFetchScheduler.Priority.VISIBLE, null, 1);
+        awaitWaiting(1);
+        final CountDownLatch other = new CountDownLatch(1);
+        scheduler.schedule(new RecordingFetch("other") {
+            @Override
+            public void run() {
+                super.run();
+                other.countDown();
+            }
+        }, ImageFetchScheduler.Priority.VISIBLE, null, 2);
+        // the waiting fetch must not hold the second connection
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        assertEquals(2, scheduler.getScheduledFetchCount());
+        finish.countDown();
+        awaitIdle();
+        assertEquals(3, executed.size());
+        assertEquals("second", executed.get(2));
+    }
+
+    @Test
+    public void cancelledWaitingFetchIsReportedAndNeverRuns() throws InterruptedException {
+        release.countDown();
+        awaitIdle();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        scheduler.schedule(new RecordingFetch("first") {
+            @Override
+            public void run() {
+                super.run();
+                started.countDown();
+                await(finish);
+            }
+        }, ImageFetchScheduler.Priority.VISIBLE, null, 1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        scheduler.setMaxConnections(2);
+        RecordingFetch waiting = new RecordingFetch("waiting");
+        ImageFetchScheduler.Handle handle = scheduler.schedule(waiting, ImageFetchScheduler.Priority.VISIBLE, null, 1);
+        awaitWaiting(1);
+        handle.cancel();
+        assertTrue(waiting.cancelled);
+        assertFalse(waiting.aborted);
+        finish.countDown();
+        awaitIdle();
+        assertEquals(1, executed.size());
+    }
+
+    @Test
+    public void loaderForgetsFinishedFetches() throws InterruptedException {
+        release.countDown();
+        awaitIdle();
+        ImageCacher imageCacher = mock(ImageCacher.class);
+        // nothing listens on port 1, so the fetch fails right away
+        HttpImageLoader imageLoader = new HttpImageLoader("http://127.0.0.1:1/photo/%s", imageCacher, scheduler, ImageFetchScheduler.Priority.VISIBLE);
+        assertEquals(1, imageLoader.execute(Collections.singletonList(Fakes.buildFakePhoto(1, null, "", false, false, 0))));
+        HttpImageLoader.HttpImage httpImage = imageLoader.take();
+        assertFalse(httpImage.isCached());
+        assertEquals(0, imageLoader.getPendingFetchCount());
+    }
+
+    @Test
+    public void loaderCancelReportsQueuedFetches() throws InterruptedException {
+        ImageCacher imageCacher = mock(ImageCacher.class);
+        HttpImageLoader imageLoader = new HttpImageLoader("http://127.0.0.1:1/photo/%s", imageCacher, scheduler, ImageFetchScheduler.Priority.VISIBLE);
+        List<Photo> photos = new ArrayList<>();
+        photos.add(Fakes.buildFakePhoto(1, null, "", false, false, 0));
+        photos.add(Fakes.buildFakePhoto(2, null, "", false, false, 0));
+        assertEquals(2, imageLoader.execute(photos));
+        imageLoader.cancel();
+        assertFalse(imageLoader.take().isCached());
+        assertFalse(imageLoader.take().isCached());
+        assertEquals(0, imageLoader.getPendingFetchCount());
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getScheduledFetchCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, scheduler.getScheduledFetchCount());
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getWaitingFetchCount() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, scheduler.getWaitingFetchCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class RecordingFetch implements ImageFetchScheduler.Fetch {
+
+        private final String name;
+        final CountDownLatch abortLatch = new CountDownLatch(1);
+        volatile boolean cancelled = false;
+        volatile boolean aborted = false;
+
+        RecordingFetch(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            executed.add(name);
+        }
+
+        @Override
+        public void onCancelled() {
+            cancelled = true;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+            abortLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import com.google.gson.Gson;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+import hochschuledarmstadt.photostream_tools.model.CommentsQueryResult;
+import hochschuledarmstadt.photostream_tools.model.HttpError;
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the decode throughput of a reflective Gson instance with the type adapters of {@link JsonCodec}
+ * on a page of photos with embedded images and on a comment thread. Each side gets warmup rounds before
+ * it is measured, so the numbers are not dominated by class loading and the jit. The throughput is only
+ * printed, a single timing run is too noisy to fail a build on.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class JsonCodecBenchmarkTest {
+
+    private static final int PHOTOS_PER_PAGE = 20;
+    private static final int COMMENTS_PER_THREAD = 100;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 200;
+
+    @Test
+    public void decodesModelClasses() {
+        Gson gson = JsonCodec.gson();
+        Photo photo = gson.fromJson("{\"photo_id\":3,\"image\":\"/a.jpg\",\"comment\":\"desc\",\"favorite\":1,\"deleteable\":true,\"comment_count\":2,\"unknown\":[1]}", Photo.class);
+        assertEquals(3, photo.getId());
+        assertEquals("/a.jpg", photo.getImageFilePath());
+        assertEquals("desc", photo.getDescription());
+        assertTrue(photo.isFavorite());
+        assertTrue(photo.isDeleteable());
+        assertEquals(2, photo.getCommentCount());
+
+        CommentsQueryResult comments = gson.fromJson(Fakes.COMMENT_RESULT, CommentsQueryResult.class);
+        assertEquals(1, comments.getPhotoId());
+        Comment comment = comments.getComments().get(0);
+        assertEquals(1, comment.getId());
+        assertEquals("Cooles Auto!", comment.getMessage());
+        assertFalse(comment.isDeleteable());
+
+        HttpError error = gson.fromJson("{\"response_code\":404,\"message\":\"not found\"}", HttpError.class);
+        assertEquals(404, (int) error.getResponseCode());
+        assertEquals("not found", error.getMessage());
+
+        PhotoQueryResult page = gson.fromJson(gson.toJson(gson.fromJson(createPhotoPage(), PhotoQueryResult.class)), PhotoQueryResult.class);
+        assertEquals(PHOTOS_PER_PAGE, page.getPhotos().size());
+        assertTrue(page.hasNextPage());
+    }
+
+    @Ignore("benchmark, run it on demand")
+    @Test
+    public void decodeThroughput() {
+        String photoPage = createPhotoPage();
+        String commentThread = createCommentThread();
+        Gson reflective = new Gson();
+        Gson codec = JsonCodec.gson();
+
+        report("photo page", measure(reflective, photoPage, PhotoQueryResult.class), measure(codec, photoPage, PhotoQueryResult.class));
+        report("comment thread", measure(reflective, commentThread, CommentsQueryResult.class), measure(codec, commentThread, CommentsQueryResult.class));
+    }
+
+    private static void report(String name, double reflectivePerSecond, double codecPerSecond) {
+        System.out.println(String.format("%s: reflective %.0f/s, type adapters %.0f/s", name, reflectivePerSecond, codecPerSecond));
+    }
+
+    private static double measure(Gson gson, String json, Class<?> type) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++)
+            gson.fromJson(json, type);
+        long start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++)
+            gson.fromJson(json, type);
+        return MEASURED_ROUNDS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static String createPhotoPage() {
+        Photo template = new Gson().fromJson(Fakes.PHOTO_RESULT, Photo.class);
+        StringBuilder builder = new StringBuilder("{\"page\":1,\"has_next_page\":true,\"photos\":[");
+        for (int i = 0; i < PHOTOS_PER_PAGE; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append("{\"photo_id\":").append(i + 1)
+                    .append(",\"image\":").append(new Gson().toJson(template.getImageFilePath()))
+                    .append(",\"comment\":\"Beschreibung von Photo ").append(i + 1).append("\"")
+                    .append(",\"favorite\":").append(i % 2)
+                    .append(",\"deleteable\":").append(i % 3 == 0)
+                    .append(",\"comment_count\":").append(i).append('}');
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static String createCommentThread() {
+        StringBuilder builder = new StringBuilder("{\"photo_id\":1,\"comments\":[");
+        for (int i = 0; i < COMMENTS_PER_THREAD; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append("{\"comment_id\":").append(i + 1)
+                    .append(",\"message\":\"Kommentar Nummer ").append(i + 1).append(" zu diesem Photo\"")
+                    .append(",\"deleteable\":").append(i % 4 == 0).append('}');
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.CommentsQueryResult;
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class JsonResultReaderTest {
+
+    private static final String PHOTO_PAGE = "{\"page\":2,\"has_next_page\":true,\"photos\":["
+            + "{\"photo_id\":1,\"image\":\"/1.jpg\",\"comment\":\"eins\",\"favorite\":0,\"deleteable\":false,\"comment_count\":0},"
+            + "{\"photo_id\":2,\"image\":\"/2.jpg\",\"comment\":\"zwei\",\"favorite\":1,\"deleteable\":true,\"comment_count\":3}]}";
+
+    private JsonResultReader jsonResultReader;
+    private List<Integer> readPhotoIds;
+    private JsonResultReader.OnPhotoReadListener listener;
+
+    @Before
+    public void setUp() {
+        jsonResultReader = new JsonResultReader(JsonCodec.gson());
+        readPhotoIds = new ArrayList<>();
+        listener = new JsonResultReader.OnPhotoReadListener() {
+            @Override
+            public void onPhotoRead(Photo photo) {
+                readPhotoIds.add(photo.getId());
+            }
+        };
+    }
+
+    @Test
+    public void readPhotoPageFromStream() throws IOException {
+        HttpResponse httpResponse = new HttpResponse(HttpResponse.STATUS_OK, stream(PHOTO_PAGE), Charset.forName("UTF-8"), mock(HttpURLConnection.class));
+        PhotoQueryResult result = jsonResultReader.readPhotoQueryResult(httpResponse.getReader(), listener);
+        assertEquals(2, result.getPage());
+        assertTrue(result.hasNextPage());
+        assertEquals(2, result.getPhotos().size());
+        assertEquals("zwei", result.getPhotos().get(1).getDescription());
+        assertEquals(3, result.getPhotos().get(1).getCommentCount());
+        // every photo is handed out in the order of the response
+        assertEquals(2, readPhotoIds.size());
+        assertEquals(1, (int) readPhotoIds.get(0));
+        assertEquals(2, (int) readPhotoIds.get(1));
+    }
+
+    @Test
+    public void readHasNextPageSentAsNumber() throws IOException {
+        PhotoQueryResult result = jsonResultReader.readPhotoQueryResult(new StringReader("{\"page\":1,\"has_next_page\":1,\"photos\":[]}"), listener);
+        assertTrue(result.hasNextPage());
+        result = jsonResultReader.readPhotoQueryResult(new StringReader("{\"page\":1,\"has_next_page\":0,\"photos\":[]}"), listener);
+        assertFalse(result.hasNextPage());
+    }
+
+    @Test
+    public void photosBeforeAMalformedTailAreHandedOut() {
+        String truncated = PHOTO_PAGE.substring(0, PHOTO_PAGE.indexOf("{\"photo_id\":2")) + "{\"photo_id\":";
+        try {
+            jsonResultReader.readPhotoQueryResult(new StringReader(truncated), listener);
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, readPhotoIds.size());
+            assertEquals(1, (int) readPhotoIds.get(0));
+        }
+    }
+
+    @Test
+    public void readCommentsFromStream() throws IOException {
+        CommentsQueryResult result = jsonResultReader.readCommentsQueryResult(new StringReader(Fakes.COMMENT_RESULT));
+        assertEquals(1, result.getPhotoId());
+        assertEquals("Cooles Auto!", result.getComments().get(0).getMessage());
+    }
+
+    @Test
+    public void closeDisconnectsStreamedResponse() throws IOException {
+        InputStream body = mock(InputStream.class);
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        HttpResponse httpResponse = new HttpResponse(HttpResponse.STATUS_OK, body, Charset.forName("UTF-8"), connection);
+        httpResponse.close();
+        verify(body).close();
+        verify(connection).disconnect();
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8")));
+    }
+}
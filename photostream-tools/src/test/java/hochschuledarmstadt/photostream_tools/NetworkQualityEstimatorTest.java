@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class NetworkQualityEstimatorTest {
+
+    private static final int BASE_PAGE_SIZE = 6;
+    private static final int MAX_CONNECTIONS = 4;
+
+    private NetworkQualityEstimator estimator;
+
+    @Before
+    public void setUp() {
+        estimator = new NetworkQualityEstimator();
+    }
+
+    @Test
+    public void defaultsWithoutMeasurements() {
+        estimator.onRoundTrip(TimeUnit.MILLISECONDS.toNanos(2000));
+        assertEquals(NetworkQualityEstimator.Quality.UNKNOWN, estimator.getQuality());
+        assertEquals(BASE_PAGE_SIZE, estimator.getPageSize(BASE_PAGE_SIZE));
+        assertEquals(MAX_CONNECTIONS, estimator.getImageConnections(MAX_CONNECTIONS));
+        assertEquals(HttpExecutor.CONNECT_TIMEOUT, estimator.getTimeoutMillis());
+    }
+
+    @Test
+    public void poorConnection() {
+        for (int i = 0; i < 5; i++) {
+            estimator.onRoundTrip(TimeUnit.MILLISECONDS.toNanos(1500));
+            // 100 KB in 4 seconds
+            estimator.onTransfer(100 * 1024, TimeUnit.SECONDS.toNanos(4));
+        }
+        assertEquals(NetworkQualityEstimator.Quality.POOR, estimator.getQuality());
+        assertEquals(BASE_PAGE_SIZE / 2, estimator.getPageSize(BASE_PAGE_SIZE));
+        assertEquals(1, estimator.getImageConnections(MAX_CONNECTIONS));
+        assertEquals(12000, estimator.getTimeoutMillis());
+    }
+
+    @Test
+    public void goodConnection() {
+        for (int i = 0; i < 5; i++) {
+            estimator.onRoundTrip(TimeUnit.MILLISECONDS.toNanos(40));
+            // 1 MB in 200 ms
+            estimator.onTransfer(1024 * 1024, TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        assertEquals(NetworkQualityEstimator.Quality.GOOD, estimator.getQuality());
+        assertEquals(BASE_PAGE_SIZE * 2, estimator.getPageSize(BASE_PAGE_SIZE));
+        assertEquals(MAX_CONNECTIONS, estimator.getImageConnections(MAX_CONNECTIONS));
+        assertEquals(HttpExecutor.CONNECT_TIMEOUT, estimator.getTimeoutMillis());
+    }
+
+    @Test
+    public void smallTransfersAreIgnored() {
+        for (int i = 0; i < 5; i++)
+            estimator.onTransfer(1024, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(NetworkQualityEstimator.Quality.UNKNOWN, estimator.getQuality());
+    }
+
+    @Test
+    public void pageSizeIsKeptUntilTheNextFirstPage() {
+        UrlBuilder urlBuilder = new UrlBuilder("http://localhost", BASE_PAGE_SIZE, estimator);
+        urlBuilder.getLoadPhotosApiUrl(true);
+        for (int i = 0; i < 5; i++)
+            estimator.onRoundTrip(TimeUnit.MILLISECONDS.toNanos(1500));
+        assertTrue(urlBuilder.getLoadMorePhotosApiUrl().endsWith("page_size=" + BASE_PAGE_SIZE));
+        assertEquals(BASE_PAGE_SIZE, urlBuilder.getPhotoPageSize());
+        urlBuilder.getLoadPhotosApiUrl(true);
+        assertEquals(BASE_PAGE_SIZE / 2, urlBuilder.getPhotoPageSize());
+        assertTrue(urlBuilder.getLoadMorePhotosApiUrl().endsWith("page_size=" + BASE_PAGE_SIZE / 2));
+    }
+
+    @Test
+    public void resyncKeepsThePageSize() {
+        UrlBuilder urlBuilder = new UrlBuilder("http://localhost", BASE_PAGE_SIZE, estimator);
+        urlBuilder.getLoadPhotosApiUrl(true);
+        for (int i = 0; i < 5; i++)
+            estimator.onRoundTrip(TimeUnit.MILLISECONDS.toNanos(1500));
+        assertTrue(urlBuilder.getResyncPhotosApiUrl().contains("page_size=" + BASE_PAGE_SIZE + "&"));
+        assertEquals(BASE_PAGE_SIZE, urlBuilder.getPhotoPageSize());
+    }
+}
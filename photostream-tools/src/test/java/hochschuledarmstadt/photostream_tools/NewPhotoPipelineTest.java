@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class NewPhotoPipelineTest {
+
+    private final List<Runnable> downloads = new ArrayList<>();
+    private final Set<Integer> failingPhotos = new HashSet<>();
+    private AndroidSocket.OnMessageListener listener;
+    private NewPhotoPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        listener = mock(AndroidSocket.OnMessageListener.class);
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                downloads.add(runnable);
+            }
+        };
+        pipeline = new NewPhotoPipeline(null, null, executor, new Handler(Looper.getMainLooper()), listener) {
+            @Override
+            boolean cache(Photo photo) {
+                return !failingPhotos.contains(photo.getId());
+            }
+        };
+    }
+
+    private static Photo photo(int id) {
+        return Fakes.buildFakePhoto(id, "/photos/" + id + ".jpg", "photo " + id, false, false, 0);
+    }
+
+    @Test
+    public void deliversInOrderOfArrival() {
+        Photo first = photo(1);
+        Photo second = photo(2);
+        Photo third = photo(3);
+        pipeline.submit(first);
+        pipeline.submit(second);
+        pipeline.submit(third);
+
+        downloads.get(2).run();
+        downloads.get(1).run();
+        ShadowLooper.idleMainLooper();
+        verify(listener, never()).onNewPhoto(any(Photo.class));
+
+        downloads.get(0).run();
+        ShadowLooper.idleMainLooper();
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onNewPhoto(first);
+        inOrder.verify(listener).onNewPhoto(second);
+        inOrder.verify(listener).onNewPhoto(third);
+    }
+
+    @Test
+    public void failedPhotoDoesNotBlockLaterPhotos() {
+        failingPhotos.add(1);
+        Photo second = photo(2);
+        pipeline.submit(photo(1));
+        pipeline.submit(second);
+
+        downloads.get(1).run();
+        downloads.get(0).run();
+        ShadowLooper.idleMainLooper();
+        verify(listener, times(1)).onNewPhoto(any(Photo.class));
+        verify(listener).onNewPhoto(second);
+    }
+
+    @Test
+    public void eventOfPendingPhotoIsDispatchedAfterThePhoto() {
+        final List<String> dispatched = new ArrayList<>();
+        Photo first = photo(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                dispatched.add("photo");
+                return null;
+            }
+        }).when(listener).onNewPhoto(first);
+        pipeline.submit(first);
+        assertTrue(pipeline.deferUntilDelivered(1, new Runnable() {
+            @Override
+            public void run() {
+                dispatched.add("comment");
+            }
+        }));
+        assertFalse(pipeline.deferUntilDelivered(2, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+
+        downloads.get(0).run();
+        ShadowLooper.idleMainLooper();
+        assertEquals(Arrays.asList("photo", "comment"), dispatched);
+    }
+
+    @Test
+    public void deletedPendingPhotoIsDroppedWithItsEvents() {
+        final List<String> dispatched = new ArrayList<>();
+        Photo second = photo(2);
+        pipeline.submit(photo(1));
+        pipeline.submit(second);
+        pipeline.deferUntilDelivered(1, new Runnable() {
+            @Override
+            public void run() {
+                dispatched.add("comment of deleted photo");
+            }
+        });
+        pipeline.deferBehindPending(new Runnable() {
+            @Override
+            public void run() {
+                dispatched.add("comment deleted");
+            }
+        });
+        pipeline.photoDeleted(1);
+
+        downloads.get(0).run();
+        downloads.get(1).run();
+        ShadowLooper.idleMainLooper();
+        verify(listener, times(1)).onNewPhoto(any(Photo.class));
+        verify(listener).onNewPhoto(second);
+        assertEquals(Collections.singletonList("comment deleted"), dispatched);
+    }
+
+    @Test
+    public void destroyDropsPendingPhotos() {
+        pipeline.submit(photo(1));
+        pipeline.destroy();
+        assertFalse(pipeline.deferBehindPending(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+
+        downloads.get(0).run();
+        ShadowLooper.idleMainLooper();
+        verify(listener, never()).onNewPhoto(any(Photo.class));
+    }
+}
@@ -183,6 +183,21 @@ public class PhotoAdapterTest {
         assertEquals(NEW_COMMENT_COUNT, photo.getCommentCount());
     }
 
+    @Test
+    public void testUpdatedCommentCountIsSeenByObserver() {
+        final int[] seenCommentCount = {-1};
+        Photo photo = Fakes.buildFakePhoto(1, null, null, false, true, 1);
+        simplePhotoAdapter.add(photo);
+        simplePhotoAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                seenCommentCount[0] = simplePhotoAdapter.getItemAtPosition(positionStart).getCommentCount();
+            }
+        });
+        simplePhotoAdapter.updateCommentCount(1, 2);
+        assertEquals(2, seenCommentCount[0]);
+    }
+
     @Test
     public void testSetLikeForPhoto() {
         final int photoId = 1;
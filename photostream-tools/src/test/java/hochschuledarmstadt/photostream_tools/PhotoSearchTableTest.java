@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PhotoSearchTableTest {
+
+    private static final int PAGE = 1;
+    private static final int PAGE_SIZE = 5;
+
+    private PhotoTable photoTable;
+    private CommentTable commentTable;
+    private PhotoSearchTable photoSearchTable;
+    DbTestConnectionDelegate dbTestDelegate;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application.getApplicationContext();
+        dbTestDelegate = new DbTestConnectionDelegate(context);
+        photoTable = new PhotoTable(dbTestDelegate);
+        commentTable = new CommentTable(dbTestDelegate);
+        photoSearchTable = new PhotoSearchTable(dbTestDelegate);
+        photoTable.openDatabase();
+        commentTable.openDatabase();
+        photoSearchTable.openDatabase();
+
+        List<Photo> photos = new ArrayList<>();
+        photos.add(Fakes.buildFakePhoto(2, "/photos/2.jpg", "Sunset at the beach", false, false, 1));
+        photos.add(Fakes.buildFakePhoto(1, "/photos/1.jpg", "Mountains in the morning", false, false, 0));
+        photoTable.insertOrReplacePhotos(new PhotoQueryResult(PAGE, false, photos), PAGE, PAGE_SIZE, "etag");
+        List<Comment> comments = new ArrayList<>();
+        comments.add(new Comment(10, 1, "what a beautiful view", false));
+        commentTable.insertOrReplaceComments(1, comments, "etag");
+    }
+
+    @After
+    public void tearDown() {
+        photoSearchTable.closeDatabase();
+        commentTable.closeDatabase();
+        photoTable.closeDatabase();
+        dbTestDelegate.recreateTables();
+    }
+
+    @Test
+    public void findsPhotosByDescriptionPrefix() {
+        List<Photo> photos = photoSearchTable.searchPhotos("sun");
+        assertEquals(1, photos.size());
+        assertEquals(2, photos.get(0).getId());
+    }
+
+    @Test
+    public void findsPhotosByComment() {
+        List<Photo> photos = photoSearchTable.searchPhotos("beautiful");
+        assertEquals(1, photos.size());
+        assertEquals(1, photos.get(0).getId());
+    }
+
+    @Test
+    public void everyWordHasToMatch() {
+        assertEquals(2, photoSearchTable.searchPhotos("the").size());
+        assertTrue(photoSearchTable.searchPhotos("the OR ocean").isEmpty());
+    }
+
+    @Test
+    public void followsChangesOfTheCachedRows() {
+        commentTable.insertComment(new Comment(11, 2, "lovely colors", false));
+        assertEquals(2, photoSearchTable.searchPhotos("lovely").get(0).getId());
+        commentTable.deleteComment(10);
+        assertTrue(photoSearchTable.searchPhotos("beautiful").isEmpty());
+        photoTable.deletePhoto(2);
+        assertTrue(photoSearchTable.searchPhotos("sunset").isEmpty());
+    }
+
+    @Test
+    public void ignoresQuerySyntax() {
+        assertNull(PhotoSearchTable.toMatchExpression(" \"*( "));
+        assertEquals("\"sun*\" \"beach*\"", PhotoSearchTable.toMatchExpression("sun -beach"));
+    }
+
+}
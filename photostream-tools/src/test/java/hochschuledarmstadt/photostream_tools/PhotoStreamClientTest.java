@@ -39,6 +39,7 @@ import org.robolectric.annotation.Config;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import hochschuledarmstadt.photostream_tools.callback.OnCommentDeletedListener;
 import hochschuledarmstadt.photostream_tools.callback.OnCommentUploadFailedListener;
@@ -60,6 +61,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNotNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -93,7 +95,13 @@ public class PhotoStreamClientTest {
                 imageCacherFactoryStub ,
                 dbDelegate,
                 webSocketClient,
-                factory
+                factory,
+                new RequestDispatcher(new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        Robolectric.getBackgroundThreadScheduler().post(runnable);
+                    }
+                }, 4)
         );
         this.photoStreamClient = new PhotoStreamClientDelegate("someId", client);
         client.bootstrap();
@@ -427,6 +435,24 @@ public class PhotoStreamClientTest {
         verify(requestCallback, times(1)).onRequestFinished();
     }
 
+    @Test
+    public void loadCommentsTwiceSharesOneRequest(){
+        HttpCommentExecutorFactoryStub factory = spy(new HttpCommentExecutorFactoryStub());
+        createPhotoStreamClient(factory);
+        OnCommentsReceivedListener callback = mock(OnCommentsReceivedListener.class);
+        OnRequestListener requestCallback = mock(OnRequestListener.class);
+        photoStreamClient.addOnCommentsReceivedListener(callback);
+        photoStreamClient.addOnRequestListener(requestCallback, RequestType.LOAD_COMMENTS);
+        photoStreamClient.loadComments(1);
+        photoStreamClient.loadComments(1);
+        Robolectric.flushBackgroundThreadScheduler();
+        photoStreamClient.removeOnCommentsReceivedListener(callback);
+        verify(factory, times(1)).createHttpGetExecutor(any(RequestType.class), any(String.class));
+        verify(requestCallback, times(1)).onRequestStarted();
+        verify(callback, times(1)).onCommentsReceived(eq(1), any(List.class));
+        verify(requestCallback, times(1)).onRequestFinished();
+    }
+
     @Test
     public void loadCommentsError(){
         createPhotoStreamClient(new HttpErrorExecutorFactoryStub());
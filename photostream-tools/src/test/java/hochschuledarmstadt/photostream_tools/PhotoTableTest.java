@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PhotoTableTest {
+
+    private static final String SOME_ETAG_VALUE = "some etag value";
+    private static final int PAGE = 1;
+    private static final int PAGE_SIZE = 5;
+
+    private PhotoTable photoTable;
+    DbTestConnectionDelegate dbTestDelegate;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application.getApplicationContext();
+        dbTestDelegate = new DbTestConnectionDelegate(context);
+        photoTable = new PhotoTable(dbTestDelegate);
+        photoTable.openDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        photoTable.closeDatabase();
+        dbTestDelegate.recreateTables();
+    }
+
+    private void internalInsertPhotos() {
+        List<Photo> photos = new ArrayList<>();
+        photos.add(Fakes.buildFakePhoto(3, "/photos/3.jpg", "third", false, true, 0));
+        photos.add(Fakes.buildFakePhoto(1, "/photos/1.jpg", "first", true, false, 2));
+        photoTable.insertOrReplacePhotos(new PhotoQueryResult(PAGE, true, photos), PAGE, PAGE_SIZE, SOME_ETAG_VALUE);
+    }
+
+    @Test
+    public void loadCachedPage() {
+        internalInsertPhotos();
+        PhotoQueryResult result = photoTable.getCachedPhotoQueryResult(PAGE, PAGE_SIZE);
+        assertEquals(PAGE, result.getPage());
+        assertTrue(result.hasNextPage());
+        assertEquals(2, result.getPhotos().size());
+        Photo photo = result.getPhotos().get(0);
+        assertEquals(3, photo.getId());
+        assertEquals("/photos/3.jpg", photo.getImageFilePath());
+        assertEquals("third", photo.getDescription());
+        assertFalse(photo.isFavorite());
+        assertTrue(photo.isDeleteable());
+        assertEquals(1, result.getPhotos().get(1).getId());
+    }
+
+    @Test
+    public void loadCachedPageShouldReturnNull() {
+        assertNull(photoTable.getCachedPhotoQueryResult(PAGE, PAGE_SIZE));
+        internalInsertPhotos();
+        assertNull(photoTable.getCachedPhotoQueryResult(PAGE, PAGE_SIZE + 1));
+    }
+
+    @Test
+    public void loadEtag() {
+        assertNull(photoTable.loadEtagFor(PAGE, PAGE_SIZE));
+        internalInsertPhotos();
+        assertEquals(SOME_ETAG_VALUE, photoTable.loadEtagFor(PAGE, PAGE_SIZE));
+    }
+
+    @Test
+    public void replacePage() {
+        internalInsertPhotos();
+        List<Photo> photos = new ArrayList<>();
+        photos.add(Fakes.buildFakePhoto(1, "/photos/1.jpg", "first", true, false, 3));
+        photoTable.insertOrReplacePhotos(new PhotoQueryResult(PAGE, false, photos), PAGE, PAGE_SIZE, "new etag");
+        PhotoQueryResult result = photoTable.getCachedPhotoQueryResult(PAGE, PAGE_SIZE);
+        assertFalse(result.hasNextPage());
+        assertEquals(1, result.getPhotos().size());
+        assertEquals(3, result.getPhotos().get(0).getCommentCount());
+    }
+
+    @Test
+    public void updatePhotosInPlace() {
+        internalInsertPhotos();
+        photoTable.updateFavorite(3, true);
+        photoTable.updateCommentCount(3, 7);
+        photoTable.deletePhoto(1);
+        List<Photo> photos = photoTable.getCachedPhotoQueryResult(PAGE, PAGE_SIZE).getPhotos();
+        assertEquals(1, photos.size());
+        assertTrue(photos.get(0).isFavorite());
+        assertEquals(7, photos.get(0).getCommentCount());
+    }
+
+    @Test
+    public void replacePageDeletesPhotosThatDroppedOut() {
+        internalInsertPhotos();
+        List<Photo> photos = new ArrayList<>();
+        photos.add(Fakes.buildFakePhoto(1, "/photos/1.jpg", "first", true, false, 2));
+        photoTable.insertOrReplacePhotos(new PhotoQueryResult(PAGE, false, photos), PAGE, PAGE_SIZE, "new etag");
+        assertFalse(isPhotoStored(3));
+        assertTrue(isPhotoStored(1));
+    }
+
+    @Test
+    public void replacePageKeepsPhotosMovedToAnotherPage() {
+        internalInsertPhotos();
+        List<Photo> nextPage = new ArrayList<>();
+        nextPage.add(Fakes.buildFakePhoto(3, "/photos/3.jpg", "third", false, true, 0));
+        photoTable.insertOrReplacePhotos(new PhotoQueryResult(PAGE + 1, false, nextPage), PAGE + 1, PAGE_SIZE, SOME_ETAG_VALUE);
+        List<Photo> photos = new ArrayList<>();
+        photos.add(Fakes.buildFakePhoto(1, "/photos/1.jpg", "first", true, false, 2));
+        photoTable.insertOrReplacePhotos(new PhotoQueryResult(PAGE, true, photos), PAGE, PAGE_SIZE, "new etag");
+        assertTrue(isPhotoStored(3));
+        assertEquals(3, photoTable.getCachedPhotoQueryResult(PAGE + 1, PAGE_SIZE).getPhotos().get(0).getId());
+    }
+
+    private boolean isPhotoStored(int photoId) {
+        Cursor cursor = photoTable.database.query(PhotoTable.TABLE_NAME, null, PhotoTable.COLUMN_PHOTO_ID + " = ?",
+                new String[]{String.valueOf(photoId)}, null, null, null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RequestDispatcherTest {
+
+    private List<Runnable> dispatched;
+    private RequestDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        // requests that wait for a retry dispatch from other threads
+        dispatched = Collections.synchronizedList(new ArrayList<Runnable>());
+        dispatcher = new RequestDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                dispatched.add(runnable);
+            }
+        }, 4);
+    }
+
+    @Test
+    public void limitsConcurrentRequestsPerType() {
+        for (int i = 0; i < 4; i++)
+            submit(RequestType.LOAD_PHOTOS);
+        assertEquals(2, dispatcher.getRunningRequestCount(RequestType.LOAD_PHOTOS));
+        assertEquals(2, dispatcher.getPendingRequestCount(RequestType.LOAD_PHOTOS));
+        runNext();
+        assertEquals(2, dispatcher.getRunningRequestCount(RequestType.LOAD_PHOTOS));
+        assertEquals(1, dispatcher.getPendingRequestCount(RequestType.LOAD_PHOTOS));
+    }
+
+    @Test
+    public void interactiveRequestIsNotBlockedByBulkRequests() {
+        dispatcher.setMaxConcurrentRequests(RequestType.LOAD_PHOTOS, 4);
+        for (int i = 0; i < 5; i++)
+            submit(RequestType.LOAD_PHOTOS);
+        assertEquals(3, dispatcher.getRunningRequestCount(RequestType.LOAD_PHOTOS));
+        submit(RequestType.FAVORITE_PHOTO);
+        assertEquals(1, dispatcher.getRunningRequestCount(RequestType.FAVORITE_PHOTO));
+    }
+
+    @Test
+    public void interactiveRequestsAreDispatchedBeforeBulkRequests() {
+        dispatcher.setMaxConcurrentRequests(RequestType.LOAD_PHOTOS, 4);
+        for (int i = 0; i < 4; i++)
+            submit(RequestType.LOAD_PHOTOS);
+        submit(RequestType.DELETE_COMMENT);
+        submit(RequestType.UPLOAD_COMMENT);
+        assertEquals(1, dispatcher.getPendingRequestCount(RequestType.UPLOAD_COMMENT));
+        runNext();
+        assertEquals(1, dispatcher.getRunningRequestCount(RequestType.UPLOAD_COMMENT));
+        assertEquals(1, dispatcher.getPendingRequestCount(RequestType.LOAD_PHOTOS));
+    }
+
+    @Test
+    public void bulkRequestTypesAreServedInTurn() {
+        dispatcher.setMaxConcurrentRequests(RequestType.LOAD_PHOTOS, 4);
+        for (int i = 0; i < 5; i++)
+            submit(RequestType.LOAD_PHOTOS);
+        submit(RequestType.SEARCH_PHOTOS);
+        runNext();
+        assertEquals(1, dispatcher.getRunningRequestCount(RequestType.SEARCH_PHOTOS));
+    }
+
+    @Test
+    public void requestWaitingForRetryGivesBackItsSlot() throws InterruptedException {
+        dispatcher.executorFor(RequestType.UPLOAD_PHOTO).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RequestDispatcher.awaitRetry(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        submit(RequestType.UPLOAD_PHOTO);
+        assertEquals(1, dispatcher.getPendingRequestCount(RequestType.UPLOAD_PHOTO));
+
+        Thread retrying = new Thread(dispatched.remove(0));
+        retrying.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (dispatched.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        // the second upload runs while the first one waits for its retry
+        assertEquals(1, dispatched.size());
+        assertEquals(0, dispatcher.getPendingRequestCount(RequestType.UPLOAD_PHOTO));
+        runNext();
+
+        retrying.join(2000);
+        assertFalse(retrying.isAlive());
+        assertEquals(0, dispatcher.getRunningRequestCount(RequestType.UPLOAD_PHOTO));
+    }
+
+    @Test
+    public void requestsWaitingForRetryWithoutSlotAreBoundedBySlots() throws InterruptedException {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        RequestDispatcher bounded = new RequestDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                threads.add(thread);
+                thread.start();
+            }
+        }, 2);
+        bounded.setMaxConcurrentRequests(RequestType.LOAD_COMMENTS, 4);
+        for (int i = 0; i < 4; i++) {
+            bounded.executorFor(RequestType.LOAD_COMMENTS).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        RequestDispatcher.awaitRetry(500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((bounded.getWaitingRetryCount() < 2 || bounded.getRunningRequestCount(RequestType.LOAD_COMMENTS) < 2)
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        // two requests gave their slots to the other two, which wait for their retry while keeping them
+        assertEquals(2, bounded.getWaitingRetryCount());
+        assertEquals(2, bounded.getRunningRequestCount(RequestType.LOAD_COMMENTS));
+        assertEquals(0, bounded.getPendingRequestCount(RequestType.LOAD_COMMENTS));
+        assertEquals(4, threads.size());
+
+        for (Thread thread : new ArrayList<>(threads))
+            thread.join(5000);
+        assertEquals(0, bounded.getWaitingRetryCount());
+        assertEquals(0, bounded.getRunningRequestCount(RequestType.LOAD_COMMENTS));
+    }
+
+    private void submit(RequestType requestType) {
+        dispatcher.executorFor(requestType).execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    private void runNext() {
+        dispatched.remove(0).run();
+    }
+}
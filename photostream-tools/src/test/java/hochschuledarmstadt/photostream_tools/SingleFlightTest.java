@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import hochschuledarmstadt.photostream_tools.model.HttpError;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SingleFlightTest {
+
+    private static final String KEY = "LOAD_COMMENTS http://localhost/photostream/api/image/1/comments";
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private static class NoOpTask extends BaseAsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... params) {
+            return null;
+        }
+
+        @Override
+        protected void sendError(HttpError httpError) {
+        }
+    }
+
+    @Test
+    public void cancelledLeaderEndsTheFlight() {
+        NoOpTask task = new NoOpTask();
+        assertTrue(singleFlight.begin(KEY, null));
+        singleFlight.endWith(KEY, task);
+        task.onCancelled();
+        ShadowLooper.idleMainLooper();
+        assertFalse(singleFlight.isRunning(KEY));
+        assertTrue(singleFlight.begin(KEY, null));
+    }
+
+    @Test
+    public void leaderWithoutCallbackEndsTheFlight() {
+        NoOpTask task = new NoOpTask();
+        singleFlight.begin(KEY, null);
+        singleFlight.endWith(KEY, task);
+        task.onPostExecute(null);
+        ShadowLooper.idleMainLooper();
+        assertFalse(singleFlight.isRunning(KEY));
+    }
+
+    @Test
+    public void finishedLeaderDoesNotEndALaterFlight() {
+        NoOpTask task = new NoOpTask();
+        singleFlight.begin(KEY, null);
+        singleFlight.endWith(KEY, task);
+        singleFlight.complete(KEY);
+        singleFlight.begin(KEY, null);
+        task.onPostExecute(null);
+        ShadowLooper.idleMainLooper();
+        assertTrue(singleFlight.isRunning(KEY));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import hochschuledarmstadt.photostream_tools.model.Comment;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SocketEventCoalescerTest {
+
+    private static final int PHOTO_ID = 1;
+
+    private AndroidSocket.OnMessageListener listener;
+    private SocketEventCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        listener = mock(AndroidSocket.OnMessageListener.class);
+        coalescer = new SocketEventCoalescer(new Handler(Looper.getMainLooper()), listener);
+    }
+
+    @Test
+    public void deliversOncePerFrame() {
+        coalescer.commentCountChanged(PHOTO_ID, 1);
+        verifyZeroInteractions(listener);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(1)).onCommentCountChanged(PHOTO_ID, 1);
+    }
+
+    @Test
+    public void onlyLatestCommentCountSurvives() {
+        for (int commentCount = 1; commentCount <= 10; commentCount++)
+            coalescer.commentCountChanged(PHOTO_ID, commentCount);
+        coalescer.commentCountChanged(PHOTO_ID + 1, 3);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(1)).onCommentCountChanged(eq(PHOTO_ID), anyInt());
+        verify(listener).onCommentCountChanged(PHOTO_ID, 10);
+        verify(listener).onCommentCountChanged(PHOTO_ID + 1, 3);
+    }
+
+    @Test
+    public void commentDeletedInSameFrameIsNotDelivered() {
+        Comment comment = new Comment(5, PHOTO_ID, "message", false);
+        coalescer.newComment(comment);
+        coalescer.commentDeleted(5);
+        coalescer.commentDeleted(6);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, never()).onNewComment(any(Comment.class));
+        verify(listener, never()).onCommentDeleted(5);
+        verify(listener, times(1)).onCommentDeleted(6);
+    }
+
+    @Test
+    public void deletedPhotoDropsCommentCounts() {
+        coalescer.commentCountChanged(PHOTO_ID, 2);
+        coalescer.photoDeleted(PHOTO_ID);
+        coalescer.commentCountChanged(PHOTO_ID, 3);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(1)).onPhotoDeleted(PHOTO_ID);
+        verify(listener, never()).onCommentCountChanged(eq(PHOTO_ID), anyInt());
+    }
+
+    @Test
+    public void keepsOrderOfEvents() {
+        Comment first = new Comment(1, PHOTO_ID, "first", false);
+        Comment second = new Comment(2, PHOTO_ID, "second", false);
+        coalescer.newComment(first);
+        coalescer.commentDeleted(7);
+        coalescer.newComment(second);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onNewComment(first);
+        inOrder.verify(listener).onCommentDeleted(7);
+        inOrder.verify(listener).onNewComment(second);
+    }
+}
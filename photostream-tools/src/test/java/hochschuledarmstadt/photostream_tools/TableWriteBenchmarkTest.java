@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hochschuledarmstadt.photostream_tools.model.Photo;
+import hochschuledarmstadt.photostream_tools.model.PhotoQueryResult;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the former write path (insertOrThrow, update on constraint violation, no transaction)
+ * with the compiled statements of {@link PhotoTable}. Every page is written twice, so half of the
+ * writes hit existing rows. Both paths have to produce the same rows, their timings are only printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TableWriteBenchmarkTest {
+
+    private static final int PAGES = 20;
+    private static final int PAGE_SIZE = 50;
+    private static final String ETAG = "etag";
+
+    private DbTestConnectionDelegate dbTestDelegate;
+    private PhotoTable photoTable;
+
+    @Before
+    public void setUp() {
+        dbTestDelegate = new DbTestConnectionDelegate(RuntimeEnvironment.application.getApplicationContext());
+        photoTable = new PhotoTable(dbTestDelegate);
+        photoTable.openDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        photoTable.closeDatabase();
+        dbTestDelegate.recreateTables();
+    }
+
+    @Test
+    public void writePhotoPages() {
+        List<PhotoQueryResult> pages = createPages();
+
+        long start = System.nanoTime();
+        for (int round = 0; round < 2; round++) {
+            for (PhotoQueryResult page : pages)
+                insertOrUpdateRowByRow(photoTable.database, page);
+        }
+        long rowByRowNanos = System.nanoTime() - start;
+        assertEquals(PAGES * PAGE_SIZE, countPhotos());
+        List<String> rowByRowRows = readRows();
+
+        dbTestDelegate.recreateTables();
+
+        start = System.nanoTime();
+        for (int round = 0; round < 2; round++) {
+            for (PhotoQueryResult page : pages)
+                photoTable.insertOrReplacePhotos(page, page.getPage(), PAGE_SIZE, ETAG);
+        }
+        long compiledNanos = System.nanoTime() - start;
+        assertEquals(PAGES * PAGE_SIZE, countPhotos());
+        assertEquals(rowByRowRows, readRows());
+
+        System.out.println(String.format("compiled statements took %d ms, row by row %d ms", compiledNanos / 1000000, rowByRowNanos / 1000000));
+    }
+
+    private long countPhotos() {
+        return DatabaseUtils.queryNumEntries(photoTable.database, PhotoTable.TABLE_NAME);
+    }
+
+    /**
+     * @return every photo of every page in the order of the pages, with the stored page size
+     */
+    private List<String> readRows() {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = photoTable.database.rawQuery("SELECT e." + PhotoTable.COLUMN_PAGE + ", e." + PhotoTable.COLUMN_POSITION
+                + ", p." + PhotoTable.COLUMN_PAGE_SIZE + ", p." + PhotoTable.COLUMN_HAS_NEXT_PAGE
+                + ", ph." + PhotoTable.COLUMN_PHOTO_ID + ", ph." + PhotoTable.COLUMN_IMAGE_FILE_PATH + ", ph." + PhotoTable.COLUMN_DESCRIPTION
+                + " FROM " + PhotoTable.PAGE_ENTRY_TABLE_NAME + " e"
+                + " JOIN " + PhotoTable.PAGE_TABLE_NAME + " p ON p." + PhotoTable.COLUMN_PAGE + " = e." + PhotoTable.COLUMN_PAGE
+                + " JOIN " + PhotoTable.TABLE_NAME + " ph ON ph." + PhotoTable.COLUMN_PHOTO_ID + " = e." + PhotoTable.COLUMN_PHOTO_ID
+                + " ORDER BY e." + PhotoTable.COLUMN_PAGE + ", e." + PhotoTable.COLUMN_POSITION, null);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 0; column < cursor.getColumnCount(); column++)
+                    row.append(cursor.getString(column)).append('|');
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static List<PhotoQueryResult> createPages() {
+        List<PhotoQueryResult> pages = new ArrayList<>();
+        for (int page = 1; page <= PAGES; page++) {
+            List<Photo> photos = new ArrayList<>();
+            for (int position = 0; position < PAGE_SIZE; position++) {
+                int id = (page - 1) * PAGE_SIZE + position + 1;
+                photos.add(Fakes.buildFakePhoto(id, "/photos/" + id + ".jpg", "description " + id, false, false, 0));
+            }
+            pages.add(new PhotoQueryResult(page, page < PAGES, photos));
+        }
+        return pages;
+    }
+
+    private static void insertOrUpdateRowByRow(SQLiteDatabase database, PhotoQueryResult page) {
+        ContentValues pageValues = new ContentValues();
+        pageValues.put(PhotoTable.COLUMN_PAGE, page.getPage());
+        pageValues.put(PhotoTable.COLUMN_PAGE_SIZE, PAGE_SIZE);
+        pageValues.put(PhotoTable.COLUMN_HAS_NEXT_PAGE, page.hasNextPage() ? 1 : 0);
+        pageValues.put(PhotoTable.COLUMN_ETAG, ETAG);
+        insertOrUpdate(database, PhotoTable.PAGE_TABLE_NAME, pageValues, PhotoTable.COLUMN_PAGE, page.getPage());
+        database.delete(PhotoTable.PAGE_ENTRY_TABLE_NAME, PhotoTable.COLUMN_PAGE + " = ?", new String[]{String.valueOf(page.getPage())});
+        List<Photo> photos = page.getPhotos();
+        for (int position = 0; position < photos.size(); position++) {
+            Photo photo = photos.get(position);
+            ContentValues cv = new ContentValues();
+            cv.put(PhotoTable.COLUMN_PHOTO_ID, photo.getId());
+            cv.put(PhotoTable.COLUMN_IMAGE_FILE_PATH, photo.getImageFilePath());
+            cv.put(PhotoTable.COLUMN_DESCRIPTION, photo.getDescription());
+            cv.put(PhotoTable.COLUMN_FAVORITE, photo.isFavorite() ? 1 : 0);
+            cv.put(PhotoTable.COLUMN_DELETEABLE, photo.isDeleteable() ? 1 : 0);
+            cv.put(PhotoTable.COLUMN_COMMENT_COUNT, photo.getCommentCount());
+            insertOrUpdate(database, PhotoTable.TABLE_NAME, cv, PhotoTable.COLUMN_PHOTO_ID, photo.getId());
+            ContentValues entry = new ContentValues();
+            entry.put(PhotoTable.COLUMN_PAGE, page.getPage());
+            entry.put(PhotoTable.COLUMN_POSITION, position);
+            entry.put(PhotoTable.COLUMN_PHOTO_ID, photo.getId());
+            database.insert(PhotoTable.PAGE_ENTRY_TABLE_NAME, null, entry);
+        }
+    }
+
+    private static void insertOrUpdate(SQLiteDatabase database, String tableName, ContentValues cv, String keyColumn, int key) {
+        try {
+            database.insertOrThrow(tableName, null, cv);
+        } catch (SQLException e) {
+            database.update(tableName, cv, keyColumn + " = ?", new String[]{String.valueOf(key)});
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools.adapter;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import hochschuledarmstadt.photostream_tools.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BitmapMemoryCacheTest {
+
+    private static final int BITMAP_SIZE = 10;
+    private static final long BITMAP_BYTES = BITMAP_SIZE * BITMAP_SIZE * 4;
+
+    private BitmapMemoryCache memoryCache;
+
+    @Before
+    public void setUp() {
+        // room for two bitmaps
+        memoryCache = new BitmapMemoryCache(BITMAP_BYTES * 2);
+    }
+
+    @Test
+    public void staysWithinBudget() {
+        memoryCache.put("1", createBitmap(), false);
+        memoryCache.put("2", createBitmap(), false);
+        assertEquals(BITMAP_BYTES * 2, memoryCache.getSizeBytes());
+        memoryCache.put("3", createBitmap(), false);
+        assertEquals(BITMAP_BYTES * 2, memoryCache.getSizeBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        memoryCache.put("1", createBitmap(), false);
+        memoryCache.put("2", createBitmap(), false);
+        memoryCache.acquire("1");
+        memoryCache.release("1");
+        memoryCache.put("3", createBitmap(), false);
+        assertNull(memoryCache.acquire("2"));
+        assertNotNull(memoryCache.acquire("1"));
+    }
+
+    @Test
+    public void doesNotEvictReferencedBitmaps() {
+        Bitmap shown = createBitmap();
+        memoryCache.put("1", shown, true);
+        memoryCache.put("2", createBitmap(), false);
+        memoryCache.put("3", createBitmap(), false);
+        assertSame(shown, memoryCache.acquire("1"));
+        assertNull(memoryCache.acquire("2"));
+    }
+
+    @Test
+    public void evictsBitmapOnceReleased() {
+        memoryCache.put("1", createBitmap(), true);
+        memoryCache.put("2", createBitmap(), true);
+        memoryCache.put("3", createBitmap(), false);
+        // over budget, because nothing can be evicted
+        assertEquals(BITMAP_BYTES * 3, memoryCache.getSizeBytes());
+        memoryCache.release("1");
+        assertEquals(BITMAP_BYTES * 2, memoryCache.getSizeBytes());
+        assertNull(memoryCache.acquire("1"));
+    }
+
+    @Test
+    public void countsReferences() {
+        memoryCache.put("1", createBitmap(), true);
+        memoryCache.acquire("1");
+        assertEquals(2, memoryCache.getReferenceCount("1"));
+        memoryCache.release("1");
+        memoryCache.release("1");
+        memoryCache.release("1");
+        assertEquals(0, memoryCache.getReferenceCount("1"));
+    }
+
+    @Test
+    public void replacingReferencedBitmapKeepsCachedBitmap() {
+        Bitmap shown = createBitmap();
+        memoryCache.put("1", shown, true);
+        Bitmap result = memoryCache.put("1", createBitmap(), true);
+        assertSame(shown, result);
+        assertEquals(2, memoryCache.getReferenceCount("1"));
+        assertEquals(BITMAP_BYTES, memoryCache.getSizeBytes());
+    }
+
+    @Test
+    public void replacingUnreferencedBitmapUsesNewBitmap() {
+        memoryCache.put("1", createBitmap(), false);
+        Bitmap replacement = createBitmap();
+        assertSame(replacement, memoryCache.put("1", replacement, true));
+        assertEquals(1, memoryCache.getReferenceCount("1"));
+        assertEquals(BITMAP_BYTES, memoryCache.getSizeBytes());
+    }
+
+    @Test
+    public void replacedImageEvictsEveryBitmapOfThePhoto() {
+        String small = BitmapMemoryCache.createKey(1, 10, 10);
+        String large = BitmapMemoryCache.createKey(1, 20, 20);
+        String other = BitmapMemoryCache.createKey(11, 10, 10);
+        memoryCache.put(small, createBitmap(), false);
+        memoryCache.put(large, createBitmap(), false);
+        memoryCache.put(other, createBitmap(), false);
+        memoryCache.onImageReplaced(1);
+        assertNull(memoryCache.acquire(small));
+        assertNull(memoryCache.acquire(large));
+        assertNotNull(memoryCache.acquire(other));
+        assertEquals(BITMAP_BYTES, memoryCache.getSizeBytes());
+    }
+
+    @Test
+    public void releasingBitmapOfReplacedImageKeepsNewBitmapReferenced() {
+        String key = BitmapMemoryCache.createKey(1, 10, 10);
+        memoryCache.put(key, createBitmap(), true);
+        memoryCache.evictPhoto(1);
+        Bitmap replacement = createBitmap();
+        assertSame(replacement, memoryCache.put(key, replacement, true));
+        memoryCache.release(key);
+        assertEquals(1, memoryCache.getReferenceCount(key));
+        memoryCache.release(key);
+        assertEquals(0, memoryCache.getReferenceCount(key));
+    }
+
+    private static Bitmap createBitmap() {
+        return Bitmap.createBitmap(BITMAP_SIZE, BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+    }
+}
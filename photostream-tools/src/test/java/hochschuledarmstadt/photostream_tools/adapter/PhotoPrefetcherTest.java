@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hochschuledarmstadt.photostream_tools.adapter;
+
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import hochschuledarmstadt.photostream_tools.BuildConfig;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PhotoPrefetcherTest {
+
+    private static final int THRESHOLD = 5;
+    private static final int ITEM_COUNT = 20;
+
+    private RecyclerView.Adapter adapter;
+    private BasePhotoAdapter.OnPrefetchListener listener;
+    private boolean metered;
+    private PhotoPrefetcher prefetcher;
+
+    @Before
+    public void setUp() {
+        adapter = mock(RecyclerView.Adapter.class);
+        when(adapter.getItemCount()).thenReturn(ITEM_COUNT);
+        listener = mock(BasePhotoAdapter.OnPrefetchListener.class);
+        metered = false;
+        prefetcher = new PhotoPrefetcher(RuntimeEnvironment.application, adapter, THRESHOLD, listener) {
+            @Override
+            boolean isMeteredNetwork() {
+                return metered;
+            }
+
+            @Override
+            boolean isBackgroundDataRestricted() {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    public void prefetchesOnceNearTheEnd() {
+        prefetcher.onScrolledTo(ITEM_COUNT - 1 - THRESHOLD - 1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, never()).onPrefetchNextPage();
+
+        prefetcher.onScrolledTo(ITEM_COUNT - 1 - THRESHOLD);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        prefetcher.onScrolledTo(ITEM_COUNT - 1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(1)).onPrefetchNextPage();
+
+        when(adapter.getItemCount()).thenReturn(ITEM_COUNT * 2);
+        prefetcher.onScrolledTo(ITEM_COUNT * 2 - 1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(2)).onPrefetchNextPage();
+    }
+
+    @Test
+    public void stoppingTheScrollCancelsThePrefetch() {
+        prefetcher.onScrolledTo(ITEM_COUNT - 1);
+        prefetcher.cancel();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, never()).onPrefetchNextPage();
+    }
+
+    @Test
+    public void restingWithinTheThresholdPrefetchesRightAway() {
+        prefetcher.onScrolledTo(ITEM_COUNT - 1);
+        prefetcher.onSettledAt(ITEM_COUNT - 1);
+        verify(listener, times(1)).onPrefetchNextPage();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(1)).onPrefetchNextPage();
+    }
+
+    @Test
+    public void restingBeforeTheThresholdDropsThePrefetch() {
+        prefetcher.onScrolledTo(ITEM_COUNT - 1);
+        prefetcher.onSettledAt(ITEM_COUNT - 1 - THRESHOLD - 1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, never()).onPrefetchNextPage();
+    }
+
+    @Test
+    public void skipsMeteredNetworkUnlessAllowed() {
+        metered = true;
+        prefetcher.onScrolledTo(ITEM_COUNT - 1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, never()).onPrefetchNextPage();
+
+        prefetcher.setPrefetchOnMeteredNetwork(true);
+        prefetcher.onScrolledTo(ITEM_COUNT - 1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(listener, times(1)).onPrefetchNextPage();
+    }
+}
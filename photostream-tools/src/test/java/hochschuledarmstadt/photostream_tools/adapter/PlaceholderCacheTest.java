@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 Andreas Schattney
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hochschuledarmstadt.photostream_tools.adapter;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import hochschuledarmstadt.photostream_tools.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PlaceholderCacheTest {
+
+    private static final int PREVIEW_SIZE = 8;
+    private static final long PREVIEW_BYTES = PREVIEW_SIZE * PREVIEW_SIZE * 2;
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final long ENTRY_BYTES = ENTRY_OVERHEAD_BYTES + PREVIEW_BYTES;
+
+    private PlaceholderCache placeholderCache;
+    private File imageFile;
+
+    @Before
+    public void setUp() throws IOException {
+        // room for two placeholders with preview
+        placeholderCache = new PlaceholderCache(ENTRY_BYTES * 2);
+        imageFile = File.createTempFile("placeholder", ".jpg");
+    }
+
+    @After
+    public void tearDown() {
+        imageFile.delete();
+    }
+
+    @Test
+    public void readsDimensionsOfPhotoSeenFirstTime() {
+        ShadowBitmapFactory.provideWidthAndHeightHints(imageFile.getAbsolutePath(), 300, 200);
+        PlaceholderCache.Placeholder placeholder = placeholderCache.getOrReadBounds(1, imageFile);
+        assertNotNull(placeholder);
+        assertEquals(300, placeholder.getWidth());
+        assertEquals(200, placeholder.getHeight());
+        assertNull(placeholder.getPreview());
+        assertSame(placeholder, placeholderCache.get(1));
+    }
+
+    @Test
+    public void keepsCachedPlaceholder() {
+        PlaceholderCache.Placeholder cached = new PlaceholderCache.Placeholder(300, 200, createPreview());
+        placeholderCache.put(1, cached);
+        assertSame(cached, placeholderCache.getOrReadBounds(1, imageFile));
+    }
+
+    @Test
+    public void returnsNullForMissingFile() {
+        imageFile.delete();
+        assertNull(placeholderCache.getOrReadBounds(1, imageFile));
+        assertNull(placeholderCache.get(1));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenFull() {
+        placeholderCache.put(1, new PlaceholderCache.Placeholder(300, 200, createPreview()));
+        placeholderCache.put(2, new PlaceholderCache.Placeholder(300, 200, createPreview()));
+        placeholderCache.get(1);
+        placeholderCache.put(3, new PlaceholderCache.Placeholder(300, 200, createPreview()));
+        assertNotNull(placeholderCache.get(1));
+        assertNull(placeholderCache.get(2));
+        assertEquals(ENTRY_BYTES * 2, placeholderCache.getSizeBytes());
+    }
+
+    @Test
+    public void replacingPlaceholderKeepsSizeConsistent() {
+        placeholderCache.put(1, new PlaceholderCache.Placeholder(300, 200, null));
+        assertEquals(ENTRY_OVERHEAD_BYTES, placeholderCache.getSizeBytes());
+        placeholderCache.put(1, new PlaceholderCache.Placeholder(300, 200, createPreview()));
+        assertEquals(ENTRY_BYTES, placeholderCache.getSizeBytes());
+    }
+
+    @Test
+    public void isSharedBetweenAdapters() {
+        assertSame(PlaceholderCache.getInstance(), PlaceholderCache.getInstance());
+    }
+
+    private static Bitmap createPreview() {
+        return Bitmap.createBitmap(PREVIEW_SIZE, PREVIEW_SIZE, Bitmap.Config.RGB_565);
+    }
+}